@@ -0,0 +1,56 @@
+package spaceshapes;
+
+import java.awt.Color;
+
+/**
+ * Implementation of the Painter interface that does nothing. Painting through
+ * a NullPainter isolates the cost of traversing Shapes and dispatching
+ * Painter calls from the cost of actual drawing.
+ * 
+ * @author Henry Man
+ *
+ */
+public class NullPainter implements Painter {
+	// Counts calls so that the JIT cannot discard them as dead code.
+	private long _calls = 0;
+
+	/**
+	 * Returns the number of Painter calls received so far.
+	 */
+	public long calls() {
+		return _calls;
+	}
+
+	public void drawRect(int x, int y, int width, int height) {
+		_calls++;
+	}
+
+	public void drawOval(int x, int y, int width, int height) {
+		_calls++;
+	}
+
+	public void drawLine(int x1, int y1, int x2, int y2) {
+		_calls++;
+	}
+
+	public void fillRect(int x, int y, int width, int height) {
+		_calls++;
+	}
+
+	public Color getColor() {
+		_calls++;
+		return null;
+	}
+
+	public void setColor(Color color) {
+		_calls++;
+	}
+
+	public void translate(int x, int y) {
+		_calls++;
+	}
+
+	public void drawCenteredText(String string, Shape shape) {
+		_calls++;
+	}
+}
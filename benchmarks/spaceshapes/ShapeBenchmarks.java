@@ -0,0 +1,253 @@
+package spaceshapes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmark suite for the hot paths of the spaceshapes package:
+ * Shape.move for each Shape subclass, move/paint/path on deep and wide
+ * CarrierShape trees, painting through a NullPainter to isolate dispatch
+ * costs, and the bulk movement engines (ShapeWorld and ParallelStepper).
+ * Results are consumed through a Blackhole so that the JIT cannot eliminate
+ * the work being measured.
+ *
+ * The benchmarks live outside the spaceshapes source directory so they are
+ * not shipped with it. Run with, from the repository root:
+ *
+ * 		mvn -f benchmarks/pom.xml package
+ * 		java -jar benchmarks/target/benchmarks.jar [regex]
+ *
+ * Only benchmarks whose name matches the regex are run.
+ *
+ * @author Henry Man
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public class ShapeBenchmarks {
+	private static final int WORLD_WIDTH = 1920;
+
+	private static final int WORLD_HEIGHT = 1080;
+
+	private static final int TREE_DEPTH = 64;
+
+	private static final int TREE_WIDTH = 10_000;
+
+	private static final int BULK_SHAPES = 1_000_000;
+
+	/**
+	 * A single Shape of each subclass, and a RectangleShape with text.
+	 */
+	@State(Scope.Thread)
+	public static class SingleShape {
+		@Param({"RectangleShape", "OvalShape", "HexagonShape", "DynamicShape", "CarrierShape",
+				"labelledRectangleShape"})
+		public String kind;
+
+		Shape _shape;
+
+		final NullPainter _painter = new NullPainter();
+
+		@Setup
+		public void setUp() {
+			switch(kind) {
+			case "RectangleShape":
+				_shape = new RectangleShape(10, 10, 3, 7, 40, 30);
+				break;
+			case "OvalShape":
+				_shape = new OvalShape(10, 10, 3, 7, 40, 30);
+				break;
+			case "HexagonShape":
+				_shape = new HexagonShape(10, 10, 3, 7, 70, 45);
+				break;
+			case "DynamicShape":
+				_shape = new DynamicShape(10, 10, 3, 7, 40, 30);
+				break;
+			case "CarrierShape":
+				_shape = new CarrierShape(10, 10, 3, 7, 150, 150);
+				break;
+			default:
+				_shape = new RectangleShape(10, 10, 3, 7, 60, 40);
+				_shape.setText("I am a Rectangle");
+			}
+		}
+	}
+
+	/**
+	 * Deep and wide CarrierShape trees.
+	 */
+	@State(Scope.Thread)
+	public static class Trees {
+		CarrierShape _deepRoot;
+
+		Shape _deepLeaf;
+
+		CarrierShape _wideRoot;
+
+		// Child of the wide tree whose path is found next.
+		int _next = 0;
+
+		final NullPainter _painter = new NullPainter();
+
+		@Setup
+		public void setUp() {
+			_deepRoot = deepTree(TREE_DEPTH);
+			_deepLeaf = deepLeaf(_deepRoot);
+			_wideRoot = wideTree(TREE_WIDTH);
+		}
+	}
+
+	/**
+	 * The same scene of many Shapes for each bulk movement engine.
+	 */
+	@State(Scope.Benchmark)
+	public static class Bulk {
+		List<Shape> _shapes;
+
+		ParallelStepper _stepper;
+
+		ShapeWorld _world;
+
+		@Setup
+		public void setUp() {
+			_shapes = flatScene(BULK_SHAPES);
+			_stepper = new ParallelStepper(ForkJoinPool.commonPool(), 4096);
+			_world = new ShapeWorld(BULK_SHAPES);
+			for(Shape s : flatScene(BULK_SHAPES)) {
+				_world.add(s.x(), s.y(), s.deltaX(), s.deltaY(), s.width(), s.height());
+			}
+		}
+	}
+
+	// Shape.move for each subclass.
+	@Benchmark
+	public void move(SingleShape state, Blackhole blackhole) {
+		state._shape.move(WORLD_WIDTH, WORLD_HEIGHT);
+		blackhole.consume(state._shape.x());
+	}
+
+	// Painter dispatch through a NullPainter.
+	@Benchmark
+	public void paint(SingleShape state, Blackhole blackhole) {
+		state._shape.paint(state._painter);
+		blackhole.consume(state._painter.calls());
+	}
+
+	@Benchmark
+	public void carrierDeepMove(Trees state, Blackhole blackhole) {
+		state._deepRoot.move(WORLD_WIDTH, WORLD_HEIGHT);
+		blackhole.consume(state._deepRoot.x());
+	}
+
+	@Benchmark
+	public void carrierDeepPaint(Trees state, Blackhole blackhole) {
+		state._deepRoot.paint(state._painter);
+		blackhole.consume(state._painter.calls());
+	}
+
+	@Benchmark
+	public void carrierDeepPath(Trees state, Blackhole blackhole) {
+		blackhole.consume(state._deepLeaf.path());
+	}
+
+	@Benchmark
+	public void carrierWideMove(Trees state, Blackhole blackhole) {
+		state._wideRoot.move(WORLD_WIDTH, WORLD_HEIGHT);
+		blackhole.consume(state._wideRoot.x());
+	}
+
+	@Benchmark
+	public void carrierWidePaint(Trees state, Blackhole blackhole) {
+		state._wideRoot.paint(state._painter);
+		blackhole.consume(state._painter.calls());
+	}
+
+	@Benchmark
+	public void carrierWidePath(Trees state, Blackhole blackhole) {
+		blackhole.consume(state._wideRoot.shapeAt(state._next).path());
+		state._next = (state._next + 1) % TREE_WIDTH;
+	}
+
+	@Benchmark
+	public void bulkSequentialMove(Bulk state, Blackhole blackhole) {
+		for(Shape s : state._shapes) {
+			s.move(WORLD_WIDTH, WORLD_HEIGHT);
+		}
+		blackhole.consume(state._shapes.get(0).x());
+	}
+
+	@Benchmark
+	public void bulkParallelMove(Bulk state, Blackhole blackhole) {
+		state._stepper.moveAll(state._shapes, WORLD_WIDTH, WORLD_HEIGHT);
+		blackhole.consume(state._shapes.get(0).x());
+	}
+
+	@Benchmark
+	public void bulkShapeWorldMoveAll(Bulk state, Blackhole blackhole) {
+		state._world.moveAll(WORLD_WIDTH, WORLD_HEIGHT);
+		blackhole.consume(state._world.x(0));
+	}
+
+	/**
+	 * Creates a chain of nested CarrierShapes, each one pixel smaller than its
+	 * parent, with a RectangleShape at the bottom.
+	 */
+	private static CarrierShape deepTree(int depth) {
+		int size = depth * 4 + 20;
+		CarrierShape root = new CarrierShape(0, 0, 1, 1, size, size);
+		CarrierShape carrier = root;
+		for(int i = 1; i < depth; i++) {
+			size -= 4;
+			CarrierShape child = new CarrierShape(0, 0, 1, 1, size, size);
+			carrier.add(child);
+			carrier = child;
+		}
+		carrier.add(new RectangleShape(0, 0, 1, 1, 5, 5));
+		return root;
+	}
+
+	private static Shape deepLeaf(CarrierShape root) {
+		Shape shape = root;
+		while(shape instanceof CarrierShape && ((CarrierShape) shape).shapeCount() > 0) {
+			shape = ((CarrierShape) shape).shapeAt(0);
+		}
+		return shape;
+	}
+
+	/**
+	 * Creates a single CarrierShape holding count small children.
+	 */
+	private static CarrierShape wideTree(int count) {
+		CarrierShape root = new CarrierShape(0, 0, 1, 1, 1000, 1000);
+		for(int i = 0; i < count; i++) {
+			root.add(new OvalShape((i * 7) % 900, (i * 13) % 900, 1 + i % 5, 1 + i % 3, 10, 10));
+		}
+		return root;
+	}
+
+	private static List<Shape> flatScene(int count) {
+		List<Shape> shapes = new ArrayList<Shape>(count);
+		for(int i = 0; i < count; i++) {
+			shapes.add(new RectangleShape((i * 7) % 1800, (i * 13) % 1000, 1 + i % 9, 1 + i % 7, 20, 20));
+		}
+		return shapes;
+	}
+}
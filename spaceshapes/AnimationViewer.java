@@ -2,14 +2,27 @@ package spaceshapes;
 
 import java.awt.Color;
 import java.awt.Graphics;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import javax.management.JMException;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
-import javax.swing.Timer;
+import javax.swing.SwingUtilities;
 
 
 
@@ -18,55 +31,197 @@ import javax.swing.Timer;
  * a special kind of GUI component (JPanel), and as such an instance of 
  * AnimationViewer can be added to a JFrame object. A JFrame object is a 
  * window that can be closed, minimised, and maximised. The state of an
- * AnimationViewer object comprises a list of Shapes and a Timer object. An
- * AnimationViewer instance subscribes to events that are published by a Timer.
- * In response to receiving an event from the Timer, the AnimationViewer iterates 
- * through a list of Shapes requesting that each Shape paints and moves itself.
+ * AnimationViewer object comprises a SimulationEngine and a FrameScheduler.
+ * The SimulationEngine moves the Shapes on its own thread at a fixed rate.
+ * For each frame requested by the FrameScheduler, the AnimationViewer paints
+ * the latest FrameSnapshot published by the SimulationEngine straight away,
+ * reusing the same Shapes from frame to frame, so frames reach the screen at
+ * the pace the FrameScheduler sets. Only the region covered by Shapes that
+ * changed since the previous snapshot is repainted, unless that region is a
+ * large part of the animation area. By default a FramePacer requests 50
+ * frames per second.
+ * 
+ * The world may be given a size of its own, in which case it is viewed
+ * through a Camera: dragging the mouse pans the view and the mouse wheel
+ * zooms it. Only Shapes within the view are painted, and Shapes too small to
+ * make out are painted as single pixels. Otherwise the world is the size of
+ * the animation area.
  * 
  * @author Paramvir Singh (Original Author - Ian Warren)
  * 
  */
 @SuppressWarnings("serial")
-public class AnimationViewer extends JPanel implements ActionListener {
-	// Frequency in milliseconds for the Timer to generate events.
-	private static final int DELAY = 20;
+public class AnimationViewer extends JPanel {
+	// Fraction of the animation area above which the whole area is repainted
+	// rather than just the damaged region.
+	private static final double FULL_REPAINT_THRESHOLD = 0.5;
+	
+	// Screen size in pixels below which Shapes are painted as a single pixel.
+	private static final int DETAIL_PIXELS = 3;
+	
+	// Zoom factor applied per notch of the mouse wheel.
+	private static final double ZOOM_STEP = 1.25;
+	
+	private static final Logger LOGGER = Logger.getLogger(AnimationViewer.class.getName());
 
-	// Collection of Shapes to animate.
-	private List<Shape> _shapes;
+	// Engine that moves the Shapes to animate.
+	private SimulationEngine _engine = new SimulationEngine();
 
-	private Timer _timer = new Timer(DELAY, this);
+	private FrameScheduler _scheduler = null;
+	
+	// === Frame being painted. Only accessed on the event dispatch thread. ===
+	// FrameSnapshot the frame was taken from, held until the next frame.
+	private FrameSnapshot _heldFrame = null;
+	
+	// Shapes painted, reused from frame to frame.
+	private final FrameShapes _frameShapes = new FrameShapes();
+	
+	private List<Shape> _frame = Collections.emptyList();
+	
+	private DamageTracker _damageTracker = null;
+	// ===
+	
+	// Index over _frame for hit testing, refitted as the Shapes move and
+	// only replaced when new Shapes are built.
+	private ShapeIndex _frameIndex = new ShapeIndex(_frame);
+	
+	private Camera _camera = new Camera();
+	
+	private Metrics _metrics = new Metrics();
+	
+	// Counts what each frame paints. Reset by Metrics.recordPaint().
+	private CountingPainter _counter = new CountingPainter(null);
+	
+	// === World size, or 0 when the world follows the animation area. ===
+	private int _worldWidth = 0;
+	
+	private int _worldHeight = 0;
+	// ===
 
 	/**
 	 * Creates an AnimationViewer instance with a list of Shape objects and 
 	 * starts the animation.
 	 */
 	public AnimationViewer() {
+		this(defaultScene());
+	}
+	
+	/**
+	 * Creates an AnimationViewer instance that animates the specified
+	 * top-level Shapes, e.g. a scene loaded with SceneFile, and starts the
+	 * animation.
+	 */
+	public AnimationViewer(List<Shape> scene) {
 		this.setBackground(Color.BLACK);
-		_shapes = new ArrayList<Shape>();
-	
-		// Populate the list of Shapes.
-		_shapes.add(new RectangleShape(0, 0, 2, 3));
-		_shapes.add(new RectangleShape(10, 10, 4, 2));
-		_shapes.add(new OvalShape(20, 20, 3, 5));
-		_shapes.add(new HexagonShape(10, 10, 2, 5, 70, 45));
-		_shapes.add(new DynamicShape(30, 50, 5, 5, 75, 90, new Color(100, 20, 100)));
 		
-		CarrierShape topLevel = new CarrierShape(10, 20, 3, 7, 150, 150);
-		CarrierShape intermediate = new CarrierShape(20, 10, 5, 2, 80, 70);
-		DynamicShape shape = new DynamicShape(5, 5, 3, 1, 25, 10, new Color(0, 200, 0));
-		intermediate.add(shape);
-		topLevel.add(intermediate);
-		_shapes.add(topLevel);
+		for(Shape s : scene) {
+			_engine.add(s);
+		}
 		
-		RectangleShape rectangle = new RectangleShape(40, 40, 2, 8, 60, 40);
-		rectangle.setText("I am a Rectangle");
-		_shapes.add(rectangle);
+		// Keep the world bounds in step with the size of the animation area,
+		// unless the world has a size of its own.
+		addComponentListener(new ComponentAdapter() {
+			public void componentResized(ComponentEvent e) {
+				if(_worldWidth == 0) {
+					_engine.setWorldSize(getWidth(), getHeight());
+				}
+			}
+		});
 		
+		// Pan by dragging and zoom with the mouse wheel.
+		MouseAdapter navigator = new MouseAdapter() {
+			private int _lastX;
+			
+			private int _lastY;
+			
+			public void mousePressed(MouseEvent e) {
+				_lastX = e.getX();
+				_lastY = e.getY();
+			}
+			
+			public void mouseDragged(MouseEvent e) {
+				if(_worldWidth == 0) {
+					return;
+				}
+				_camera.pan(e.getX() - _lastX, e.getY() - _lastY);
+				_lastX = e.getX();
+				_lastY = e.getY();
+				repaint();
+			}
+			
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				if(_worldWidth == 0) {
+					return;
+				}
+				_camera.zoomAt(Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()), e.getX(), e.getY());
+				repaint();
+			}
+		};
+		addMouseListener(navigator);
+		addMouseMotionListener(navigator);
+		addMouseWheelListener(navigator);
 		
 		// Start the animation.
-		_timer.start();
+		_engine.setMetrics(_metrics);
+		_engine.start();
+		FramePacer pacer = new FramePacer();
+		pacer.setSync(true);
+		pacer.setMetrics(_metrics);
+		setFrameScheduler(pacer);
+	}
+	
+	/**
+	 * Replaces the FrameScheduler that decides when frames are painted,
+	 * stopping the previous one, and starts it.
+	 */
+	public void setFrameScheduler(FrameScheduler scheduler) {
+		if(_scheduler != null) {
+			_scheduler.stop();
+		}
+		_scheduler = scheduler;
+		scheduler.start(this::requestFrame);
+	}
+	
+	/**
+	 * Returns the FrameScheduler that decides when frames are painted.
+	 */
+	public FrameScheduler frameScheduler() {
+		return _scheduler;
 	}
 
+	/**
+	 * Gives the world a size independent of the animation area and fits the
+	 * whole world into the view. The view can then be panned and zoomed.
+	 * @throws IllegalArgumentException if width or height is not positive.
+	 */
+	public void setWorldSize(int width, int height) throws IllegalArgumentException {
+		if(width <= 0 || height <= 0) {
+			throw new IllegalArgumentException();
+		}
+		_worldWidth = width;
+		_worldHeight = height;
+		_engine.setWorldSize(width, height);
+		_camera.fit(width, height, getWidth(), getHeight());
+		repaint();
+	}
+	
+	/**
+	 * Returns the Camera through which a world with a size of its own is
+	 * viewed. Call repaint() after changing it.
+	 */
+	public Camera camera() {
+		return _camera;
+	}
+	
+	/**
+	 * Returns the Metrics recording this AnimationViewer's step and paint
+	 * times, Shapes painted and, with the default FrameScheduler, missed
+	 * frame deadlines.
+	 */
+	public Metrics metrics() {
+		return _metrics;
+	}
+	
 	/**
 	 * Called by the Swing framework whenever this AnimationViewer object
 	 * should be repainted. This can happen, for example, after an explicit 
@@ -78,42 +233,164 @@ public class AnimationViewer extends JPanel implements ActionListener {
 		// Call inherited implementation to handle background painting.
 		super.paintComponent(g);
 		
-		// Calculate bounds of animation screen area.
-		int width = getSize().width;
-		int height = getSize().height;
-		
 		// Create a GraphicsPainter that Shape objects will use for drawing.
-		// The GraphicsPainter delegates painting to a basic Graphics object.
-		Painter painter = new GraphicsPainter(g);
+		// The GraphicsPainter delegates painting to a basic Graphics object,
+		// batching outlines of the same colour into a single draw call.
+		// When the world has a size of its own, draw through the Camera and
+		// reduce detail of Shapes that are too small to make out.
+		Graphics2D view = (Graphics2D) g.create();
+		GraphicsPainter painter;
+		if(_worldWidth == 0) {
+			painter = new GraphicsPainter(view, true);
+		} else {
+			_camera.apply(view);
+			painter = new GraphicsPainter(view, true);
+			painter.setDetailThreshold(DETAIL_PIXELS);
+		}
 		
-		// Progress the animation.
-		for(Shape s : _shapes) {
-			s.paint(painter);
-			s.move(width, height);
+		// Paint the current frame, counting what is painted. Movement
+		// happens on the engine's thread.
+		long start = System.nanoTime();
+		_counter.setPainter(painter);
+		for(Shape s : _frame) {
+			s.paint(_counter);
 		}
+		painter.flush();
+		_counter.setPainter(null);
+		_metrics.recordPaint(System.nanoTime() - start, _counter);
+		view.dispose();
 	}
 
 	/**
-	 * Notifies this AnimationViewer object of an ActionEvent. ActionEvents are
-	 * received by the Timer.
+	 * Returns the deepest Shape on screen whose bounding box contains the
+	 * specified point, or null if there is none. The point is in screen
+	 * coordinates. Must be called on the event dispatch thread, e.g. from a
+	 * mouse listener.
 	 */
-	public void actionPerformed(ActionEvent e) {
-		// Request that the AnimationViewer repaints itself. The call to 
-		// repaint() will cause the AnimationViewer's paintComponent() method 
-		// to be called.
-		repaint();
+	public Shape hitTest(int x, int y) {
+		if(_worldWidth == 0) {
+			return _frameIndex.hitTest(x, y);
+		}
+		return _frameIndex.hitTest((int) Math.floor(_camera.toWorldX(x)), (int) Math.floor(_camera.toWorldY(y)));
+	}
+
+	/**
+	 * Called by the FrameScheduler for each frame. Paints the frame on the
+	 * event dispatch thread and waits for it, so that a FrameScheduler sees
+	 * frames that take too long. A frame that fails to paint is logged and
+	 * skipped, so that the FrameScheduler's thread keeps requesting frames.
+	 */
+	private void requestFrame() {
+		try {
+			SwingUtilities.invokeAndWait(this::paintFrame);
+		} catch(InterruptedException e) {
+			// The FrameScheduler is being stopped.
+			Thread.currentThread().interrupt();
+		} catch(InvocationTargetException e) {
+			LOGGER.log(Level.WARNING, "Failed to paint frame", e.getCause());
+		}
+	}
+	
+	/**
+	 * Brings the Shapes painted in line with a FrameSnapshot, and the index
+	 * used for hit testing with them.
+	 */
+	private void updateShapes(FrameSnapshot frame) {
+		_frame = _frameShapes.update(frame);
+		if(_frameShapes.rebuilt()) {
+			_frameIndex = new ShapeIndex(_frame);
+		} else {
+			_frameIndex.invalidate();
+		}
+	}
+
+	/**
+	 * Takes the latest FrameSnapshot and paints the region that changed.
+	 * The FrameSnapshot is held until the next frame, so that the damage can
+	 * be found from the arrays of both without building Shapes for the
+	 * previous frame.
+	 */
+	private void paintFrame() {
+		FrameSnapshot frame = _engine.acquireFrame();
+		if(_heldFrame == null) {
+			_heldFrame = frame;
+			updateShapes(frame);
+			paintImmediately(0, 0, getWidth(), getHeight());
+			return;
+		}
+		if(frame.generation() == _heldFrame.generation()) {
+			frame.release();
+			return;
+		}
+		if(_damageTracker == null) {
+			_damageTracker = new DamageTracker(getFontMetrics(getFont()));
+		}
+		Rectangle damage = _damageTracker.damage(_heldFrame, frame);
+		updateShapes(frame);
+		_heldFrame.release();
+		_heldFrame = frame;
+		
+		// Repaint the region that changed. The call to paintImmediately()
+		// causes the AnimationViewer's paintComponent() method to be called
+		// before it returns.
+		if(damage == null) {
+			return;
+		}
+		if(_worldWidth != 0) {
+			damage = _camera.toScreen(damage);
+		}
+		if((double) damage.width * damage.height > FULL_REPAINT_THRESHOLD * getWidth() * getHeight()) {
+			paintImmediately(0, 0, getWidth(), getHeight());
+		} else {
+			paintImmediately(damage);
+		}
 	}
 	
 	
+	/**
+	 * Returns the Shapes animated when no scene is specified.
+	 */
+	static List<Shape> defaultScene() {
+		List<Shape> scene = new ArrayList<Shape>();
+		scene.add(new RectangleShape(0, 0, 2, 3));
+		scene.add(new RectangleShape(10, 10, 4, 2));
+		scene.add(new OvalShape(20, 20, 3, 5));
+		scene.add(new HexagonShape(10, 10, 2, 5, 70, 45));
+		scene.add(new DynamicShape(30, 50, 5, 5, 75, 90, new Color(100, 20, 100)));
+		
+		CarrierShape topLevel = new CarrierShape(10, 20, 3, 7, 150, 150);
+		CarrierShape intermediate = new CarrierShape(20, 10, 5, 2, 80, 70);
+		DynamicShape shape = new DynamicShape(5, 5, 3, 1, 25, 10, new Color(0, 200, 0));
+		intermediate.add(shape);
+		topLevel.add(intermediate);
+		scene.add(topLevel);
+		
+		RectangleShape rectangle = new RectangleShape(40, 40, 2, 8, 60, 40);
+		rectangle.setText("I am a Rectangle");
+		scene.add(rectangle);
+		return scene;
+	}
+	
 	/**
 	 * Main program method to create an AnimationViewer object and display this
-	 * within a JFrame window.
+	 * within a JFrame window. If a scene file is specified as an argument,
+	 * its Shapes are animated instead of the default ones.
 	 */
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException {
+		List<Shape> scene = args.length > 0 ? SceneFile.loadShapes(Paths.get(args[0])) : defaultScene();
 		javax.swing.SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
 				JFrame frame = new JFrame("Animation viewer");
-				frame.add(new AnimationViewer());
+				AnimationViewer viewer = new AnimationViewer(scene);
+				frame.add(viewer);
+				
+				// Expose metrics over JMX and log them every ten seconds.
+				try {
+					viewer.metrics().register("AnimationViewer");
+				} catch(JMException e) {
+					e.printStackTrace();
+				}
+				viewer.metrics().startLogging(10, TimeUnit.SECONDS);
 		
 				// Set window properties.
 				frame.setSize(500, 500);
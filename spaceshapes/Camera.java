@@ -0,0 +1,146 @@
+package spaceshapes;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+
+/**
+ * Maps the two-dimensional world onto the screen. A Camera has a position,
+ * the world point shown at the top left corner of the view, and a zoom
+ * factor, the number of screen pixels per world unit. A zoom below 1 shows
+ * more of the world than fits in the view at its natural size.
+ *
+ * Once a Camera has been applied to a Graphics2D object, the clip of that
+ * object is in world coordinates, so Shapes outside the view are culled by
+ * GraphicsPainter.isVisible without any further work.
+ *
+ * @author Henry Man
+ *
+ */
+public class Camera {
+	// === Constants for default values. ===
+	protected static final double DEFAULT_MIN_ZOOM = 1.0 / 1024;
+
+	protected static final double DEFAULT_MAX_ZOOM = 64;
+	// ===
+
+	private double _x = 0;
+
+	private double _y = 0;
+
+	private double _zoom = 1;
+
+	/**
+	 * Returns the x coordinate of the world point at the left edge of the
+	 * view.
+	 */
+	public double x() {
+		return _x;
+	}
+
+	/**
+	 * Returns the y coordinate of the world point at the top edge of the
+	 * view.
+	 */
+	public double y() {
+		return _y;
+	}
+
+	/**
+	 * Returns the number of screen pixels per world unit.
+	 */
+	public double zoom() {
+		return _zoom;
+	}
+
+	/**
+	 * Sets the world point shown at the top left corner of the view.
+	 */
+	public void setPosition(double x, double y) {
+		_x = x;
+		_y = y;
+	}
+
+	/**
+	 * Sets the zoom factor, keeping the top left corner of the view in place.
+	 * The factor is clamped to the range the Camera supports.
+	 * @throws IllegalArgumentException if zoom is not positive.
+	 */
+	public void setZoom(double zoom) throws IllegalArgumentException {
+		if(!(zoom > 0)) {
+			throw new IllegalArgumentException();
+		}
+		_zoom = Math.max(DEFAULT_MIN_ZOOM, Math.min(DEFAULT_MAX_ZOOM, zoom));
+	}
+
+	/**
+	 * Moves the view by a distance measured in screen pixels, e.g. the
+	 * distance the mouse was dragged. The world appears to follow the
+	 * movement.
+	 */
+	public void pan(int dx, int dy) {
+		_x -= dx / _zoom;
+		_y -= dy / _zoom;
+	}
+
+	/**
+	 * Multiplies the zoom factor by factor, keeping the world point under the
+	 * specified screen position in place, e.g. the point under the mouse.
+	 * @throws IllegalArgumentException if factor is not positive.
+	 */
+	public void zoomAt(double factor, int screenX, int screenY) throws IllegalArgumentException {
+		double worldX = toWorldX(screenX);
+		double worldY = toWorldY(screenY);
+		setZoom(_zoom * factor);
+		_x = worldX - screenX / _zoom;
+		_y = worldY - screenY / _zoom;
+	}
+
+	/**
+	 * Sets the position and zoom so that the whole of a world of the
+	 * specified size fits in, and is centred within, a view of the specified
+	 * size.
+	 */
+	public void fit(int worldWidth, int worldHeight, int viewWidth, int viewHeight) {
+		if(worldWidth <= 0 || worldHeight <= 0 || viewWidth <= 0 || viewHeight <= 0) {
+			return;
+		}
+		setZoom(Math.min((double) viewWidth / worldWidth, (double) viewHeight / worldHeight));
+		_x = (worldWidth - viewWidth / _zoom) / 2;
+		_y = (worldHeight - viewHeight / _zoom) / 2;
+	}
+
+	/**
+	 * Converts a horizontal screen position to a world x coordinate.
+	 */
+	public double toWorldX(int screenX) {
+		return _x + screenX / _zoom;
+	}
+
+	/**
+	 * Converts a vertical screen position to a world y coordinate.
+	 */
+	public double toWorldY(int screenY) {
+		return _y + screenY / _zoom;
+	}
+
+	/**
+	 * Returns the smallest screen rectangle covering a rectangle given in
+	 * world coordinates.
+	 */
+	public Rectangle toScreen(Rectangle world) {
+		int minX = (int) Math.floor((world.x - _x) * _zoom);
+		int minY = (int) Math.floor((world.y - _y) * _zoom);
+		int maxX = (int) Math.ceil((world.x + world.width - _x) * _zoom);
+		int maxY = (int) Math.ceil((world.y + world.height - _y) * _zoom);
+		return new Rectangle(minX, minY, maxX - minX, maxY - minY);
+	}
+
+	/**
+	 * Transforms a Graphics2D object so that drawing in world coordinates
+	 * appears where this Camera shows it.
+	 */
+	public void apply(Graphics2D g) {
+		g.scale(_zoom, _zoom);
+		g.translate(-_x, -_y);
+	}
+}
@@ -2,6 +2,7 @@ package spaceshapes;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Class representing a CarrierShape Object.
@@ -13,7 +14,51 @@ import java.util.ArrayList;
  */
 public class CarrierShape extends Shape {
 	
-	private List<Shape> _children = new ArrayList<Shape>();
+	// Children in insertion order. A removed child leaves a null tombstone in
+	// its slot until the list is next compacted, once tombstones outnumber
+	// live children or when the children are moved. Each child records its
+	// own slot, so finding a child's position never needs a search.
+	private ArrayList<Shape> _children = new ArrayList<Shape>();
+	
+	private int _tombstones = 0;
+	
+	// Fenwick tree counting tombstones by slot, so that a child's position
+	// among the live children is found without compacting. Entry i, from 1,
+	// counts the tombstones in slots i - (i & -i) to i - 1.
+	private int[] _tombstoneTree = new int[16];
+	
+	// Number of children above which hit testing uses a ShapeIndex rather
+	// than testing every child.
+	private static final int INDEX_THRESHOLD = 16;
+	
+	// Index over the children for hit testing, created on first use.
+	private ShapeIndex _index = null;
+	
+	// === Bounds of this CarrierShape and all of its descendants, in the 
+	// same coordinate space as its position. Recomputed after every move,
+	// and widened or recomputed as children are added and removed. ===
+	private int _subtreeMinX;
+	
+	private int _subtreeMinY;
+	
+	private int _subtreeMaxX;
+	
+	private int _subtreeMaxY;
+	// ===
+	
+	// === Bounds of the centres of the Shapes with text in the subtree and
+	// the length of the longest text, or 0 if there is none. Between moves
+	// these may cover text that has since been removed. ===
+	private int _subtreeTextMinX;
+	
+	private int _subtreeTextMinY;
+	
+	private int _subtreeTextMaxX;
+	
+	private int _subtreeTextMaxY;
+	
+	private int _subtreeTextLength = 0;
+	// ===
 
 
 	/**
@@ -22,6 +67,7 @@ public class CarrierShape extends Shape {
 	 */
 	public CarrierShape() {
 		super();
+		initBounds();
 	}
 	/**
 	 * Creates CarrierShape instance with specified values for instance variables
@@ -30,6 +76,7 @@ public class CarrierShape extends Shape {
 	 */
 	public CarrierShape(int x, int y) {
 		super(x, y);
+		initBounds();
 	}
 
 	/**
@@ -41,6 +88,7 @@ public class CarrierShape extends Shape {
 	 */
 	public CarrierShape(int x, int y, int deltaX, int deltaY) {
 		super(x, y, deltaX, deltaY);
+		initBounds();
 	}
 
 	/**
@@ -54,6 +102,7 @@ public class CarrierShape extends Shape {
 	 */
 	public CarrierShape(int x, int y, int deltaX, int deltaY, int width, int height) {
 		super(x, y, deltaX, deltaY, width, height);
+		initBounds();
 	}
 	
 	/**
@@ -63,25 +112,316 @@ public class CarrierShape extends Shape {
 	@Override
 	public void move(int width, int height) {
 		super.move(width, height);
+		compact();
 		for(Shape child: _children) {
 			child.move(_width, _height);
 		}
+		refreshBounds();
+		invalidateIndex();
+	}
+
+	/**
+	 * Advances a CarrierShape object, and each of its children within its
+	 * bounds, as n calls to move() would.
+	 */
+	@Override
+	public void advance(long n, int width, int height) throws IllegalArgumentException {
+		super.advance(n, width, height);
+		compact();
+		for(Shape child: _children) {
+			child.advance(n, _width, _height);
+		}
+		refreshBounds();
+		invalidateIndex();
+	}
+
+	/**
+	 * Moves this CarrierShape object without moving its children. Used when
+	 * the children are moved separately, e.g. in parallel by a ParallelStepper.
+	 */
+	void moveSelf(int width, int height) {
+		super.move(width, height);
+		invalidateIndex();
+	}
+	
+	/**
+	 * Sets the bounds of a new CarrierShape, which has no children or text,
+	 * to its own bounding box.
+	 */
+	private void initBounds() {
+		_subtreeMinX = _x;
+		_subtreeMinY = _y;
+		_subtreeMaxX = _x + _width;
+		_subtreeMaxY = _y + _height;
+	}
+	
+	/**
+	 * Recomputes the bounds of this CarrierShape's subtree from its own
+	 * bounds and those of its children, which must already be up to date.
+	 * @return true if the bounds changed.
+	 */
+	final boolean refreshBounds() {
+		int minX = _subtreeMinX;
+		int minY = _subtreeMinY;
+		int maxX = _subtreeMaxX;
+		int maxY = _subtreeMaxY;
+		int textMinX = _subtreeTextMinX;
+		int textMinY = _subtreeTextMinY;
+		int textMaxX = _subtreeTextMaxX;
+		int textMaxY = _subtreeTextMaxY;
+		int textLength = _subtreeTextLength;
+		initBounds();
+		_subtreeTextLength = 0;
+		includeText(super.subtreeTextMinX(), super.subtreeTextMinY(), super.subtreeTextMaxX(), 
+				super.subtreeTextMaxY(), super.subtreeTextLength());
+		for(Shape child: _children) {
+			if(child != null) {
+				include(child);
+			}
+		}
+		return minX != _subtreeMinX || minY != _subtreeMinY || maxX != _subtreeMaxX || maxY != _subtreeMaxY
+				|| textMinX != _subtreeTextMinX || textMinY != _subtreeTextMinY || textMaxX != _subtreeTextMaxX
+				|| textMaxY != _subtreeTextMaxY || textLength != _subtreeTextLength;
+	}
+	
+	/**
+	 * Widens the bounds of this CarrierShape's subtree to cover a child's.
+	 * @return true if the bounds changed.
+	 */
+	private boolean include(Shape child) {
+		boolean changed = false;
+		if(_x + child.subtreeMinX() < _subtreeMinX) {
+			_subtreeMinX = _x + child.subtreeMinX();
+			changed = true;
+		}
+		if(_y + child.subtreeMinY() < _subtreeMinY) {
+			_subtreeMinY = _y + child.subtreeMinY();
+			changed = true;
+		}
+		if(_x + child.subtreeMaxX() > _subtreeMaxX) {
+			_subtreeMaxX = _x + child.subtreeMaxX();
+			changed = true;
+		}
+		if(_y + child.subtreeMaxY() > _subtreeMaxY) {
+			_subtreeMaxY = _y + child.subtreeMaxY();
+			changed = true;
+		}
+		return includeText(_x + child.subtreeTextMinX(), _y + child.subtreeTextMinY(), _x + child.subtreeTextMaxX(),
+				_y + child.subtreeTextMaxY(), child.subtreeTextLength()) || changed;
+	}
+	
+	/**
+	 * Widens the text bounds of this CarrierShape's subtree to cover text
+	 * of the specified length centred within a rectangle, if length is not
+	 * 0.
+	 * @return true if the text bounds changed.
+	 */
+	private boolean includeText(int minX, int minY, int maxX, int maxY, int length) {
+		if(length == 0) {
+			return false;
+		}
+		if(_subtreeTextLength == 0) {
+			_subtreeTextMinX = minX;
+			_subtreeTextMinY = minY;
+			_subtreeTextMaxX = maxX;
+			_subtreeTextMaxY = maxY;
+			_subtreeTextLength = length;
+			return true;
+		}
+		boolean changed = false;
+		if(minX < _subtreeTextMinX) {
+			_subtreeTextMinX = minX;
+			changed = true;
+		}
+		if(minY < _subtreeTextMinY) {
+			_subtreeTextMinY = minY;
+			changed = true;
+		}
+		if(maxX > _subtreeTextMaxX) {
+			_subtreeTextMaxX = maxX;
+			changed = true;
+		}
+		if(maxY > _subtreeTextMaxY) {
+			_subtreeTextMaxY = maxY;
+			changed = true;
+		}
+		if(length > _subtreeTextLength) {
+			_subtreeTextLength = length;
+			changed = true;
+		}
+		return changed;
+	}
+	
+	/**
+	 * Returns true if a child's bounds, in the coordinate space of the
+	 * children, reach an edge of the bounds of this CarrierShape's subtree.
+	 */
+	private boolean touches(int minX, int minY, int maxX, int maxY) {
+		return _x + minX <= _subtreeMinX || _y + minY <= _subtreeMinY 
+				|| _x + maxX >= _subtreeMaxX || _y + maxY >= _subtreeMaxY;
+	}
+	
+	/**
+	 * Brings the bounds of this CarrierShape's subtree up to date after the
+	 * bounds or text of a child changed, given the child's old bounds. The
+	 * children are only rescanned if the child may have moved away from an
+	 * edge it used to reach; otherwise the bounds are widened to cover the
+	 * child. A change is passed on to the CarrierShape above.
+	 */
+	void childChanged(Shape child, int oldMinX, int oldMinY, int oldMaxX, int oldMaxY) {
+		int minX = _subtreeMinX;
+		int minY = _subtreeMinY;
+		int maxX = _subtreeMaxX;
+		int maxY = _subtreeMaxY;
+		boolean shrunk = child.subtreeMinX() > oldMinX || child.subtreeMinY() > oldMinY 
+				|| child.subtreeMaxX() < oldMaxX || child.subtreeMaxY() < oldMaxY;
+		boolean changed = shrunk && touches(oldMinX, oldMinY, oldMaxX, oldMaxY) ? refreshBounds() : include(child);
+		if(changed) {
+			passUp(minX, minY, maxX, maxY);
+		}
+	}
+	
+	/**
+	 * Tells the CarrierShape above, if any, that the bounds of this subtree
+	 * changed from the specified ones.
+	 */
+	private void passUp(int oldMinX, int oldMinY, int oldMaxX, int oldMaxY) {
+		CarrierShape parent = parent();
+		if(parent != null) {
+			parent.childChanged(this, oldMinX, oldMinY, oldMaxX, oldMaxY);
+		}
+	}
+	
+	/**
+	 * Widens the text bounds to cover this CarrierShape's own text.
+	 */
+	@Override
+	void textChanged() {
+		int minX = _subtreeMinX;
+		int minY = _subtreeMinY;
+		int maxX = _subtreeMaxX;
+		int maxY = _subtreeMaxY;
+		if(includeText(super.subtreeTextMinX(), super.subtreeTextMinY(), super.subtreeTextMaxX(), 
+				super.subtreeTextMaxY(), super.subtreeTextLength())) {
+			passUp(minX, minY, maxX, maxY);
+		}
+	}
+	
+	@Override
+	int subtreeMinX() {
+		return _subtreeMinX;
+	}
+	
+	@Override
+	int subtreeMinY() {
+		return _subtreeMinY;
+	}
+	
+	@Override
+	int subtreeMaxX() {
+		return _subtreeMaxX;
+	}
+	
+	@Override
+	int subtreeMaxY() {
+		return _subtreeMaxY;
+	}
+	
+	@Override
+	int subtreeTextMinX() {
+		return _subtreeTextMinX;
+	}
+	
+	@Override
+	int subtreeTextMinY() {
+		return _subtreeTextMinY;
+	}
+	
+	@Override
+	int subtreeTextMaxX() {
+		return _subtreeTextMaxX;
+	}
+	
+	@Override
+	int subtreeTextMaxY() {
+		return _subtreeTextMaxY;
+	}
+	
+	@Override
+	int subtreeTextLength() {
+		return _subtreeTextLength;
+	}
+	
+	/**
+	 * Returns the live list of this CarrierShape's children.
+	 */
+	List<Shape> children() {
+		compact();
+		return _children;
 	}
 
 	/**
 	 * Paints a carrierShape object by drawing a rectangle around the edge
-	 * of its bounding box. The CarrierShape object's children are then painted
+	 * of its bounding box. The CarrierShape object's children are then painted.
+	 * Children whose subtrees are not visible to the painter (e.g. outside the
+	 * clip of a GraphicsPainter) are skipped by Shape.paint. Tombstones are
+	 * skipped rather than compacted, so painting does not modify the
+	 * CarrierShape and several threads may paint it at once.
 	 */
 	@Override
 	public void paintShape(Painter painter) {
 		painter.drawRect(_x, _y, _width, _height);
 		painter.translate(_x, _y);
 		for(Shape child: _children) {
-			child.paint(painter);
+			if(child != null) {
+				child.paint(painter);
+			}
 		}
 		painter.translate(-_x, -_y);
 	}
 	
+	/**
+	 * Returns a deep copy of this CarrierShape. Every child is copied in turn
+	 * and linked to the new CarrierShape, so the copy forms a separate
+	 * containment hierarchy with the same structure as the original.
+	 */
+	@Override
+	public CarrierShape copy() {
+		return (CarrierShape) super.copy();
+	}
+	
+	@Override
+	CarrierShape copyTree() {
+		CarrierShape copy = (CarrierShape) super.copyTree();
+		copy._children = new ArrayList<Shape>(shapeCount());
+		copy._tombstones = 0;
+		copy._tombstoneTree = new int[_children.size() - _tombstones + 1];
+		copy._index = null;
+		for(Shape child: _children) {
+			if(child != null) {
+				Shape childCopy = child.copyTree();
+				childCopy.setChildSlot(copy._children.size());
+				copy._children.add(childCopy);
+				childCopy.link(copy);
+			}
+		}
+		return copy;
+	}
+	
+	/**
+	 * Updates the cached depth and root of this CarrierShape and of every
+	 * Shape beneath it.
+	 */
+	@Override
+	void updateAncestry() {
+		super.updateAncestry();
+		for(Shape child: _children) {
+			if(child != null) {
+				child.updateAncestry();
+			}
+		}
+	}
+	
 	/**
 	 * Attempts add a Shape to a CarrierShape object. If successful, a 
 	 * two-way link is established between the CarrierShape and the newly
@@ -97,8 +437,33 @@ public class CarrierShape extends Shape {
 			System.out.println("hi");
 			throw new IllegalArgumentException();
 		}
+		shape.setChildSlot(_children.size());
 		_children.add(shape);
+		appendSlot();
 		shape.setParentCarrierShape(this);
+		int minX = _subtreeMinX;
+		int minY = _subtreeMinY;
+		int maxX = _subtreeMaxX;
+		int maxY = _subtreeMaxY;
+		if(include(shape)) {
+			passUp(minX, minY, maxX, maxY);
+		}
+		if(_index != null) {
+			_index.rebuild();
+		}
+	}
+	
+	/**
+	 * Appends a child without checking that it fits and without updating
+	 * bounds or ancestry, e.g. when rebuilding a tree from a FrameSnapshot.
+	 * The caller must call refreshBounds() once every child has been attached
+	 * and updateAncestry() on the top of the tree.
+	 */
+	void attach(Shape shape) {
+		shape.setChildSlot(_children.size());
+		_children.add(shape);
+		appendSlot();
+		shape.link(this);
 	}
 	
 	/**
@@ -109,9 +474,152 @@ public class CarrierShape extends Shape {
 	 * @param shape the shape to be removed.
 	 */
 	void remove(Shape shape) {
-		_children.remove(shape);
+		if(shape.parent() != this) {
+			return;
+		}
+		_children.set(shape.childSlot(), null);
+		_tombstones++;
+		for(int i = shape.childSlot() + 1; i <= _children.size(); i += i & -i) {
+			_tombstoneTree[i]++;
+		}
+		shape.setChildSlot(-1);
 		shape.setParentCarrierShape(null);
+		// Only a child that reached an edge of the bounds can shrink them.
+		int minX = _subtreeMinX;
+		int minY = _subtreeMinY;
+		int maxX = _subtreeMaxX;
+		int maxY = _subtreeMaxY;
+		if(touches(shape.subtreeMinX(), shape.subtreeMinY(), shape.subtreeMaxX(), shape.subtreeMaxY())
+				&& refreshBounds()) {
+			passUp(minX, minY, maxX, maxY);
+		}
+		if(_index != null) {
+			_index.rebuild();
+		}
 		
+		// Keep tombstones from outnumbering live children.
+		if(_tombstones > _children.size() / 2) {
+			compact();
+		}
+	}
+	
+	/**
+	 * Adds an entry to the tombstone tree for the slot just appended to the
+	 * children.
+	 */
+	private void appendSlot() {
+		int i = _children.size();
+		if(i >= _tombstoneTree.length) {
+			_tombstoneTree = Arrays.copyOf(_tombstoneTree, Math.max(i + 1, 2 * _tombstoneTree.length));
+		}
+		// Sum the entries covering the rest of the new entry's range.
+		int count = 0;
+		for(int j = i - 1; j > i - (i & -i); j -= j & -j) {
+			count += _tombstoneTree[j];
+		}
+		_tombstoneTree[i] = count;
+	}
+	
+	/**
+	 * Returns the number of tombstones in the slots before slot.
+	 */
+	private int tombstonesBefore(int slot) {
+		int count = 0;
+		for(int i = slot; i > 0; i -= i & -i) {
+			count += _tombstoneTree[i];
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the slot of the live child at the specified position, which
+	 * must be in range, by descending the tombstone tree.
+	 */
+	private int liveSlot(int index) {
+		if(_tombstones == 0) {
+			return index;
+		}
+		int slot = 0;
+		int remaining = index + 1;
+		for(int step = Integer.highestOneBit(_children.size()); step > 0; step >>= 1) {
+			int next = slot + step;
+			if(next <= _children.size()) {
+				int live = step - _tombstoneTree[next];
+				if(live < remaining) {
+					slot = next;
+					remaining -= live;
+				}
+			}
+		}
+		return slot;
+	}
+	
+	/**
+	 * Removes the tombstones left by remove(), moving the remaining children
+	 * down so that they are stored contiguously in insertion order.
+	 */
+	private void compact() {
+		if(_tombstones == 0) {
+			return;
+		}
+		Arrays.fill(_tombstoneTree, 0, _children.size() + 1, 0);
+		int live = 0;
+		for(int i = 0; i < _children.size(); i++) {
+			Shape child = _children.get(i);
+			if(child != null) {
+				_children.set(live, child);
+				child.setChildSlot(live);
+				live++;
+			}
+		}
+		_children.subList(live, _children.size()).clear();
+		_tombstones = 0;
+	}
+	
+	/**
+	 * Returns the deepest Shape within this CarrierShape whose bounding box
+	 * contains the specified point, which may be this CarrierShape itself, or
+	 * null if the point lies outside all of them. The point is in the same
+	 * coordinate space as this CarrierShape's position; the offset applied
+	 * when painting the children is taken into account.
+	 * 
+	 * Shapes within large CarrierShapes are found through an index that is
+	 * brought up to date by move(). If a descendant is moved directly the
+	 * result may not reflect its new position until this CarrierShape moves.
+	 */
+	public Shape hitTest(int x, int y) {
+		return ShapeIndex.hitShape(this, x, y);
+	}
+	
+	/**
+	 * Returns the deepest descendant whose bounding box contains the point,
+	 * or null. The point is in the coordinate space of the children.
+	 */
+	Shape hitTestChildren(int x, int y) {
+		compact();
+		if(_children.size() > INDEX_THRESHOLD) {
+			if(_index == null) {
+				_index = new ShapeIndex(_children);
+			}
+			return _index.hitTest(x, y);
+		}
+		for(int i = _children.size() - 1; i >= 0; i--) {
+			Shape hit = ShapeIndex.hitShape(_children.get(i), x, y);
+			if(hit != null) {
+				return hit;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Marks the index over the children, if any, as out of date after the
+	 * children have moved.
+	 */
+	void invalidateIndex() {
+		if(_index != null) {
+			_index.invalidate();
+		}
 	}
 	
 	/**
@@ -122,7 +630,10 @@ public class CarrierShape extends Shape {
 	 * less one
 	 */
 	public Shape shapeAt(int index) throws IndexOutOfBoundsException{
-		return _children.get(index);
+		if(index < 0 || index >= shapeCount()) {
+			throw new IndexOutOfBoundsException();
+		}
+		return _children.get(liveSlot(index));
 	}
 	
 	/**
@@ -131,7 +642,7 @@ public class CarrierShape extends Shape {
 	 * CarrierShape object
 	 */
 	public int shapeCount() {
-		return _children.size();
+		return _children.size() - _tombstones;
 	}
 	
 	
@@ -144,7 +655,10 @@ public class CarrierShape extends Shape {
 	 * is requested
 	 */
 	public int indexOf(Shape shape) {
-		return _children.indexOf(shape);
+		if(shape == null || shape.parent() != this) {
+			return -1;
+		}
+		return shape.childSlot() - tombstonesBefore(shape.childSlot());
 	}
 	
 	/**
@@ -152,6 +666,6 @@ public class CarrierShape extends Shape {
 	 * object on which this method is called, false otherwise.
 	 */
 	public boolean contains(Shape shape) {
-		return _children.contains(shape);
+		return shape != null && shape.parent() == this;
 	}
 }
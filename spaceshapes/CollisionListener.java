@@ -0,0 +1,25 @@
+package spaceshapes;
+
+/**
+ * Interface to represent a type that is notified of Shapes whose bounding
+ * boxes overlap.
+ * 
+ * @author Henry Man
+ *
+ */
+public interface CollisionListener {
+	/**
+	 * Listener that resolves each collision by making both Shapes bounce off
+	 * each other.
+	 */
+	public static final CollisionListener BOUNCE = (a, b) -> a.bounceOff(b);
+
+	/**
+	 * Called once for each pair of Shapes whose bounding boxes overlap. Both
+	 * Shapes are children of the same CarrierShape (or are both top-level
+	 * Shapes), so their positions are in the same coordinate space.
+	 * @param a the first Shape of the pair.
+	 * @param b the second Shape of the pair.
+	 */
+	public void collided(Shape a, Shape b);
+}
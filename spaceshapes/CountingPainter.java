@@ -0,0 +1,139 @@
+package spaceshapes;
+
+import java.awt.Color;
+
+/**
+ * Painter that counts the requests made of it and passes them on to another
+ * Painter. Requests are counted per method, using the opcodes of
+ * RecordingPainter as method numbers, with plain fields, so a CountingPainter
+ * must only be used by one thread at a time like any other Painter.
+ *
+ * A CountingPainter also counts the Shapes painted, which Shape.paint
+ * reports through shapePainted(). The Painter requests are passed on to can
+ * be changed between paints, so that one CountingPainter serves every frame.
+ *
+ * @author Henry Man
+ *
+ */
+public class CountingPainter implements Painter {
+	private Painter _painter;
+
+	// Number of calls per method, indexed by opcode.
+	private final long[] _counts = new long[RecordingPainter.DRAW_CENTERED_TEXT + 1];
+
+	private long _shapesPainted = 0;
+
+	/**
+	 * Creates a CountingPainter that passes requests on to painter.
+	 */
+	public CountingPainter(Painter painter) {
+		_painter = painter;
+	}
+
+	/**
+	 * Passes requests on to another painter from now on. Counts are kept.
+	 */
+	public void setPainter(Painter painter) {
+		_painter = painter;
+	}
+
+	/**
+	 * Returns the number of calls made to a method, identified by its
+	 * RecordingPainter opcode, e.g. RecordingPainter.DRAW_RECT.
+	 * @throws IllegalArgumentException if opcode is not a RecordingPainter
+	 * opcode.
+	 */
+	public long count(int opcode) throws IllegalArgumentException {
+		if(opcode < RecordingPainter.DRAW_RECT || opcode > RecordingPainter.DRAW_CENTERED_TEXT) {
+			throw new IllegalArgumentException();
+		}
+		return _counts[opcode];
+	}
+
+	/**
+	 * Returns the number of Shapes painted, not counting those skipped
+	 * because they were not visible.
+	 */
+	public long shapesPainted() {
+		return _shapesPainted;
+	}
+
+	/**
+	 * Sets every count back to 0.
+	 */
+	public void reset() {
+		for(int i = 0; i < _counts.length; i++) {
+			_counts[i] = 0;
+		}
+		_shapesPainted = 0;
+	}
+
+	@Override
+	public void drawRect(int x, int y, int width, int height) {
+		_counts[RecordingPainter.DRAW_RECT]++;
+		_painter.drawRect(x, y, width, height);
+	}
+
+	@Override
+	public void drawOval(int x, int y, int width, int height) {
+		_counts[RecordingPainter.DRAW_OVAL]++;
+		_painter.drawOval(x, y, width, height);
+	}
+
+	@Override
+	public void drawLine(int x1, int y1, int x2, int y2) {
+		_counts[RecordingPainter.DRAW_LINE]++;
+		_painter.drawLine(x1, y1, x2, y2);
+	}
+
+	@Override
+	public void fillRect(int x, int y, int width, int height) {
+		_counts[RecordingPainter.FILL_RECT]++;
+		_painter.fillRect(x, y, width, height);
+	}
+
+	@Override
+	public Color getColor() {
+		_counts[RecordingPainter.GET_COLOR]++;
+		return _painter.getColor();
+	}
+
+	@Override
+	public void setColor(Color color) {
+		_counts[RecordingPainter.SET_COLOR]++;
+		_painter.setColor(color);
+	}
+
+	@Override
+	public void translate(int x, int y) {
+		_counts[RecordingPainter.TRANSLATE]++;
+		_painter.translate(x, y);
+	}
+
+	@Override
+	public void drawCenteredText(String string, Shape shape) {
+		_counts[RecordingPainter.DRAW_CENTERED_TEXT]++;
+		_painter.drawCenteredText(string, shape);
+	}
+
+	@Override
+	public boolean isVisible(int x, int y, int width, int height) {
+		return _painter.isVisible(x, y, width, height);
+	}
+
+	@Override
+	public boolean isTextVisible(int x, int y, int width, int height, int length) {
+		return _painter.isTextVisible(x, y, width, height, length);
+	}
+
+	@Override
+	public boolean isDetailed(int width, int height) {
+		return _painter.isDetailed(width, height);
+	}
+
+	@Override
+	public void shapePainted(Shape shape) {
+		_shapesPainted++;
+		_painter.shapePainted(shape);
+	}
+}
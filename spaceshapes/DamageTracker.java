@@ -0,0 +1,211 @@
+package spaceshapes;
+
+import java.awt.FontMetrics;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Works out which part of the screen has to be repainted when one
+ * FrameSnapshot of a world is replaced by the next. The damaged region of a
+ * Shape is the union of the area it covered in the previous frame and the
+ * area it covers in the current one, including its text and, for a
+ * CarrierShape, everything painted by its children.
+ * 
+ * @author Henry Man
+ *
+ */
+public class DamageTracker {
+	// Margin around each area, covering the extra pixel drawn by drawRect.
+	private static final int MARGIN = 1;
+
+	private final FontMetrics _metrics;
+
+	// === Working state for damage between FrameSnapshots, reused between
+	// frames. Boxes are held as min x, min y, max x and max y, exclusive. ===
+	private int[] _beforeX = new int[0];
+
+	private int[] _beforeY = new int[0];
+
+	private int[] _afterX = new int[0];
+
+	private int[] _afterY = new int[0];
+
+	private final int[] _before = new int[4];
+
+	private final int[] _after = new int[4];
+
+	private final int[] _damage = new int[4];
+	// ===
+
+	/**
+	 * Creates a DamageTracker that measures text with the specified
+	 * FontMetrics, which should match the font used for painting.
+	 */
+	public DamageTracker(FontMetrics metrics) {
+		_metrics = metrics;
+	}
+
+	/**
+	 * Returns the smallest rectangle covering everything that differs between
+	 * two FrameSnapshots of a world, held by the caller, or null if nothing
+	 * needs repainting. Works on the arrays of the FrameSnapshots, so no
+	 * Shapes need to be built. Top-level Shapes are matched by position; if
+	 * the FrameSnapshots describe worlds of different structure every Shape
+	 * in both is treated as damaged.
+	 */
+	public Rectangle damage(FrameSnapshot previous, FrameSnapshot current) {
+		int size = current.size();
+		if(_afterX.length < Math.max(size, previous.size())) {
+			int capacity = Math.max(size, previous.size());
+			_beforeX = new int[capacity];
+			_beforeY = new int[capacity];
+			_afterX = new int[capacity];
+			_afterY = new int[capacity];
+		}
+		origins(previous, _beforeX, _beforeY);
+		origins(current, _afterX, _afterY);
+		clear(_damage);
+
+		boolean same = previous.size() == size;
+		for(int i = 0; same && i < size; i++) {
+			same = previous._kind[i] == current._kind[i] && previous._parent[i] == current._parent[i];
+		}
+		if(!same) {
+			for(int i = 0; i < previous.size(); i++) {
+				addEntry(_damage, previous, i, _beforeX, _beforeY);
+			}
+			for(int i = 0; i < size; i++) {
+				addEntry(_damage, current, i, _afterX, _afterY);
+			}
+			return toRectangle(_damage);
+		}
+
+		for(int i = 0; i < size; i = current._end[i]) {
+			clear(_before);
+			clear(_after);
+			boolean changed = false;
+			for(int j = i; j < current._end[i]; j++) {
+				addEntry(_before, previous, j, _beforeX, _beforeY);
+				addEntry(_after, current, j, _afterX, _afterY);
+				changed |= !previous._text[j].equals(current._text[j])
+						|| (j > i && (previous._x[j] != current._x[j] || previous._y[j] != current._y[j]))
+						|| (current._kind[j] == FrameSnapshot.OTHER && changed(previous._other[j], current._other[j]));
+			}
+			if(changed || !Arrays.equals(_before, _after)) {
+				add(_damage, _before[0], _before[1], _before[2], _before[3]);
+				add(_damage, _after[0], _after[1], _after[2], _after[3]);
+			}
+		}
+		return toRectangle(_damage);
+	}
+
+	/**
+	 * Works out the position of every entry of a FrameSnapshot relative to
+	 * the world rather than to its CarrierShape.
+	 */
+	private static void origins(FrameSnapshot frame, int[] x, int[] y) {
+		for(int i = 0; i < frame.size(); i++) {
+			int parent = frame._parent[i];
+			x[i] = frame._x[i] + (parent < 0 ? 0 : x[parent]);
+			y[i] = frame._y[i] + (parent < 0 ? 0 : y[parent]);
+		}
+	}
+
+	/**
+	 * Adds the area painted by an entry of a FrameSnapshot, not counting its
+	 * descendants, which have entries of their own, to a box.
+	 */
+	private void addEntry(int[] box, FrameSnapshot frame, int i, int[] x, int[] y) {
+		if(frame._kind[i] == FrameSnapshot.OTHER) {
+			// Not described by the arrays; measure the Shape instead.
+			int parent = frame._parent[i];
+			addShape(box, frame._other[i], parent < 0 ? 0 : x[parent], parent < 0 ? 0 : y[parent]);
+			return;
+		}
+		addArea(box, x[i], y[i], frame._width[i], frame._height[i], frame._text[i]);
+	}
+
+	/**
+	 * Adds the area painted by a Shape and, for a CarrierShape, all of its
+	 * descendants, offset by the origin it is painted at, to a box.
+	 */
+	private void addShape(int[] box, Shape shape, int originX, int originY) {
+		int x = originX + shape.x();
+		int y = originY + shape.y();
+		addArea(box, x, y, shape.width(), shape.height(), shape.text());
+		if(shape instanceof CarrierShape) {
+			CarrierShape carrier = (CarrierShape) shape;
+			for(int i = 0; i < carrier.shapeCount(); i++) {
+				addShape(box, carrier.shapeAt(i), x, y);
+			}
+		}
+	}
+
+	/**
+	 * Adds the area painted by a Shape at (x, y) relative to the world, not
+	 * counting its descendants, to a box: its bounds and any text.
+	 */
+	private void addArea(int[] box, int x, int y, int width, int height, String text) {
+		add(box, x - MARGIN, y - MARGIN, x + width + MARGIN + 1, y + height + MARGIN + 1);
+		if(!text.isBlank()) {
+			// Mirrors the placement used by GraphicsPainter.drawCenteredText.
+			int textWidth = _metrics.stringWidth(text);
+			int textHeight = _metrics.getMaxAscent() + _metrics.getMaxDescent();
+			int minX = x + width / 2 - textWidth / 2 - MARGIN;
+			int minY = y + height / 2 - textHeight - MARGIN;
+			add(box, minX, minY, minX + textWidth + 2 * MARGIN, minY + 2 * textHeight + 2 * MARGIN);
+		}
+	}
+
+	private static void clear(int[] box) {
+		box[0] = Integer.MAX_VALUE;
+		box[1] = Integer.MAX_VALUE;
+		box[2] = Integer.MIN_VALUE;
+		box[3] = Integer.MIN_VALUE;
+	}
+
+	private static void add(int[] box, int minX, int minY, int maxX, int maxY) {
+		if(minX >= maxX || minY >= maxY) {
+			return;
+		}
+		box[0] = Math.min(box[0], minX);
+		box[1] = Math.min(box[1], minY);
+		box[2] = Math.max(box[2], maxX);
+		box[3] = Math.max(box[3], maxY);
+	}
+
+	private static Rectangle toRectangle(int[] box) {
+		if(box[0] >= box[2]) {
+			return null;
+		}
+		return new Rectangle(box[0], box[1], box[2] - box[0], box[3] - box[1]);
+	}
+
+	/**
+	 * Returns true if two copies of a Shape of kind OTHER differ in something
+	 * other than their bounds, e.g. their position within a CarrierShape or
+	 * their text. Fill state of a DynamicShape only changes when its position
+	 * does, so it needs no separate check.
+	 */
+	private static boolean changed(Shape before, Shape after) {
+		if(before.getClass() != after.getClass() || !before.text().equals(after.text())) {
+			return true;
+		}
+		if(before instanceof CarrierShape) {
+			CarrierShape carrierBefore = (CarrierShape) before;
+			CarrierShape carrierAfter = (CarrierShape) after;
+			if(carrierBefore.shapeCount() != carrierAfter.shapeCount()) {
+				return true;
+			}
+			for(int i = 0; i < carrierBefore.shapeCount(); i++) {
+				Shape childBefore = carrierBefore.shapeAt(i);
+				Shape childAfter = carrierAfter.shapeAt(i);
+				if(childBefore.x() != childAfter.x() || childBefore.y() != childAfter.y()
+						|| changed(childBefore, childAfter)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
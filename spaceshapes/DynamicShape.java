@@ -115,6 +115,42 @@ public class DynamicShape extends Shape {
 		}
 	}
 	
+	/**
+	 * Brings the filled state up to date after advance(), from the last wall
+	 * touched. As in move(), a top or bottom wall wins if both were touched
+	 * at the same step.
+	 */
+	@Override
+	void advanced(long lastXWall, long lastYWall) {
+		if(lastYWall > 0 && lastYWall >= lastXWall) {
+			_fill = true;
+		} else if(lastXWall > 0) {
+			_fill = false;
+		}
+	}
+	
+	/**
+	 * Returns true if this DynamicShape is currently filled.
+	 */
+	boolean filled() {
+		return _fill;
+	}
+	
+	/**
+	 * Sets whether this DynamicShape is currently filled, e.g. when it is
+	 * rebuilt from a FrameSnapshot.
+	 */
+	void setFilled(boolean fill) {
+		_fill = fill;
+	}
+	
+	/**
+	 * Returns the colour this DynamicShape is filled with.
+	 */
+	Color color() {
+		return _shapeColor;
+	}
+	
 	/*
 	 * Paints this DynamicShape object using specified painter object
 	 * Painter will paint an unfilled or filled rectangle based on the current
@@ -0,0 +1,259 @@
+package spaceshapes;
+
+import java.awt.GraphicsEnvironment;
+import java.awt.Toolkit;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * FrameScheduler that produces frames at a target rate on a dedicated
+ * thread. Each frame has a deadline on a fixed grid of System.nanoTime()
+ * values, so that rounding and late wake-ups never accumulate into drift.
+ * The thread parks until shortly before a deadline and then spins for the
+ * rest of the wait, as parking alone can wake up a good fraction of a
+ * millisecond late.
+ *
+ * A frame that takes longer than a period makes later deadlines pass
+ * without a frame. The SkipPolicy decides what happens next; either way
+ * frames never queue up, and the passed deadlines are counted as missed.
+ *
+ * Optionally Toolkit.sync() is called after each frame, which flushes
+ * drawing buffered by the window system so that frames reach the screen
+ * when they are produced rather than in bursts.
+ *
+ * @author Henry Man
+ *
+ */
+public class FramePacer implements FrameScheduler {
+	/**
+	 * What to do when deadlines have passed while a frame was produced.
+	 */
+	public enum SkipPolicy {
+		/**
+		 * Drop the frames whose deadlines passed and wait for the next
+		 * deadline on the grid, keeping frames in step with the grid.
+		 */
+		SKIP,
+
+		/**
+		 * Produce the latest frame whose deadline passed straight away, and
+		 * start a new grid from it. Frames come as soon as possible but are
+		 * no longer in step with the original grid.
+		 */
+		SLIP
+	}
+
+	// === Constants for default values. ===
+	protected static final double DEFAULT_FPS = 50;
+
+	protected static final long DEFAULT_SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+	// ===
+
+	private volatile long _periodNanos;
+
+	private volatile long _spinNanos = DEFAULT_SPIN_NANOS;
+
+	private volatile SkipPolicy _skipPolicy = SkipPolicy.SKIP;
+
+	private volatile boolean _sync = false;
+
+	// Records missed deadlines when set.
+	private volatile Metrics _metrics = null;
+
+	private final AtomicLong _frames = new AtomicLong();
+
+	private final AtomicLong _missed = new AtomicLong();
+
+	private Thread _thread;
+
+	/**
+	 * Creates a FramePacer that produces 50 frames per second.
+	 */
+	public FramePacer() {
+		this(DEFAULT_FPS);
+	}
+
+	/**
+	 * Creates a FramePacer that produces a specified number of frames per
+	 * second.
+	 * @throws IllegalArgumentException if fps is not a positive number.
+	 */
+	public FramePacer(double fps) throws IllegalArgumentException {
+		applyTargetFps(fps);
+	}
+
+	/**
+	 * Sets the number of frames per second. Takes effect from the next
+	 * frame.
+	 * @throws IllegalArgumentException if fps is not a positive number, or
+	 * so large that a period would be under a nanosecond.
+	 */
+	public void setTargetFps(double fps) throws IllegalArgumentException {
+		applyTargetFps(fps);
+	}
+
+	/**
+	 * Sets the frame period for a number of frames per second. Used by the
+	 * constructor, which must not call the overridable setTargetFps().
+	 */
+	private void applyTargetFps(double fps) throws IllegalArgumentException {
+		if(!(fps > 0) || fps > TimeUnit.SECONDS.toNanos(1)) {
+			throw new IllegalArgumentException();
+		}
+		_periodNanos = Math.round(TimeUnit.SECONDS.toNanos(1) / fps);
+	}
+
+	/**
+	 * Returns the number of frames per second.
+	 */
+	public double targetFps() {
+		return (double) TimeUnit.SECONDS.toNanos(1) / _periodNanos;
+	}
+
+	/**
+	 * Sets how long before a deadline the thread stops parking and spins
+	 * instead. Longer spins give more precise deadlines at the cost of CPU
+	 * time; 0 disables spinning.
+	 * @throws IllegalArgumentException if nanos is negative.
+	 */
+	public void setSpinNanos(long nanos) throws IllegalArgumentException {
+		if(nanos < 0) {
+			throw new IllegalArgumentException();
+		}
+		_spinNanos = nanos;
+	}
+
+	/**
+	 * Sets what happens when frames take longer than a period.
+	 * @throws IllegalArgumentException if policy is null.
+	 */
+	public void setSkipPolicy(SkipPolicy policy) throws IllegalArgumentException {
+		if(policy == null) {
+			throw new IllegalArgumentException();
+		}
+		_skipPolicy = policy;
+	}
+
+	/**
+	 * Sets whether Toolkit.sync() is called after each frame. Has no effect
+	 * in a headless environment.
+	 */
+	public void setSync(boolean sync) {
+		_sync = sync;
+	}
+
+	/**
+	 * Records missed deadlines in the specified Metrics, or stops recording
+	 * when metrics is null.
+	 */
+	public void setMetrics(Metrics metrics) {
+		_metrics = metrics;
+	}
+
+	/**
+	 * Returns the number of frames produced so far.
+	 */
+	public long frameCount() {
+		return _frames.get();
+	}
+
+	/**
+	 * Returns the number of deadlines that passed without a frame so far.
+	 */
+	public long missedDeadlines() {
+		return _missed.get();
+	}
+
+	@Override
+	public synchronized void start(Runnable frame) {
+		if(_thread != null) {
+			return;
+		}
+		_thread = new Thread(() -> run(frame), "spaceshapes-frames");
+		_thread.setDaemon(true);
+		_thread.setPriority(Thread.MAX_PRIORITY);
+		_thread.start();
+	}
+
+	@Override
+	public void stop() {
+		Thread thread;
+		synchronized(this) {
+			thread = _thread;
+			_thread = null;
+		}
+		if(thread == null) {
+			return;
+		}
+		thread.interrupt();
+		if(thread == Thread.currentThread()) {
+			// Called by a frame; the loop ends once the frame returns.
+			return;
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Pacing loop: waits for each deadline, produces the frame and moves the
+	 * deadline on, past any deadlines the frame overran.
+	 */
+	private void run(Runnable frame) {
+		boolean canSync = !GraphicsEnvironment.isHeadless();
+		long deadline = System.nanoTime();
+		while(awaitDeadline(deadline)) {
+			frame.run();
+			if(_sync && canSync) {
+				Toolkit.getDefaultToolkit().sync();
+			}
+			_frames.incrementAndGet();
+
+			long period = _periodNanos;
+			deadline += period;
+			long late = System.nanoTime() - deadline;
+			if(late >= 0) {
+				// Deadlines passed while the frame was produced.
+				long passed = late / period + 1;
+				long missed;
+				if(_skipPolicy == SkipPolicy.SKIP) {
+					missed = passed;
+					deadline += passed * period;
+				} else {
+					missed = passed - 1;
+					deadline += late;
+				}
+				if(missed > 0) {
+					_missed.addAndGet(missed);
+					Metrics metrics = _metrics;
+					if(metrics != null) {
+						metrics.recordMissedDeadlines(missed);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Parks and then spins until a deadline.
+	 * @return false if the thread was interrupted while waiting.
+	 */
+	private boolean awaitDeadline(long deadline) {
+		while(!Thread.currentThread().isInterrupted()) {
+			long remaining = deadline - System.nanoTime();
+			if(remaining <= 0) {
+				return true;
+			}
+			long spin = _spinNanos;
+			if(remaining > spin) {
+				LockSupport.parkNanos(remaining - spin);
+			} else {
+				Thread.onSpinWait();
+			}
+		}
+		return false;
+	}
+}
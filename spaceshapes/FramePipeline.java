@@ -0,0 +1,216 @@
+package spaceshapes;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Exports an animation by running its three stages at the same time, each on
+ * its own thread: the simulation stage steps a SimulationEngine and acquires
+ * its latest FrameSnapshot, the render stage paints FrameSnapshots into
+ * images with a HeadlessRenderer, updating the same Shapes from frame to
+ * frame, and the encode stage hands the images to a Sink, e.g. one that
+ * writes them to files. Throughput is limited by the slowest stage rather
+ * than by the sum of all three.
+ *
+ * Stages are connected by bounded queues. FrameSnapshots come from the
+ * engine's pool, to which the render stage releases them once painted, and
+ * images come from a fixed pool that the encode stage returns them to once
+ * written. A stage that gets ahead blocks until the next one catches up, so
+ * memory use stays flat however many frames are exported.
+ *
+ * @author Henry Man
+ *
+ */
+public class FramePipeline {
+	/**
+	 * Receives rendered frames in order. The image belongs to the pipeline
+	 * and is reused once write returns.
+	 */
+	public interface Sink {
+		/**
+		 * Encodes or stores a rendered frame.
+		 * @param frame number of the frame, counting from 0.
+		 * @param image the rendered frame.
+		 * @throws IOException if the frame cannot be written.
+		 */
+		public void write(int frame, BufferedImage image) throws IOException;
+	}
+
+	// === Constants for default values. ===
+	protected static final int DEFAULT_QUEUE_CAPACITY = 2;
+
+	protected static final int DEFAULT_IMAGES = 4;
+	// ===
+
+	private final SimulationEngine _engine;
+
+	private final HeadlessRenderer _renderer;
+
+	private final int _queueCapacity;
+
+	// Images not currently being rendered into, queued or written.
+	private final BlockingQueue<BufferedImage> _free;
+
+	/**
+	 * Creates a FramePipeline with default queue capacities and image pool
+	 * size.
+	 */
+	public FramePipeline(SimulationEngine engine, HeadlessRenderer renderer) {
+		this(engine, renderer, DEFAULT_QUEUE_CAPACITY, DEFAULT_IMAGES);
+	}
+
+	/**
+	 * Creates a FramePipeline for an engine, which must not be running and
+	 * must have been given a world size, and a renderer.
+	 * @param queueCapacity number of snapshots, and of rendered frames, that
+	 * may wait for the next stage.
+	 * @param images number of images in the pool.
+	 * @throws IllegalArgumentException if either number is not positive.
+	 */
+	public FramePipeline(SimulationEngine engine, HeadlessRenderer renderer, int queueCapacity,
+			int images) throws IllegalArgumentException {
+		if(queueCapacity <= 0 || images <= 0) {
+			throw new IllegalArgumentException();
+		}
+		_engine = engine;
+		_renderer = renderer;
+		_queueCapacity = queueCapacity;
+		_free = new ArrayBlockingQueue<BufferedImage>(images);
+		for(int i = 0; i < images; i++) {
+			_free.add(renderer.createImage());
+		}
+	}
+
+	/**
+	 * Returns a Sink that writes each frame to a directory in the specified
+	 * format, named as by HeadlessRenderer.renderFrames. It uses the
+	 * renderer's buffers, so the renderer must not write frames itself while
+	 * the Sink is in use.
+	 */
+	public static Sink directory(HeadlessRenderer renderer, File directory, HeadlessRenderer.Format format) {
+		return (frame, image) -> renderer.write(image,
+				new File(directory, String.format("frame-%05d.%s", frame, format.extension())), format);
+	}
+
+	/**
+	 * Steps, renders and writes the specified number of frames, and returns
+	 * once all of them have been written. The simulation and render stages
+	 * run on threads of their own and the encode stage on the calling thread.
+	 * If any stage fails, the others are stopped and the failure is thrown.
+	 * @throws IOException if the Sink fails to write a frame.
+	 * @throws InterruptedException if the calling thread is interrupted.
+	 */
+	public void run(int frames, Sink sink) throws IOException, InterruptedException {
+		BlockingQueue<FrameSnapshot> snapshots = new ArrayBlockingQueue<FrameSnapshot>(_queueCapacity);
+		BlockingQueue<BufferedImage> rendered = new ArrayBlockingQueue<BufferedImage>(_queueCapacity);
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread encoder = Thread.currentThread();
+
+		Thread simulation = start("spaceshapes-simulate", failure, encoder, () -> {
+			for(int i = 0; i < frames; i++) {
+				_engine.step();
+				FrameSnapshot frame = _engine.acquireFrame();
+				try {
+					snapshots.put(frame);
+				} catch(InterruptedException e) {
+					frame.release();
+					throw e;
+				}
+			}
+		});
+		Thread render = start("spaceshapes-render", failure, encoder, () -> {
+			FrameShapes shapes = new FrameShapes();
+			for(int i = 0; i < frames; i++) {
+				FrameSnapshot frame = snapshots.take();
+				try {
+					shapes.update(frame);
+				} finally {
+					frame.release();
+				}
+				BufferedImage image = _free.take();
+				try {
+					_renderer.render(shapes.shapes(), image);
+					rendered.put(image);
+					image = null;
+				} finally {
+					if(image != null) {
+						_free.add(image);
+					}
+				}
+			}
+		});
+
+		try {
+			for(int i = 0; i < frames; i++) {
+				BufferedImage image = rendered.take();
+				try {
+					sink.write(i, image);
+				} finally {
+					_free.add(image);
+				}
+			}
+		} catch(InterruptedException | IOException e) {
+			// Writing may also fail because of the interrupt sent by a
+			// failing stage, in which case that stage's failure is thrown.
+			if(failure.get() == null) {
+				throw e;
+			}
+		} finally {
+			simulation.interrupt();
+			render.interrupt();
+			simulation.join();
+			render.join();
+			
+			// FrameSnapshots and images left behind by a failed run go back
+			// to their pools.
+			for(FrameSnapshot frame : snapshots) {
+				frame.release();
+			}
+			rendered.drainTo(_free);
+		}
+
+		Throwable cause = failure.get();
+		if(cause != null) {
+			// Clear an interrupt sent by the failing stage.
+			Thread.interrupted();
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if(cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Body of a stage run on its own thread.
+	 */
+	private interface Stage {
+		void run() throws InterruptedException;
+	}
+
+	/**
+	 * Starts a thread that runs a stage. If the stage fails, the failure is
+	 * recorded and the encode stage is interrupted so the run stops.
+	 */
+	private static Thread start(String name, AtomicReference<Throwable> failure, Thread encoder, Stage stage) {
+		Thread thread = new Thread(() -> {
+			try {
+				stage.run();
+			} catch(InterruptedException e) {
+				// Stopped by the encode stage.
+			} catch(Throwable t) {
+				failure.compareAndSet(null, t);
+				encoder.interrupt();
+			}
+		}, name);
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+}
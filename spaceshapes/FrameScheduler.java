@@ -0,0 +1,24 @@
+package spaceshapes;
+
+/**
+ * Interface to represent a type that decides when frames are produced, e.g.
+ * when an AnimationViewer takes the latest snapshot and paints it.
+ * 
+ * @author Henry Man
+ *
+ */
+public interface FrameScheduler {
+	/**
+	 * Starts calling frame.run() once per frame, on a thread chosen by the
+	 * FrameScheduler, until stop() is called. This method has no effect if
+	 * the FrameScheduler is already running.
+	 * @param frame the work to do for each frame.
+	 */
+	public void start(Runnable frame);
+
+	/**
+	 * Stops producing frames and waits for the frame in progress, if any, to
+	 * finish.
+	 */
+	public void stop();
+}
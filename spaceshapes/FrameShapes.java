@@ -0,0 +1,93 @@
+package spaceshapes;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Detached Shapes kept in line with the FrameSnapshots published by a
+ * SimulationEngine, for a renderer to paint. While the world keeps the same
+ * structure from one FrameSnapshot to the next, the same Shapes are updated
+ * in place rather than built again, so following the engine does not
+ * allocate. When Shapes are added or removed, or the world contains Shapes
+ * of classes outside this package, the Shapes are built afresh.
+ *
+ * Unlike SimulationEngine.snapshot(), the Shapes change with every update, so
+ * a FrameShapes belongs to one reader: it must only be updated and its Shapes
+ * only painted by one thread at a time.
+ *
+ * @author Henry Man
+ *
+ */
+public class FrameShapes {
+	private List<Shape> _shapes = Collections.emptyList();
+
+	// === Shape built for each entry, and the structure it was built from. ===
+	private Shape[] _built = new Shape[0];
+
+	private byte[] _kind = new byte[0];
+
+	private int[] _parent = new int[0];
+
+	private Color[] _color = new Color[0];
+
+	private int _size = 0;
+	// ===
+
+	private long _generation = -1;
+
+	private boolean _rebuilt = false;
+
+	/**
+	 * Brings the Shapes in line with a FrameSnapshot held by the caller,
+	 * which may be released as soon as this method returns.
+	 * @return the top-level Shapes, with their descendants.
+	 */
+	public List<Shape> update(FrameSnapshot frame) {
+		if(frame.generation() == _generation) {
+			_rebuilt = false;
+			return _shapes;
+		}
+		_generation = frame.generation();
+		int size = frame.size();
+		if(frame.sameStructure(_kind, _parent, _color, _size)) {
+			frame.update(_built);
+			_rebuilt = false;
+			return _shapes;
+		}
+		if(_built.length < size) {
+			int capacity = Math.max(size, 2 * _built.length);
+			_built = new Shape[capacity];
+			_kind = new byte[capacity];
+			_parent = new int[capacity];
+			_color = new Color[capacity];
+		} else {
+			Arrays.fill(_built, size, _size, null);
+			Arrays.fill(_color, size, _size, null);
+		}
+		_shapes = Collections.unmodifiableList(frame.toShapes(_built));
+		System.arraycopy(frame._kind, 0, _kind, 0, size);
+		System.arraycopy(frame._parent, 0, _parent, 0, size);
+		System.arraycopy(frame._color, 0, _color, 0, size);
+		_size = size;
+		_rebuilt = true;
+		return _shapes;
+	}
+
+	/**
+	 * Returns the top-level Shapes as of the last update.
+	 */
+	public List<Shape> shapes() {
+		return _shapes;
+	}
+
+	/**
+	 * Returns true if the last update built new Shapes rather than updating
+	 * the existing ones, e.g. so that an index over them can be rebuilt
+	 * rather than refitted.
+	 */
+	public boolean rebuilt() {
+		return _rebuilt;
+	}
+}
@@ -0,0 +1,437 @@
+package spaceshapes;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * State of every Shape in a SimulationEngine's world at the end of a tick,
+ * held in compact primitive arrays. Entries are stored in depth-first order:
+ * each CarrierShape is followed by its descendants, entry i's subtree ends
+ * just before end(i), and parent(i) gives the entry of its CarrierShape or
+ * -1 for a top-level Shape.
+ *
+ * A SimulationEngine reuses a small pool of FrameSnapshots rather than
+ * allocating one per tick. Readers obtain the latest one with
+ * SimulationEngine.acquireFrame() and must call release() once done with it;
+ * until then it is never modified, and the engine fills another one instead.
+ * Neither acquiring nor releasing ever blocks.
+ *
+ * Shapes of classes other than those of this package cannot be described by
+ * the arrays; for these a detached copy of the Shape, including any
+ * descendants, is kept instead.
+ *
+ * @author Henry Man
+ *
+ */
+public final class FrameSnapshot {
+	// === Kinds of entry. ===
+	public static final byte RECTANGLE = 0;
+
+	public static final byte OVAL = 1;
+
+	public static final byte HEXAGON = 2;
+
+	public static final byte DYNAMIC = 3;
+
+	public static final byte CARRIER = 4;
+
+	public static final byte OTHER = 5;
+	// ===
+
+	// Number of readers holding this FrameSnapshot, or -1 while the engine
+	// is filling it.
+	private final AtomicInteger _readers = new AtomicInteger(-1);
+
+	private long _generation = 0;
+
+	private long _tick = 0;
+
+	int _size = 0;
+
+	// === Columns, one entry per Shape. Package-private so that SceneFile
+	// can fill them directly. ===
+	byte[] _kind = new byte[0];
+
+	int[] _x = new int[0];
+
+	int[] _y = new int[0];
+
+	int[] _deltaX = new int[0];
+
+	int[] _deltaY = new int[0];
+
+	int[] _width = new int[0];
+
+	int[] _height = new int[0];
+
+	int[] _parent = new int[0];
+
+	int[] _end = new int[0];
+
+	boolean[] _filled = new boolean[0];
+
+	Color[] _color = new Color[0];
+
+	String[] _text = new String[0];
+
+	Shape[] _other = new Shape[0];
+	// ===
+
+	/**
+	 * Creates an empty FrameSnapshot, claimed for filling by its engine.
+	 */
+	FrameSnapshot() {
+	}
+
+	/**
+	 * Returns the number of times the engine had published a snapshot when
+	 * this one was published, counting from 1. The empty snapshot available
+	 * before the first publication has generation 0.
+	 */
+	public long generation() {
+		return _generation;
+	}
+
+	/**
+	 * Returns the engine's tick count when this snapshot was taken.
+	 */
+	public long tick() {
+		return _tick;
+	}
+
+	/**
+	 * Returns the number of entries, one per Shape in the world including
+	 * the descendants of CarrierShapes.
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * Returns the kind of an entry, e.g. RECTANGLE.
+	 */
+	public byte kind(int i) {
+		checkIndex(i);
+		return _kind[i];
+	}
+
+	/**
+	 * Returns the x position of an entry, relative to its CarrierShape.
+	 */
+	public int x(int i) {
+		checkIndex(i);
+		return _x[i];
+	}
+
+	/**
+	 * Returns the y position of an entry, relative to its CarrierShape.
+	 */
+	public int y(int i) {
+		checkIndex(i);
+		return _y[i];
+	}
+
+	/**
+	 * Returns the horizontal speed and direction of an entry.
+	 */
+	public int deltaX(int i) {
+		checkIndex(i);
+		return _deltaX[i];
+	}
+
+	/**
+	 * Returns the vertical speed and direction of an entry.
+	 */
+	public int deltaY(int i) {
+		checkIndex(i);
+		return _deltaY[i];
+	}
+
+	/**
+	 * Returns the width of an entry.
+	 */
+	public int width(int i) {
+		checkIndex(i);
+		return _width[i];
+	}
+
+	/**
+	 * Returns the height of an entry.
+	 */
+	public int height(int i) {
+		checkIndex(i);
+		return _height[i];
+	}
+
+	/**
+	 * Returns the entry of the CarrierShape containing an entry, or -1 if
+	 * the entry is a top-level Shape.
+	 */
+	public int parent(int i) {
+		checkIndex(i);
+		return _parent[i];
+	}
+
+	/**
+	 * Returns the index just past the last descendant of an entry, which is
+	 * the index of its next sibling if it has one.
+	 */
+	public int end(int i) {
+		checkIndex(i);
+		return _end[i];
+	}
+
+	/**
+	 * Returns true if an entry of kind DYNAMIC is filled.
+	 */
+	public boolean filled(int i) {
+		checkIndex(i);
+		return _filled[i];
+	}
+
+	/**
+	 * Returns the text of an entry, which is empty if it has none.
+	 */
+	public String text(int i) {
+		checkIndex(i);
+		return _text[i];
+	}
+
+	/**
+	 * Builds detached Shapes matching the top-level Shapes of the world, with
+	 * their descendants. Every call returns new Shapes.
+	 */
+	public List<Shape> toShapes() {
+		return toShapes(new Shape[_size]);
+	}
+
+	/**
+	 * Builds detached Shapes as toShapes() does, storing the Shape built for
+	 * each entry in built, which must have room for every entry.
+	 */
+	List<Shape> toShapes(Shape[] built) {
+		List<Shape> shapes = new ArrayList<Shape>();
+		for(int i = 0; i < _size; i++) {
+			Shape shape = build(i);
+			built[i] = shape;
+			if(_parent[i] < 0) {
+				shapes.add(shape);
+			} else {
+				((CarrierShape) built[_parent[i]]).attach(shape);
+			}
+		}
+		// Descendants come after their CarrierShape, so bounds are refreshed
+		// bottom-up by going backwards.
+		for(int i = _size - 1; i >= 0; i--) {
+			if(_kind[i] == CARRIER) {
+				((CarrierShape) built[i]).refreshBounds();
+			}
+		}
+		for(Shape shape : shapes) {
+			shape.updateAncestry();
+		}
+		return shapes;
+	}
+
+	/**
+	 * Returns true if Shapes built from another FrameSnapshot, whose kinds,
+	 * parents and colours of DynamicShapes are given, can be brought in line
+	 * with this one by update(): the entries must describe the same tree of
+	 * Shapes of the same classes, none of them of kind OTHER.
+	 */
+	boolean sameStructure(byte[] kind, int[] parent, Color[] color, int size) {
+		if(size != _size) {
+			return false;
+		}
+		for(int i = 0; i < _size; i++) {
+			if(kind[i] != _kind[i] || parent[i] != _parent[i] || _kind[i] == OTHER
+					|| (_kind[i] == DYNAMIC && !Objects.equals(color[i], _color[i]))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copies the state of every entry into the Shape built for it from a
+	 * FrameSnapshot of the same structure, reusing the Shapes instead of
+	 * building new ones.
+	 * @see #sameStructure(byte[], int[], Color[], int)
+	 */
+	void update(Shape[] built) {
+		for(int i = 0; i < _size; i++) {
+			Shape shape = built[i];
+			shape._x = _x[i];
+			shape._y = _y[i];
+			shape._deltaX = _deltaX[i];
+			shape._deltaY = _deltaY[i];
+			shape._width = _width[i];
+			shape._height = _height[i];
+			if(!shape.text().equals(_text[i])) {
+				shape.setText(_text[i]);
+			}
+			if(_kind[i] == DYNAMIC) {
+				((DynamicShape) shape).setFilled(_filled[i]);
+			}
+		}
+		// Descendants come after their CarrierShape, so bounds are refreshed
+		// bottom-up by going backwards.
+		for(int i = _size - 1; i >= 0; i--) {
+			if(_kind[i] == CARRIER) {
+				CarrierShape carrier = (CarrierShape) built[i];
+				carrier.refreshBounds();
+				carrier.invalidateIndex();
+			}
+		}
+	}
+
+	/**
+	 * Ends a reader's use of this FrameSnapshot, allowing its engine to reuse
+	 * it. Each acquisition must be matched by exactly one release.
+	 */
+	public void release() {
+		_readers.decrementAndGet();
+	}
+
+	/**
+	 * Registers a reader, unless the engine has claimed this FrameSnapshot
+	 * for filling.
+	 * @return false if this FrameSnapshot is being filled.
+	 */
+	boolean retain() {
+		while(true) {
+			int readers = _readers.get();
+			if(readers < 0) {
+				return false;
+			}
+			if(_readers.compareAndSet(readers, readers + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Claims this FrameSnapshot for filling if no reader holds it.
+	 */
+	boolean claim() {
+		return _readers.compareAndSet(0, -1);
+	}
+
+	/**
+	 * Makes this FrameSnapshot available to readers once filled.
+	 */
+	void open() {
+		_readers.set(0);
+	}
+
+	/**
+	 * Fills this FrameSnapshot from a list of top-level Shapes. Must be
+	 * called on the thread that moves the Shapes, while this FrameSnapshot is
+	 * claimed.
+	 */
+	void capture(List<Shape> shapes, long generation, long tick) {
+		Arrays.fill(_color, 0, _size, null);
+		Arrays.fill(_text, 0, _size, null);
+		Arrays.fill(_other, 0, _size, null);
+		_size = 0;
+		_generation = generation;
+		_tick = tick;
+		for(Shape shape : shapes) {
+			capture(shape, -1);
+		}
+	}
+
+	private void capture(Shape shape, int parent) {
+		shape.pull();
+		int i = _size++;
+		ensureCapacity(_size);
+		Class<?> type = shape.getClass();
+		byte kind = type == RectangleShape.class ? RECTANGLE
+				: type == OvalShape.class ? OVAL
+				: type == HexagonShape.class ? HEXAGON
+				: type == DynamicShape.class ? DYNAMIC
+				: type == CarrierShape.class ? CARRIER
+				: OTHER;
+		_kind[i] = kind;
+		_x[i] = shape._x;
+		_y[i] = shape._y;
+		_deltaX[i] = shape._deltaX;
+		_deltaY[i] = shape._deltaY;
+		_width[i] = shape._width;
+		_height[i] = shape._height;
+		_parent[i] = parent;
+		_text[i] = shape.text();
+		_filled[i] = false;
+		if(kind == DYNAMIC) {
+			_filled[i] = ((DynamicShape) shape).filled();
+			_color[i] = ((DynamicShape) shape).color();
+		} else if(kind == CARRIER) {
+			for(Shape child : ((CarrierShape) shape).children()) {
+				capture(child, i);
+			}
+		} else if(kind == OTHER) {
+			_other[i] = shape.copy();
+		}
+		_end[i] = _size;
+	}
+
+	private Shape build(int i) {
+		Shape shape;
+		switch(_kind[i]) {
+		case RECTANGLE:
+			shape = new RectangleShape(_x[i], _y[i], _deltaX[i], _deltaY[i], _width[i], _height[i]);
+			break;
+		case OVAL:
+			shape = new OvalShape(_x[i], _y[i], _deltaX[i], _deltaY[i], _width[i], _height[i]);
+			break;
+		case HEXAGON:
+			shape = new HexagonShape(_x[i], _y[i], _deltaX[i], _deltaY[i], _width[i], _height[i]);
+			break;
+		case DYNAMIC:
+			DynamicShape dynamic = new DynamicShape(_x[i], _y[i], _deltaX[i], _deltaY[i],
+					_width[i], _height[i], _color[i]);
+			dynamic.setFilled(_filled[i]);
+			shape = dynamic;
+			break;
+		case CARRIER:
+			shape = new CarrierShape(_x[i], _y[i], _deltaX[i], _deltaY[i], _width[i], _height[i]);
+			break;
+		default:
+			return _other[i].copy();
+		}
+		if(!_text[i].isEmpty()) {
+			shape.setText(_text[i]);
+		}
+		return shape;
+	}
+
+	private void checkIndex(int i) throws IndexOutOfBoundsException {
+		if(i < 0 || i >= _size) {
+			throw new IndexOutOfBoundsException();
+		}
+	}
+
+	void ensureCapacity(int capacity) {
+		if(capacity <= _x.length) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, _x.length * 2);
+		_kind = Arrays.copyOf(_kind, newCapacity);
+		_x = Arrays.copyOf(_x, newCapacity);
+		_y = Arrays.copyOf(_y, newCapacity);
+		_deltaX = Arrays.copyOf(_deltaX, newCapacity);
+		_deltaY = Arrays.copyOf(_deltaY, newCapacity);
+		_width = Arrays.copyOf(_width, newCapacity);
+		_height = Arrays.copyOf(_height, newCapacity);
+		_parent = Arrays.copyOf(_parent, newCapacity);
+		_end = Arrays.copyOf(_end, newCapacity);
+		_filled = Arrays.copyOf(_filled, newCapacity);
+		_color = Arrays.copyOf(_color, newCapacity);
+		_text = Arrays.copyOf(_text, newCapacity);
+		_other = Arrays.copyOf(_other, newCapacity);
+	}
+}
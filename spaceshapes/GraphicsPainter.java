@@ -1,47 +1,202 @@
 package spaceshapes;
 
 import java.awt.Color;
+import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
 
 /**
  * Implementation of the Painter interface that delegates drawing to a
  * java.awt.Graphics object.
  * 
+ * In batching mode, outlines drawn with drawRect, drawOval and drawLine are
+ * accumulated into a single Path2D and drawn with one Graphics2D.draw call.
+ * The batch is flushed whenever the colour, origin or drawing order would
+ * otherwise change (setColor, translate, fillRect and drawCenteredText), and
+ * must be flushed by calling flush() once the frame has been painted.
+ * 
+ * Text is measured through a TextLayoutCache rather than with FontMetrics on
+ * every call, either the shared cache or one of the painter's own.
+ * Optionally, labels drawn often enough are drawn from an image pre-rendered
+ * by the cache instead of being rasterised again.
+ * 
+ * Optionally, level of detail is reduced when the delegate is scaled down,
+ * e.g. by a Camera: Shapes smaller on screen than a threshold are filled as
+ * a single pixel-sized rectangle, and text is skipped altogether once it
+ * would be too small to read.
+ * 
  * @author Paramvir Singh (Original Author - Ian Warren)
  * 
  */
 public class GraphicsPainter implements Painter {
+	// Colour used for drawing until setColor is called.
+	static final Color DEFAULT_COLOR = new Color(212, 212, 212);
+	
 	// Delegate object.
 	private Graphics _g;
+	
+	// === Batching state; _batch is null when batching is off. ===
+	private Path2D.Float _batch = null;
+	
+	private boolean _batchEmpty = true;
+	
+	// End point of the last line added, for joining connected lines.
+	private int _lastX;
+	
+	private int _lastY;
+	
+	private final Ellipse2D.Float _oval = new Ellipse2D.Float();
+	// ===
+	
+	// Number of uses after which a label is drawn from an image, or 0 to
+	// always draw text directly.
+	private int _textImageThreshold = 0;
+	
+	// Cache used by this painter alone, or null to use the shared cache and
+	// save measurements on the Shapes painted.
+	private TextLayoutCache _textLayoutCache = null;
+	
+	// Scale below which text is not drawn when level of detail is reduced.
+	private static final double MIN_TEXT_SCALE = 0.5;
+	
+	// === Level of detail state; _detailPixels is 0 when it is off. ===
+	private int _detailPixels = 0;
+	
+	// Screen pixels per unit, taken from the delegate's transform.
+	private double _scale = 1;
+	
+	// Smallest width or height drawn by fillRect, so it covers a pixel.
+	private int _minExtent = 0;
+	// ===
 
 	/**
 	 * Creates a GraphicsPainter object and sets its Graphics delegate.
 	 */
 	public GraphicsPainter(Graphics g) {
+		this(g, false);
+	}
+	
+	/**
+	 * Creates a GraphicsPainter object, sets its Graphics delegate and 
+	 * optionally turns on batching. Batching is only used when the delegate
+	 * is a Graphics2D object.
+	 * @param g delegate object.
+	 * @param batching true to batch outlines into a single Path2D.
+	 */
+	public GraphicsPainter(Graphics g, boolean batching) {
 		this._g = g;
-		_g.setColor(new Color(212, 212, 212));
+		_g.setColor(DEFAULT_COLOR);
+		if(batching && g instanceof Graphics2D) {
+			_batch = new Path2D.Float();
+		}
+	}
+	
+	/**
+	 * Draws labels from pre-rendered images once they have been drawn the
+	 * specified number of times, or always draws text directly when
+	 * threshold is 0 (the default). Images are rendered with the delegate's
+	 * rendering hints but not its transform, so labels drawn from images
+	 * through a scaled delegate, e.g. by a Camera, are resampled and may
+	 * look blurred.
+	 */
+	public void setTextImageThreshold(int threshold) {
+		_textImageThreshold = threshold;
+	}
+	
+	/**
+	 * Measures text through a cache used by this painter alone, without
+	 * saving measurements on the Shapes painted, so that painting does not
+	 * modify the Shapes and painters on several threads can paint the same
+	 * Shapes at once without waiting for each other. null (the default)
+	 * measures text through the shared cache.
+	 */
+	public void setTextLayoutCache(TextLayoutCache cache) {
+		_textLayoutCache = cache;
+	}
+	
+	/**
+	 * Reduces level of detail: areas smaller than the specified number of
+	 * screen pixels in both directions are reported as not detailed, and text
+	 * is skipped when the delegate is scaled below one half. The scale is
+	 * read from the delegate's transform when this method is called, so the
+	 * delegate must already be scaled. A threshold of 0 (the default) turns
+	 * level of detail off. Only used when the delegate is a Graphics2D object.
+	 */
+	public void setDetailThreshold(int pixels) {
+		if(pixels <= 0 || !(_g instanceof Graphics2D)) {
+			_detailPixels = 0;
+			_scale = 1;
+			_minExtent = 0;
+			return;
+		}
+		_detailPixels = pixels;
+		_scale = ((Graphics2D) _g).getTransform().getScaleX();
+		_minExtent = _scale < 1 ? (int) Math.ceil(1 / _scale) : 0;
+	}
+	
+	/**
+	 * Draws any outlines accumulated in batching mode. Has no effect when
+	 * batching is off or nothing has been batched.
+	 */
+	public void flush() {
+		if(_batch != null && !_batchEmpty) {
+			((Graphics2D) _g).draw(_batch);
+			_batch.reset();
+			_batchEmpty = true;
+		}
 	}
 
 	/**
 	 * @see spaceshapes.Painter.drawRect
 	 */
 	public void drawRect(int x, int y, int width, int height) {
-		_g.drawRect(x, y, width, height);
+		if(_batch == null) {
+			_g.drawRect(x, y, width, height);
+			return;
+		}
+		_batch.moveTo(x, y);
+		_batch.lineTo(x + width, y);
+		_batch.lineTo(x + width, y + height);
+		_batch.lineTo(x, y + height);
+		_batch.closePath();
+		// closePath returns to (x, y), which cannot be joined by drawLine.
+		_lastX = Integer.MIN_VALUE;
+		_batchEmpty = false;
 	}
 
 	/**
 	 * @see spaceshapes.Painter.drawOval
 	 */
 	public void drawOval(int x, int y, int width, int height) {
-		_g.drawOval(x, y, width, height);
+		if(_batch == null) {
+			_g.drawOval(x, y, width, height);
+			return;
+		}
+		_oval.setFrame(x, y, width, height);
+		_batch.append(_oval, false);
+		_lastX = Integer.MIN_VALUE;
+		_batchEmpty = false;
 	}
 
 	/**
 	 * @see spaeshapes.Painter.drawLine.
 	 */
 	public void drawLine(int x1, int y1, int x2, int y2) {
-		_g.drawLine(x1, y1, x2, y2);
+		if(_batch == null) {
+			_g.drawLine(x1, y1, x2, y2);
+			return;
+		}
+		if(_batchEmpty || x1 != _lastX || y1 != _lastY) {
+			_batch.moveTo(x1, y1);
+		}
+		_batch.lineTo(x2, y2);
+		_lastX = x2;
+		_lastY = y2;
+		_batchEmpty = false;
 	}
 
 	/**
@@ -49,7 +204,8 @@ public class GraphicsPainter implements Painter {
 	 */
 	@Override
 	public void fillRect(int x, int y, int width, int height) {
-		_g.fillRect(x, y, width, height);
+		flush();
+		_g.fillRect(x, y, Math.max(width, _minExtent), Math.max(height, _minExtent));
 		
 	}
 
@@ -66,6 +222,7 @@ public class GraphicsPainter implements Painter {
 	 */
 	@Override
 	public void setColor(Color color) {
+		flush();
 		_g.setColor(color);
 		
 	}
@@ -75,19 +232,78 @@ public class GraphicsPainter implements Painter {
 	 */
 	@Override
 	public void translate(int x, int y) {
+		flush();
 		_g.translate(x, y);	
 	}
 
+	/**
+	 * @see spaeshapes.Painter.isVisible.
+	 */
+	@Override
+	public boolean isVisible(int x, int y, int width, int height) {
+		return _g.hitClip(x, y, width, height);
+	}
+
+	/**
+	 * Widens the rectangle by the largest extent of text of the specified
+	 * length in the current font, going by the font's maximum advance, and
+	 * checks it against the clip.
+	 * @see spaeshapes.Painter.isTextVisible.
+	 */
+	@Override
+	public boolean isTextVisible(int x, int y, int width, int height, int length) {
+		if(_detailPixels > 0 && _scale < MIN_TEXT_SCALE) {
+			return false;
+		}
+		FontMetrics metrics = _g.getFontMetrics();
+		int advance = metrics.getMaxAdvance();
+		if(advance < 0) {
+			advance = 2 * metrics.getHeight();
+		}
+		// Leave room for glyphs that overhang their advance.
+		long halfWidth = ((long) length * advance + 1) / 2 + metrics.getMaxAscent() / 2 + 1;
+		long halfHeight = metrics.getMaxAscent() + metrics.getMaxDescent();
+		return _g.hitClip(clamp(x - halfWidth), clamp(y - halfHeight), 
+				clamp(width + 2 * halfWidth), clamp(height + 2 * halfHeight));
+	}
+
+	private static int clamp(long value) {
+		return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+	}
+
+	/**
+	 * @see spaeshapes.Painter.isDetailed.
+	 */
+	@Override
+	public boolean isDetailed(int width, int height) {
+		return _detailPixels == 0 || width * _scale >= _detailPixels || height * _scale >= _detailPixels;
+	}
+
 	/**
 	 * @see spaeshapes.Painter.drawCenteredText.
 	 */
 	@Override
 	public void drawCenteredText(String string, Shape shape) {
-		FontMetrics font = _g.getFontMetrics();
+		if(_detailPixels > 0 && _scale < MIN_TEXT_SCALE) {
+			return;
+		}
+		flush();
+		Font font = _g.getFont();
+		FontRenderContext frc = TextLayoutCache.renderContext(_g, font);
+		TextLayoutCache.Layout layout;
+		if(_textLayoutCache != null) {
+			layout = _textLayoutCache.layout(string, font, frc, _g);
+		} else {
+			layout = shape.textLayout();
+			if(layout == null || !layout.matches(string, font, frc)) {
+				layout = TextLayoutCache.shared().layout(string, font, frc, _g);
+				shape.setTextLayout(layout);
+			}
+		}
 		
-		int stringWidth = font.stringWidth(string);
-		int ascent = font.getMaxAscent();
-		int descent = font.getMaxDescent();
+		int stringWidth = layout.width();
+		int ascent = layout.ascent();
+		int descent = layout.descent();
 		
 		int x = (shape.x() + (shape.width() / 2)) - (stringWidth / 2);
 		int y = (shape.y() + (shape.height() / 2));
@@ -97,6 +313,11 @@ public class GraphicsPainter implements Painter {
 		} else if(ascent < descent) {
 			y -= (ascent - descent) / 2;
 		}
-		_g.drawString(string, x, y);
+		
+		if(_textImageThreshold > 0 && layout.use() >= _textImageThreshold) {
+			layout.drawImage(_g, _g.getColor(), x, y);
+		} else {
+			_g.drawString(string, x, y);
+		}
 	}
 }
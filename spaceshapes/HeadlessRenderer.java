@@ -0,0 +1,297 @@
+package spaceshapes;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders Shapes into an off-screen BufferedImage without Swing, through the
+ * same Shape.paint and GraphicsPainter path used by AnimationViewer. It works
+ * with java.awt.headless=true, so frames can be rendered on machines without
+ * a display.
+ *
+ * A HeadlessRenderer reuses one image for every frame. It can step a
+ * SimulationEngine for a number of frames and write each one to a file, as
+ * PNG or as raw RGB (three bytes per pixel, row by row, no header).
+ *
+ * @author Henry Man
+ *
+ */
+public class HeadlessRenderer {
+	/**
+	 * File formats that frames can be written in.
+	 */
+	public enum Format {
+		PNG("png"),
+		RAW_RGB("rgb");
+
+		private final String _extension;
+
+		private Format(String extension) {
+			_extension = extension;
+		}
+
+		/**
+		 * Returns the file name extension for this format, without the dot.
+		 */
+		public String extension() {
+			return _extension;
+		}
+	}
+
+	// === Constants for default values. ===
+	protected static final Color DEFAULT_BACKGROUND = Color.BLACK;
+	// ===
+
+	private final BufferedImage _image;
+
+	private Color _background = DEFAULT_BACKGROUND;
+
+	// Camera to draw through, or null to draw the world at its natural size.
+	private Camera _camera = null;
+
+	// Level of detail threshold passed to GraphicsPainter when drawing
+	// through a Camera.
+	private int _detailPixels = 0;
+
+	private byte[] _rgb = null;
+
+	// Renders frames in tiles when set.
+	private TiledRasterizer _rasterizer = null;
+
+	/**
+	 * Creates a HeadlessRenderer that renders frames of the specified size.
+	 * @throws IllegalArgumentException if width or height is not positive.
+	 */
+	public HeadlessRenderer(int width, int height) throws IllegalArgumentException {
+		if(width <= 0 || height <= 0) {
+			throw new IllegalArgumentException();
+		}
+		_image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+	}
+
+	/**
+	 * Returns the width of the rendered frames.
+	 */
+	public int width() {
+		return _image.getWidth();
+	}
+
+	/**
+	 * Returns the height of the rendered frames.
+	 */
+	public int height() {
+		return _image.getHeight();
+	}
+
+	/**
+	 * Sets the colour each frame is cleared to before painting.
+	 */
+	public void setBackground(Color background) {
+		_background = background;
+	}
+
+	/**
+	 * Draws frames through a Camera, e.g. to render a world larger than the
+	 * frame, or at the world's natural size when camera is null. Shapes
+	 * smaller on screen than detailPixels are painted as single pixels.
+	 */
+	public void setCamera(Camera camera, int detailPixels) {
+		_camera = camera;
+		_detailPixels = detailPixels;
+	}
+
+	/**
+	 * Renders frames in tiles on several threads with the specified
+	 * TiledRasterizer, or on the calling thread when rasterizer is null (the
+	 * default).
+	 */
+	public void setTiling(TiledRasterizer rasterizer) {
+		_rasterizer = rasterizer;
+	}
+
+	/**
+	 * Paints a list of Shapes into the frame image and returns it. The same
+	 * image is returned, and overwritten, by every call.
+	 */
+	public BufferedImage render(List<Shape> shapes) {
+		render(shapes, _image);
+		return _image;
+	}
+
+	/**
+	 * Paints a list of Shapes into an image of the frame size, e.g. one
+	 * taken from a pool of images.
+	 * @throws IllegalArgumentException if image is not of type TYPE_INT_RGB
+	 * or not of the frame size.
+	 */
+	public void render(List<Shape> shapes, BufferedImage image) throws IllegalArgumentException {
+		if(image.getType() != BufferedImage.TYPE_INT_RGB
+				|| image.getWidth() != width() || image.getHeight() != height()) {
+			throw new IllegalArgumentException();
+		}
+		if(_rasterizer != null) {
+			_rasterizer.render(image, shapes, _background, _camera, _detailPixels);
+			return;
+		}
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setColor(_background);
+			g.fillRect(0, 0, image.getWidth(), image.getHeight());
+			paint(g, shapes, _camera, _detailPixels, true, null);
+		} finally {
+			g.dispose();
+		}
+	}
+
+	/**
+	 * Returns a new image that frames can be rendered into.
+	 */
+	public BufferedImage createImage() {
+		return new BufferedImage(width(), height(), BufferedImage.TYPE_INT_RGB);
+	}
+
+	/**
+	 * Paints a list of Shapes through a Graphics2D object whose clip covers
+	 * the area to paint, optionally through a Camera, and with outlines
+	 * optionally batched by the GraphicsPainter.
+	 * @param cache cache to measure text through, or null for the shared one.
+	 */
+	static void paint(Graphics2D g, List<Shape> shapes, Camera camera, int detailPixels, boolean batching,
+			TextLayoutCache cache) {
+		if(camera != null) {
+			camera.apply(g);
+		}
+		GraphicsPainter painter = new GraphicsPainter(g, batching);
+		painter.setTextLayoutCache(cache);
+		if(camera != null) {
+			painter.setDetailThreshold(detailPixels);
+		}
+		for(Shape s : shapes) {
+			s.paint(painter);
+		}
+		painter.flush();
+	}
+
+	/**
+	 * Steps a SimulationEngine and renders its latest FrameSnapshot, frames
+	 * times, updating the same Shapes from frame to frame. When
+	 * directory is not null each frame is written to it in the specified
+	 * format, named frame-00000, frame-00001 and so on. The engine must not
+	 * be running and must have been given a world size.
+	 * @throws IOException if a frame cannot be written.
+	 */
+	public void renderFrames(SimulationEngine engine, int frames, File directory, Format format) throws IOException {
+		FrameShapes shapes = new FrameShapes();
+		for(int i = 0; i < frames; i++) {
+			engine.step();
+			FrameSnapshot frame = engine.acquireFrame();
+			try {
+				shapes.update(frame);
+			} finally {
+				frame.release();
+			}
+			BufferedImage image = render(shapes.shapes());
+			if(directory != null) {
+				write(image, new File(directory, String.format("frame-%05d.%s", i, format.extension())), format);
+			}
+		}
+	}
+
+	/**
+	 * Writes an image rendered by this HeadlessRenderer to a file in the
+	 * specified format.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public void write(BufferedImage image, File file, Format format) throws IOException {
+		if(format == Format.PNG) {
+			if(!ImageIO.write(image, "png", file)) {
+				throw new IOException("No PNG writer available");
+			}
+			return;
+		}
+		try(OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+			out.write(toRgb(image));
+		}
+	}
+
+	/**
+	 * Returns the pixels of an image as packed RGB bytes. The returned array
+	 * is reused by later calls.
+	 */
+	byte[] toRgb(BufferedImage image) {
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		int length = image.getWidth() * image.getHeight();
+		if(_rgb == null || _rgb.length != 3 * length) {
+			_rgb = new byte[3 * length];
+		}
+		for(int i = 0, j = 0; i < length; i++) {
+			int pixel = pixels[i];
+			_rgb[j++] = (byte) (pixel >> 16);
+			_rgb[j++] = (byte) (pixel >> 8);
+			_rgb[j++] = (byte) pixel;
+		}
+		return _rgb;
+	}
+
+	/**
+	 * Renders a world of randomly placed Shapes and reports the frame rate.
+	 * Arguments: width, height, number of frames, number of Shapes, and
+	 * optionally an output directory ("-" for none), the format (png or rgb)
+	 * and a tile size to render in tiles on every processor.
+	 */
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : 1920;
+		int height = args.length > 1 ? Integer.parseInt(args[1]) : 1080;
+		int frames = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+		int count = args.length > 3 ? Integer.parseInt(args[3]) : 10_000;
+		File directory = args.length > 4 && !args[4].equals("-") ? new File(args[4]) : null;
+		Format format = args.length > 5 && args[5].equals("rgb") ? Format.RAW_RGB : Format.PNG;
+		if(directory != null) {
+			directory.mkdirs();
+		}
+
+		SimulationEngine engine = new SimulationEngine();
+		engine.setWorldSize(width, height);
+		Random random = new Random(1);
+		for(int i = 0; i < count; i++) {
+			int x = random.nextInt(width);
+			int y = random.nextInt(height);
+			int deltaX = random.nextInt(11) - 5;
+			int deltaY = random.nextInt(11) - 5;
+			switch(i % 3) {
+			case 0:
+				engine.add(new RectangleShape(x, y, deltaX, deltaY, 10, 8));
+				break;
+			case 1:
+				engine.add(new OvalShape(x, y, deltaX, deltaY, 8, 8));
+				break;
+			default:
+				engine.add(new HexagonShape(x, y, deltaX, deltaY, 12, 8));
+			}
+		}
+
+		HeadlessRenderer renderer = new HeadlessRenderer(width, height);
+		if(args.length > 6) {
+			renderer.setTiling(new TiledRasterizer(ForkJoinPool.commonPool(), Integer.parseInt(args[6]),
+					Runtime.getRuntime().availableProcessors()));
+		}
+		long start = System.nanoTime();
+		renderer.renderFrames(engine, frames, directory, format);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d frames of %d shapes in %.2f s (%.1f frames/s)%n",
+				frames, count, seconds, frames / seconds);
+	}
+}
@@ -0,0 +1,587 @@
+package spaceshapes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only log of a world's state from which the world at any recorded
+ * tick can be rebuilt, e.g. to reproduce what was on screen when something
+ * went wrong. Attach a Journal to a SimulationEngine with setJournal() and it
+ * records every step.
+ *
+ * Most ticks cost very little to record. Positions follow from the previous
+ * tick's positions and speeds, so a tick is recorded as a delta holding only
+ * the Shapes whose deltaX or deltaY changed sign, or whose DynamicShape fill
+ * changed, and nothing at all is written for a tick in which neither
+ * happened. A checkpoint holding the full state, in the format of a
+ * SceneFile, is written every checkpoint interval, and whenever the state
+ * cannot be described by a delta: when Shapes are added or removed, their
+ * text, size or colour changes, or the world is resized.
+ *
+ * Records are collected in a direct buffer and written to the file when it
+ * fills up, or when flush(), seek() or close() is called. All values are
+ * little-endian. The file starts with an int magic ("SHJ1" read as bytes)
+ * and an int version, followed by records of the form
+ *
+ * 		byte type, long tick, int payload bytes, payload
+ *
+ * where a CHECKPOINT's payload is the world's int width and height followed
+ * by a scene, and a DELTA's payload holds, per changed Shape, its int entry,
+ * int deltaX, int deltaY and byte filled flag. Entries are numbered as in a
+ * FrameSnapshot.
+ *
+ * Only Shapes of the classes of this package can be recorded.
+ *
+ * @author Henry Man
+ *
+ */
+public class Journal implements Closeable {
+	// === Constants for default values. ===
+	protected static final int DEFAULT_CHECKPOINT_INTERVAL = 500;
+
+	protected static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	// ===
+
+	// "SHJ1" as little-endian bytes.
+	static final int MAGIC = 0x314A4853;
+
+	static final int VERSION = 1;
+
+	private static final int HEADER_BYTES = 8;
+
+	// === Record types. ===
+	static final byte CHECKPOINT = 1;
+
+	static final byte DELTA = 2;
+	// ===
+
+	// Bytes of a record's type, tick and payload length.
+	private static final int RECORD_HEADER_BYTES = 13;
+
+	// Bytes of a changed Shape in a DELTA.
+	private static final int CHANGE_BYTES = 13;
+
+	private final Path _path;
+
+	private final FileChannel _channel;
+
+	private final int _checkpointInterval;
+
+	// Records not yet written to the file.
+	private final ByteBuffer _buffer;
+
+	// Number of bytes written to the file.
+	private long _written;
+
+	// State recorded for the previous tick, and the FrameSnapshot reused to
+	// capture the next one.
+	private FrameSnapshot _previous = new FrameSnapshot();
+
+	private FrameSnapshot _current = new FrameSnapshot();
+
+	// False until a tick has been recorded since the file was opened.
+	private boolean _hasPrevious = false;
+
+	private int _width;
+
+	private int _height;
+
+	// Last tick recorded, and last tick with a record in the file, or -1.
+	private long _lastTick = -1;
+
+	private long _lastRecordTick = -1;
+
+	private long _lastCheckpointTick = -1;
+
+	// === Ticks and file positions of the checkpoints, in order. ===
+	private long[] _checkpointTicks = new long[16];
+
+	private long[] _checkpointPositions = new long[16];
+
+	private int _checkpoints = 0;
+	// ===
+
+	// Why recording stopped, or null while recording.
+	private Exception _failure = null;
+
+	/**
+	 * Opens a journal file with the default checkpoint interval of 500 ticks.
+	 * @throws IOException if the file cannot be opened or is not a journal.
+	 */
+	public Journal(Path path) throws IOException {
+		this(path, DEFAULT_CHECKPOINT_INTERVAL);
+	}
+
+	/**
+	 * Opens a journal file, creating it if it does not exist. Records are
+	 * appended to any already in the file; a partly written record left at
+	 * the end by a crash is discarded.
+	 * @param checkpointInterval maximum number of ticks between checkpoints.
+	 * @throws IllegalArgumentException if checkpointInterval is not positive.
+	 * @throws IOException if the file cannot be opened or is not a journal.
+	 */
+	public Journal(Path path, int checkpointInterval) throws IllegalArgumentException, IOException {
+		if(checkpointInterval <= 0) {
+			throw new IllegalArgumentException();
+		}
+		_path = path;
+		_checkpointInterval = checkpointInterval;
+		_buffer = ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		_channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			if(_channel.size() == 0) {
+				_buffer.putInt(MAGIC).putInt(VERSION);
+				flushBuffer();
+			} else {
+				scan();
+			}
+		} catch(IOException e) {
+			_channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Records the state of a world at the end of a tick.
+	 * @param shapes the world's top-level Shapes.
+	 * @param tick the tick, which must be later than the last one recorded.
+	 * @param width width of the world the Shapes moved in during the tick.
+	 * @param height height of the world the Shapes moved in during the tick.
+	 * @throws IllegalArgumentException if tick is not later than the last
+	 * tick recorded, or a Shape is not of a class of this package.
+	 * @throws IOException if the journal cannot be written.
+	 */
+	public synchronized void record(List<Shape> shapes, long tick, int width, int height)
+			throws IllegalArgumentException, IOException {
+		if(tick <= _lastTick) {
+			throw new IllegalArgumentException();
+		}
+		_current.capture(shapes, 0, tick);
+		if(needsCheckpoint(tick, width, height)) {
+			writeCheckpoint(tick, width, height);
+		} else {
+			writeDelta(tick);
+		}
+		FrameSnapshot previous = _previous;
+		_previous = _current;
+		_current = previous;
+		_hasPrevious = true;
+		_width = width;
+		_height = height;
+		_lastTick = tick;
+	}
+
+	/**
+	 * Records a tick on behalf of a SimulationEngine. If recording fails,
+	 * the reason is kept for failure() and close() and later ticks are
+	 * ignored, so a broken journal never stops the simulation.
+	 */
+	synchronized void append(List<Shape> shapes, long tick, int width, int height) {
+		if(_failure != null) {
+			return;
+		}
+		try {
+			record(shapes, tick, width, height);
+		} catch(IOException | IllegalArgumentException e) {
+			_failure = e;
+		}
+	}
+
+	/**
+	 * Returns why recording on behalf of a SimulationEngine stopped, or null
+	 * if it has not.
+	 */
+	public synchronized Exception failure() {
+		return _failure;
+	}
+
+	/**
+	 * Returns the first tick that can be sought to, or -1 if nothing has
+	 * been recorded.
+	 */
+	public synchronized long firstTick() {
+		return _checkpoints == 0 ? -1 : _checkpointTicks[0];
+	}
+
+	/**
+	 * Returns the last tick that can be sought to, or -1 if nothing has been
+	 * recorded.
+	 */
+	public synchronized long lastTick() {
+		return _lastTick;
+	}
+
+	/**
+	 * Writes any buffered records to the file.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public synchronized void flush() throws IOException {
+		flushBuffer();
+	}
+
+	/**
+	 * Rebuilds the top-level Shapes, with their descendants, as they were at
+	 * the end of a recorded tick. Every call returns new Shapes.
+	 * @throws IllegalArgumentException if tick is not between firstTick()
+	 * and lastTick().
+	 * @throws IOException if the journal cannot be read or is corrupt.
+	 */
+	public synchronized List<Shape> seek(long tick) throws IllegalArgumentException, IOException {
+		return replay(tick)._shapes;
+	}
+
+	/**
+	 * Makes a SimulationEngine, which must not be running, continue from
+	 * the end of a recorded tick: its Shapes, tick count and world size are
+	 * replaced by those recorded.
+	 * @throws IllegalArgumentException if tick is not between firstTick()
+	 * and lastTick().
+	 * @throws IllegalStateException if the engine is running.
+	 * @throws IOException if the journal cannot be read or is corrupt.
+	 */
+	public void resume(SimulationEngine engine, long tick)
+			throws IllegalArgumentException, IllegalStateException, IOException {
+		Replay replay;
+		synchronized(this) {
+			replay = replay(tick);
+		}
+		engine.setWorldSize(replay._width, replay._height);
+		engine.restore(replay._shapes, tick);
+	}
+
+	/**
+	 * Writes any buffered records and closes the file. If the last ticks
+	 * recorded had no changes, an empty DELTA marks the last tick so it can
+	 * still be sought to when the file is reopened.
+	 * @throws IOException if the file cannot be written, or recording on
+	 * behalf of a SimulationEngine failed earlier.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if(!_channel.isOpen()) {
+			return;
+		}
+		try {
+			if(_lastTick > _lastRecordTick) {
+				beginRecord(DELTA, _lastTick, 0);
+			}
+			flushBuffer();
+		} finally {
+			_channel.close();
+		}
+		if(_failure instanceof IOException) {
+			throw (IOException) _failure;
+		} else if(_failure != null) {
+			throw new IOException(_failure);
+		}
+	}
+
+	/**
+	 * Returns true if the state just captured cannot be described as a delta
+	 * of the previous tick's state.
+	 */
+	private boolean needsCheckpoint(long tick, int width, int height) {
+		if(!_hasPrevious || tick != _lastTick + 1 || tick - _lastCheckpointTick >= _checkpointInterval
+				|| width != _width || height != _height) {
+			return true;
+		}
+		FrameSnapshot previous = _previous;
+		FrameSnapshot current = _current;
+		int n = current._size;
+		if(n != previous._size) {
+			return true;
+		}
+		for(int i = 0; i < n; i++) {
+			if(current._kind[i] != previous._kind[i] || current._parent[i] != previous._parent[i]
+					|| current._width[i] != previous._width[i] || current._height[i] != previous._height[i]
+					|| current._color[i] != previous._color[i] || !current._text[i].equals(previous._text[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void writeCheckpoint(long tick, int width, int height) throws IOException {
+		int size = SceneFile.size(_current);
+		long position = _written + _buffer.position();
+		ByteBuffer buffer = beginRecord(CHECKPOINT, tick, 8 + size);
+		buffer.putInt(width).putInt(height);
+		SceneFile.write(_current, buffer);
+		endRecord(buffer);
+		addCheckpoint(tick, position);
+	}
+
+	private void writeDelta(long tick) throws IOException {
+		FrameSnapshot previous = _previous;
+		FrameSnapshot current = _current;
+		int n = current._size;
+		int changes = 0;
+		for(int i = 0; i < n; i++) {
+			if(changed(previous, current, i)) {
+				changes++;
+			}
+		}
+		if(changes == 0) {
+			return;
+		}
+		ByteBuffer buffer = beginRecord(DELTA, tick, changes * CHANGE_BYTES);
+		for(int i = 0; i < n; i++) {
+			if(changed(previous, current, i)) {
+				buffer.putInt(i).putInt(current._deltaX[i]).putInt(current._deltaY[i]);
+				buffer.put(current._filled[i] ? (byte) 1 : 0);
+			}
+		}
+		endRecord(buffer);
+	}
+
+	private static boolean changed(FrameSnapshot previous, FrameSnapshot current, int i) {
+		return current._deltaX[i] != previous._deltaX[i] || current._deltaY[i] != previous._deltaY[i]
+				|| current._filled[i] != previous._filled[i];
+	}
+
+	/**
+	 * Starts a record and returns the buffer to write its payload into: the
+	 * journal's buffer, or a temporary one if the record does not fit it.
+	 */
+	private ByteBuffer beginRecord(byte type, long tick, int payloadBytes) throws IOException {
+		int size = RECORD_HEADER_BYTES + payloadBytes;
+		if(_buffer.remaining() < size) {
+			flushBuffer();
+		}
+		ByteBuffer buffer = _buffer;
+		if(_buffer.remaining() < size) {
+			buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		buffer.put(type).putLong(tick).putInt(payloadBytes);
+		_lastRecordTick = tick;
+		return buffer;
+	}
+
+	private void endRecord(ByteBuffer buffer) throws IOException {
+		if(buffer != _buffer) {
+			buffer.flip();
+			writeFully(buffer);
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		_buffer.flip();
+		writeFully(_buffer);
+		_buffer.clear();
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) {
+			_written += _channel.write(buffer, _written);
+		}
+	}
+
+	/**
+	 * Reads the records of an existing file to find its checkpoints and last
+	 * tick, discarding a partly written record at the end.
+	 */
+	private void scan() throws IOException {
+		long size = _channel.size();
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.limit(HEADER_BYTES);
+		if(size < HEADER_BYTES || read(header, 0) != MAGIC) {
+			throw new IOException("Not a journal: " + _path);
+		}
+		int version = header.getInt(4);
+		if(version != VERSION) {
+			throw new IOException("Unsupported journal version " + version + ": " + _path);
+		}
+		long position = HEADER_BYTES;
+		while(size - position >= RECORD_HEADER_BYTES) {
+			header.clear();
+			read(header, position);
+			byte type = header.get(0);
+			long tick = header.getLong(1);
+			int payloadBytes = header.getInt(9);
+			if((type != CHECKPOINT && type != DELTA) || payloadBytes < 0 || tick <= _lastTick
+					|| (type == DELTA && _checkpoints == 0)) {
+				throw new IOException("Corrupt journal: " + _path);
+			}
+			if(size - position - RECORD_HEADER_BYTES < payloadBytes) {
+				break;
+			}
+			if(type == CHECKPOINT) {
+				addCheckpoint(tick, position);
+			}
+			_lastTick = tick;
+			_lastRecordTick = tick;
+			position += RECORD_HEADER_BYTES + payloadBytes;
+		}
+		_channel.truncate(position);
+		_written = position;
+	}
+
+	/**
+	 * Fills a buffer from a position of the file and returns its first int.
+	 */
+	private int read(ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			if(_channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Corrupt journal: " + _path);
+			}
+		}
+		return buffer.getInt(0);
+	}
+
+	private void addCheckpoint(long tick, long position) {
+		if(_checkpoints == _checkpointTicks.length) {
+			_checkpointTicks = Arrays.copyOf(_checkpointTicks, _checkpoints * 2);
+			_checkpointPositions = Arrays.copyOf(_checkpointPositions, _checkpoints * 2);
+		}
+		_checkpointTicks[_checkpoints] = tick;
+		_checkpointPositions[_checkpoints] = position;
+		_checkpoints++;
+		_lastCheckpointTick = tick;
+	}
+
+	/**
+	 * Rebuilds the world at the end of a tick from the latest checkpoint at
+	 * or before it. Shapes are moved one tick at a time and their speeds
+	 * and fills are then set to those recorded, which only change through
+	 * DELTAs; this reproduces bounces off walls and off other Shapes alike.
+	 * Runs of ticks without a DELTA in which no Shape reaches a wall are
+	 * skipped in one jump.
+	 */
+	private Replay replay(long tick) throws IllegalArgumentException, IOException {
+		if(_checkpoints == 0 || tick < _checkpointTicks[0] || tick > _lastTick) {
+			throw new IllegalArgumentException();
+		}
+		flushBuffer();
+		int checkpoint = Arrays.binarySearch(_checkpointTicks, 0, _checkpoints, tick);
+		if(checkpoint < 0) {
+			checkpoint = -checkpoint - 2;
+		}
+		long start = _checkpointPositions[checkpoint];
+		long end = checkpoint + 1 < _checkpoints ? _checkpointPositions[checkpoint + 1] : _written;
+		MappedByteBuffer records = _channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		records.order(ByteOrder.LITTLE_ENDIAN);
+
+		records.position(RECORD_HEADER_BYTES);
+		int payloadBytes = records.getInt(9);
+		int width = records.getInt();
+		int height = records.getInt();
+		ByteBuffer scene = records.slice();
+		scene.limit(payloadBytes - 8);
+		FrameSnapshot frame = SceneFile.read(scene, _path.toString());
+		records.position(RECORD_HEADER_BYTES + payloadBytes);
+
+		List<Shape> shapes = frame.toShapes();
+		List<Shape> entries = new ArrayList<Shape>();
+		for(Shape shape : shapes) {
+			flatten(shape, entries);
+		}
+		int n = entries.size();
+		int[] deltaX = Arrays.copyOf(frame._deltaX, n);
+		int[] deltaY = Arrays.copyOf(frame._deltaY, n);
+		boolean[] filled = Arrays.copyOf(frame._filled, n);
+
+		long t = _checkpointTicks[checkpoint];
+		while(t < tick) {
+			long next = records.remaining() >= RECORD_HEADER_BYTES ? records.getLong(records.position() + 1)
+					: Long.MAX_VALUE;
+			// Ticks up to the next record, in which no speed or fill changed.
+			long quiet = Math.min(next - 1, tick) - t;
+			if(quiet > 1 && staysClear(entries, frame._parent, quiet, width, height)) {
+				for(Shape shape : shapes) {
+					shape.advance(quiet, width, height);
+				}
+				t += quiet;
+				continue;
+			}
+			t++;
+			for(Shape shape : shapes) {
+				shape.move(width, height);
+			}
+			if(records.remaining() >= RECORD_HEADER_BYTES && records.getLong(records.position() + 1) == t) {
+				records.get();
+				records.getLong();
+				int changes = records.getInt() / CHANGE_BYTES;
+				for(int c = 0; c < changes; c++) {
+					int i = records.getInt();
+					if(i < 0 || i >= n) {
+						throw new IOException("Corrupt journal: " + _path);
+					}
+					deltaX[i] = records.getInt();
+					deltaY[i] = records.getInt();
+					filled[i] = records.get() != 0;
+				}
+			}
+			for(int i = 0; i < n; i++) {
+				Shape shape = entries.get(i);
+				shape._deltaX = deltaX[i];
+				shape._deltaY = deltaY[i];
+				if(shape instanceof DynamicShape) {
+					((DynamicShape) shape).setFilled(filled[i]);
+				}
+			}
+		}
+		return new Replay(shapes, width, height);
+	}
+
+	/**
+	 * Returns true if no Shape touches a wall in the next ticks, so that
+	 * Shape.advance() moves them as replaying the ticks one by one would.
+	 */
+	private static boolean staysClear(List<Shape> entries, int[] parents, long ticks, int width, int height) {
+		for(int i = 0; i < entries.size(); i++) {
+			Shape shape = entries.get(i);
+			int boundX = width;
+			int boundY = height;
+			if(parents[i] >= 0) {
+				boundX = entries.get(parents[i])._width;
+				boundY = entries.get(parents[i])._height;
+			}
+			if(!staysClear(shape._x, shape._deltaX, shape._width, boundX, ticks)
+					|| !staysClear(shape._y, shape._deltaY, shape._height, boundY, ticks)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean staysClear(long position, long delta, int extent, int bound, long ticks) {
+		long first = position + delta;
+		long last = position + ticks * delta;
+		long limit = (long) bound - extent;
+		return first > 0 && first < limit && last > 0 && last < limit;
+	}
+
+	private static void flatten(Shape shape, List<Shape> entries) {
+		entries.add(shape);
+		if(shape instanceof CarrierShape) {
+			for(Shape child : ((CarrierShape) shape).children()) {
+				flatten(child, entries);
+			}
+		}
+	}
+
+	/**
+	 * World rebuilt by replay().
+	 */
+	private static class Replay {
+		private final List<Shape> _shapes;
+		private final int _width;
+		private final int _height;
+
+		Replay(List<Shape> shapes, int width, int height) {
+			_shapes = shapes;
+			_width = width;
+			_height = height;
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package spaceshapes;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative long values, e.g. durations in nanoseconds,
+ * with buckets in the style of an HDR histogram: values below 64 have a
+ * bucket each, and every higher power-of-two range is split into 32 equal
+ * buckets, so any recorded value is reported to within about 3% whatever
+ * its magnitude. The buckets take a fixed 15 KB.
+ *
+ * Recording is lock-free and does not allocate, so values may be recorded
+ * from any number of threads while others read percentiles.
+ *
+ * @author Henry Man
+ *
+ */
+public class LatencyHistogram {
+	// Number of bits used to place a value within its power-of-two range.
+	private static final int SUB_BUCKET_BITS = 5;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	// Enough buckets for Long.MAX_VALUE.
+	private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLong _count = new AtomicLong();
+
+	private final AtomicLong _sum = new AtomicLong();
+
+	private final AtomicLong _max = new AtomicLong();
+
+	/**
+	 * Records a value. Negative values are recorded as 0.
+	 */
+	public void record(long value) {
+		value = Math.max(0, value);
+		_counts.incrementAndGet(index(value));
+		_count.incrementAndGet();
+		_sum.addAndGet(value);
+		_max.accumulateAndGet(value, Math::max);
+	}
+
+	/**
+	 * Returns the number of values recorded.
+	 */
+	public long count() {
+		return _count.get();
+	}
+
+	/**
+	 * Returns the largest value recorded, or 0 if none has been.
+	 */
+	public long max() {
+		return _max.get();
+	}
+
+	/**
+	 * Returns the mean of the values recorded, or 0 if none has been.
+	 */
+	public double mean() {
+		long count = _count.get();
+		return count == 0 ? 0 : (double) _sum.get() / count;
+	}
+
+	/**
+	 * Returns a value that the specified percentage of recorded values do not
+	 * exceed, to the precision of the buckets, or 0 if nothing has been
+	 * recorded. The result never exceeds max().
+	 * @param percentile percentage between 0 and 100.
+	 * @throws IllegalArgumentException if percentile is outside that range.
+	 */
+	public long percentile(double percentile) throws IllegalArgumentException {
+		if(!(percentile >= 0 && percentile <= 100)) {
+			throw new IllegalArgumentException();
+		}
+		long count = _count.get();
+		if(count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += _counts.get(i);
+			if(seen >= rank) {
+				return Math.min(highestValue(i), _max.get());
+			}
+		}
+		return _max.get();
+	}
+
+	/**
+	 * Discards every recorded value. Values recorded while this method runs
+	 * may be partly discarded.
+	 */
+	public void reset() {
+		for(int i = 0; i < BUCKETS; i++) {
+			_counts.set(i, 0);
+		}
+		_count.set(0);
+		_sum.set(0);
+		_max.set(0);
+	}
+
+	/**
+	 * Returns the bucket a value falls in.
+	 */
+	static int index(long value) {
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = Math.max(0, exponent - SUB_BUCKET_BITS);
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+
+	/**
+	 * Returns the largest value that falls in a bucket.
+	 */
+	static long highestValue(int index) {
+		int shift = Math.max(0, index / SUB_BUCKETS - 1);
+		long sub = index - shift * SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,260 @@
+package spaceshapes;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Records how long stepping and painting take, how many Shapes are painted
+ * and how many Painter requests they make, and how many frame deadlines are
+ * missed. Durations and counts go into LatencyHistograms, so recording is
+ * lock-free and does not allocate and can be left on in production.
+ *
+ * Metrics can be exposed over JMX with register(), and written to a log
+ * periodically with startLogging().
+ *
+ * @author Henry Man
+ *
+ */
+public class Metrics implements MetricsMXBean {
+	// Names of the Painter methods, indexed by RecordingPainter opcode.
+	private static final String[] PAINTER_METHODS = {
+		null, "drawRect", "drawOval", "drawLine", "fillRect",
+		"getColor", "setColor", "translate", "drawCenteredText"
+	};
+
+	private static final Logger LOGGER = Logger.getLogger(Metrics.class.getName());
+
+	private final LatencyHistogram _stepTime = new LatencyHistogram();
+
+	private final LatencyHistogram _paintTime = new LatencyHistogram();
+
+	private final LatencyHistogram _shapesPainted = new LatencyHistogram();
+
+	// Number of calls per Painter method, indexed by opcode.
+	private final LongAdder[] _painterCalls = new LongAdder[PAINTER_METHODS.length];
+
+	private final LongAdder _missedDeadlines = new LongAdder();
+
+	private ScheduledExecutorService _logger = null;
+
+	/**
+	 * Creates a Metrics object with nothing recorded.
+	 */
+	public Metrics() {
+		for(int i = 1; i < _painterCalls.length; i++) {
+			_painterCalls[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Records the duration of a simulation step.
+	 */
+	public void recordStep(long nanos) {
+		_stepTime.record(nanos);
+	}
+
+	/**
+	 * Records the duration of painting a frame, and the number of Shapes and
+	 * Painter requests counted by the CountingPainter used to paint it. The
+	 * CountingPainter is reset afterwards so it can be used for the next
+	 * frame.
+	 */
+	public void recordPaint(long nanos, CountingPainter painter) {
+		_paintTime.record(nanos);
+		_shapesPainted.record(painter.shapesPainted());
+		for(int i = 1; i < _painterCalls.length; i++) {
+			long count = painter.count(i);
+			if(count != 0) {
+				_painterCalls[i].add(count);
+			}
+		}
+		painter.reset();
+	}
+
+	/**
+	 * Records frames whose deadline passed before they were produced.
+	 */
+	public void recordMissedDeadlines(long frames) {
+		_missedDeadlines.add(frames);
+	}
+
+	/**
+	 * Returns the histogram of step durations in nanoseconds.
+	 */
+	public LatencyHistogram stepTime() {
+		return _stepTime;
+	}
+
+	/**
+	 * Returns the histogram of frame painting durations in nanoseconds.
+	 */
+	public LatencyHistogram paintTime() {
+		return _paintTime;
+	}
+
+	/**
+	 * Returns the histogram of the number of Shapes painted per frame.
+	 */
+	public LatencyHistogram shapesPainted() {
+		return _shapesPainted;
+	}
+
+	@Override
+	public long getStepCount() {
+		return _stepTime.count();
+	}
+
+	@Override
+	public long getStepTimeP50() {
+		return _stepTime.percentile(50);
+	}
+
+	@Override
+	public long getStepTimeP99() {
+		return _stepTime.percentile(99);
+	}
+
+	@Override
+	public long getStepTimeMax() {
+		return _stepTime.max();
+	}
+
+	@Override
+	public long getPaintCount() {
+		return _paintTime.count();
+	}
+
+	@Override
+	public long getPaintTimeP50() {
+		return _paintTime.percentile(50);
+	}
+
+	@Override
+	public long getPaintTimeP99() {
+		return _paintTime.percentile(99);
+	}
+
+	@Override
+	public long getPaintTimeMax() {
+		return _paintTime.max();
+	}
+
+	@Override
+	public long getShapesPaintedP50() {
+		return _shapesPainted.percentile(50);
+	}
+
+	@Override
+	public long getShapesPaintedMax() {
+		return _shapesPainted.max();
+	}
+
+	@Override
+	public long getMissedDeadlines() {
+		return _missedDeadlines.sum();
+	}
+
+	@Override
+	public Map<String, Long> getPainterCalls() {
+		Map<String, Long> calls = new LinkedHashMap<String, Long>();
+		for(int i = 1; i < _painterCalls.length; i++) {
+			calls.put(PAINTER_METHODS[i], _painterCalls[i].sum());
+		}
+		return calls;
+	}
+
+	@Override
+	public void reset() {
+		_stepTime.reset();
+		_paintTime.reset();
+		_shapesPainted.reset();
+		for(int i = 1; i < _painterCalls.length; i++) {
+			_painterCalls[i].reset();
+		}
+		_missedDeadlines.reset();
+	}
+
+	/**
+	 * Returns a one-line summary of everything recorded, with times in
+	 * microseconds.
+	 */
+	public String report() {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("step n=%d p50=%.1fus p99=%.1fus max=%.1fus; ",
+				getStepCount(), getStepTimeP50() / 1e3, getStepTimeP99() / 1e3, getStepTimeMax() / 1e3));
+		report.append(String.format("paint n=%d p50=%.1fus p99=%.1fus max=%.1fus; ",
+				getPaintCount(), getPaintTimeP50() / 1e3, getPaintTimeP99() / 1e3, getPaintTimeMax() / 1e3));
+		report.append(String.format("shapes p50=%d max=%d; missed=%d; calls",
+				getShapesPaintedP50(), getShapesPaintedMax(), getMissedDeadlines()));
+		for(Map.Entry<String, Long> calls : getPainterCalls().entrySet()) {
+			report.append(' ').append(calls.getKey()).append('=').append(calls.getValue());
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Registers this Metrics object with the platform MBean server under
+	 * the name spaceshapes:type=Metrics,name=name.
+	 * @return the name it was registered under.
+	 * @throws JMException if it cannot be registered, e.g. because the name
+	 * is already in use.
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = objectName(name);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	/**
+	 * Removes the Metrics object registered under a name from the platform
+	 * MBean server. Has no effect if nothing is registered under the name.
+	 * @throws JMException if the name is not valid.
+	 */
+	public static void unregister(String name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = objectName(name);
+		if(server.isRegistered(objectName)) {
+			server.unregisterMBean(objectName);
+		}
+	}
+
+	/**
+	 * Writes report() to the log at the specified period, on a daemon thread,
+	 * until stopLogging() is called. Has no effect if already logging.
+	 */
+	public synchronized void startLogging(long period, TimeUnit unit) {
+		if(_logger != null) {
+			return;
+		}
+		_logger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "spaceshapes-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		_logger.scheduleAtFixedRate(() -> LOGGER.info(report()), period, period, unit);
+	}
+
+	/**
+	 * Stops periodic logging started by startLogging().
+	 */
+	public synchronized void stopLogging() {
+		if(_logger != null) {
+			_logger.shutdownNow();
+			_logger = null;
+		}
+	}
+
+	private static ObjectName objectName(String name) throws JMException {
+		return new ObjectName("spaceshapes:type=Metrics,name=" + ObjectName.quote(name));
+	}
+}
@@ -0,0 +1,45 @@
+package spaceshapes;
+
+import java.util.Map;
+
+/**
+ * Management interface through which Metrics are exposed over JMX. Times
+ * are in nanoseconds.
+ *
+ * @author Henry Man
+ *
+ */
+public interface MetricsMXBean {
+	public long getStepCount();
+
+	public long getStepTimeP50();
+
+	public long getStepTimeP99();
+
+	public long getStepTimeMax();
+
+	public long getPaintCount();
+
+	public long getPaintTimeP50();
+
+	public long getPaintTimeP99();
+
+	public long getPaintTimeMax();
+
+	public long getShapesPaintedP50();
+
+	public long getShapesPaintedMax();
+
+	public long getMissedDeadlines();
+
+	/**
+	 * Returns the number of calls made to each Painter method, by method
+	 * name.
+	 */
+	public Map<String, Long> getPainterCalls();
+
+	/**
+	 * Discards everything recorded so far.
+	 */
+	public void reset();
+}
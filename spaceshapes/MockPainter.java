@@ -7,75 +7,77 @@ import java.awt.Color;
  * painting. A MockPainter implementation responds to Painter requests by
  * logging simply logging them. The contents of a MockPainter object's
  * log can be retrieved by a call to toString() on the MockPainter.
- * 
+ *
+ * Requests are logged as primitive records by the RecordingPainter
+ * superclass, and the textual log is only built when toString() is called.
+ * High-volume tests can instead compare frames with sameFrame() or
+ * frameHash(), which build no strings at all.
+ *
  * @author Paramvir Singh (Original Author - Ian Warren)
- * 
+ *
  */
-public class MockPainter implements Painter {
-	// Internal log.
-	private StringBuffer _log = new StringBuffer();
+public class MockPainter extends RecordingPainter {
 
 	/**
 	 * Returns the contents of this MockPainter's log.
 	 */
 	public String toString() {
-		return _log.toString();
-	}
-
-	/**
-	 * Logs the drawRect call.
-	 */
-	public void drawRect(int x, int y, int width, int height) {
-		_log.append("(rectangle " + x + "," + y + "," + width + "," + height + ")");
-	}
-	
-	/**
-	 * Logs the drawOval call.
-	 */
-	public void drawOval(int x, int y, int width, int height) {
-		_log.append("(oval " + x + "," + y + "," + width + "," + height + ")");
-	}
-
-	/**
-	 * Logs the drawLine call.
-	 */
-	public void drawLine(int x1, int y1, int x2, int y2) {
-		_log.append("(line " + x1 + "," + y1 + "," + x2 + "," + y2 + ")");
-	}
-
-	/**
-	 * Logs the fillRect call.
-	 */
-	public void fillRect(int x, int y, int width, int height) {
-		_log.append("(rectangle-filled " + x + "," + y + "," + width + "," + height + ")");
-		
+		StringBuilder log = new StringBuilder();
+		int[] c = commands();
+		int i = 0;
+		while(i < length()) {
+			switch(c[i]) {
+			case DRAW_RECT:
+				appendCall(log, "rectangle", c, i);
+				i += 5;
+				break;
+			case DRAW_OVAL:
+				appendCall(log, "oval", c, i);
+				i += 5;
+				break;
+			case DRAW_LINE:
+				appendCall(log, "line", c, i);
+				i += 5;
+				break;
+			case FILL_RECT:
+				appendCall(log, "rectangle-filled", c, i);
+				i += 5;
+				break;
+			case GET_COLOR:
+				log.append("(get color)");
+				i += 1;
+				break;
+			case SET_COLOR:
+				log.append("(set color)");
+				i += 2;
+				break;
+			case TRANSLATE:
+				// Translations are not logged.
+				i += 3;
+				break;
+			case DRAW_CENTERED_TEXT:
+				log.append("(draw centered text)");
+				i += 6;
+				break;
+			default:
+				throw new IllegalStateException("Unknown opcode " + c[i]);
+			}
+		}
+		return log.toString();
 	}
 
 	/**
 	 * Logs the getColor call.
 	 */
+	@Override
 	public Color getColor() {
-		_log.append("(get color)"); 
+		super.getColor();
 		return null;
 	}
 
-	/**
-	 * Logs the setColor call.
-	 */
-	public void setColor(Color color) {
-		_log.append("(set color)");
-		
-	}
-	
-	public void translate(int x, int y) {		
-	}
-
-	/**
-	 * Logs the drawCenteredText call
-	 */
-	@Override
-	public void drawCenteredText(String string, Shape shape) {
-		_log.append("(draw centered text)");
-		
+	private static void appendCall(StringBuilder log, String name, int[] c, int i) {
+		log.append('(').append(name).append(' ')
+			.append(c[i + 1]).append(',').append(c[i + 2]).append(',')
+			.append(c[i + 3]).append(',').append(c[i + 4]).append(')');
 	}
-}
\ No newline at end of file
+}
@@ -58,4 +58,55 @@ public interface Painter {
 	 * @param shape Shape which contains text which needs to be drawn
 	 */
 	public void drawCenteredText(String string, Shape shape);
+	
+	/**
+	 * Returns true if anything drawn within the specified rectangle could be
+	 * visible, e.g. because it intersects the clip. Shapes use this to skip
+	 * painting when nothing they draw would show. Painters without a notion
+	 * of visibility report everything as visible.
+	 * @param x x coordinate of the rectangle's top left corner
+	 * @param y y coordinate of the rectangle's top left corner
+	 * @param width width of the rectangle
+	 * @param height height of the rectangle
+	 */
+	public default boolean isVisible(int x, int y, int width, int height) {
+		return true;
+	}
+
+	/**
+	 * Returns true if text of at most the specified length, centred on any
+	 * point within the specified rectangle, could be visible. Shapes use
+	 * this to skip painting when neither they nor their text would show.
+	 * Painters without a notion of visibility report all text as visible.
+	 * @param x x coordinate of the rectangle's top left corner
+	 * @param y y coordinate of the rectangle's top left corner
+	 * @param width width of the rectangle
+	 * @param height height of the rectangle
+	 * @param length number of characters in the longest text
+	 */
+	public default boolean isTextVisible(int x, int y, int width, int height, int length) {
+		return true;
+	}
+
+	/**
+	 * Returns true if an area of the specified size is large enough once
+	 * drawn to be worth painting in full. Shapes covering a smaller area are
+	 * painted as a single filled rectangle, without their text or children.
+	 * Painters that do not scale their drawing report every size as detailed.
+	 * @param width width of the area
+	 * @param height height of the area
+	 */
+	public default boolean isDetailed(int width, int height) {
+		return true;
+	}
+
+	/**
+	 * Called by Shape.paint for each Shape it paints, whether in full or
+	 * filled in place of its detail, before painting it. Shapes skipped
+	 * because they are not visible are not reported. Painters that do not
+	 * keep track of Shapes ignore it.
+	 * @param shape the Shape about to be painted
+	 */
+	public default void shapePainted(Shape shape) {
+	}
 }
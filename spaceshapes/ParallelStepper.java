@@ -0,0 +1,108 @@
+package spaceshapes;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Moves a list of Shapes in parallel using fork-join tasks. Every top-level
+ * Shape, and every child of a CarrierShape, moves independently of its
+ * siblings, so a list is split in halves until a part holds no more than the
+ * granularity threshold, and a CarrierShape with more children than the
+ * threshold has its children split in the same way once the carrier itself
+ * has moved. The result is identical to calling move() on each Shape in turn.
+ * 
+ * @author Henry Man
+ *
+ */
+public class ParallelStepper {
+	// === Constants for default values. ===
+	protected static final int DEFAULT_THRESHOLD = 1000;
+	// ===
+
+	private final ForkJoinPool _pool;
+
+	private final int _threshold;
+
+	/**
+	 * Creates a ParallelStepper that uses the common fork-join pool and the
+	 * default granularity threshold.
+	 */
+	public ParallelStepper() {
+		this(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Creates a ParallelStepper with a specified pool and threshold.
+	 * @param pool pool that runs the tasks.
+	 * @param threshold the largest number of Shapes moved by a single task
+	 * before it is split.
+	 * @throws IllegalArgumentException if threshold is not positive.
+	 */
+	public ParallelStepper(ForkJoinPool pool, int threshold) throws IllegalArgumentException {
+		if(threshold <= 0) {
+			throw new IllegalArgumentException();
+		}
+		_pool = pool;
+		_threshold = threshold;
+	}
+
+	/**
+	 * Returns the granularity threshold.
+	 */
+	public int threshold() {
+		return _threshold;
+	}
+
+	/**
+	 * Moves every Shape in the list within the specified bounds and returns
+	 * once all of them, including the children of CarrierShapes, have moved.
+	 * @param width - width of two-dimensional world.
+	 * @param height - height of two-dimensional world.
+	 */
+	public void moveAll(List<Shape> shapes, int width, int height) {
+		_pool.invoke(new MoveTask(shapes, 0, shapes.size(), width, height));
+	}
+
+	/**
+	 * Task that moves the Shapes in the range [from, to) of a list.
+	 */
+	@SuppressWarnings("serial")
+	private class MoveTask extends RecursiveAction {
+		private final List<Shape> _shapes;
+		private final int _from;
+		private final int _to;
+		private final int _width;
+		private final int _height;
+
+		MoveTask(List<Shape> shapes, int from, int to, int width, int height) {
+			_shapes = shapes;
+			_from = from;
+			_to = to;
+			_width = width;
+			_height = height;
+		}
+
+		@Override
+		protected void compute() {
+			if(_to - _from > _threshold) {
+				int middle = (_from + _to) >>> 1;
+				invokeAll(new MoveTask(_shapes, _from, middle, _width, _height),
+						new MoveTask(_shapes, middle, _to, _width, _height));
+				return;
+			}
+			for(int i = _from; i < _to; i++) {
+				Shape shape = _shapes.get(i);
+				if(shape instanceof CarrierShape && ((CarrierShape) shape).shapeCount() > _threshold) {
+					CarrierShape carrier = (CarrierShape) shape;
+					carrier.moveSelf(_width, _height);
+					List<Shape> children = carrier.children();
+					new MoveTask(children, 0, children.size(), carrier.width(), carrier.height()).invoke();
+					carrier.refreshBounds();
+				} else {
+					shape.move(_width, _height);
+				}
+			}
+		}
+	}
+}
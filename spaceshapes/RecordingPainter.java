@@ -0,0 +1,308 @@
+package spaceshapes;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Implementation of the Painter interface that records drawing requests into
+ * a compact command stream instead of drawing. Each command is an opcode
+ * followed by its int operands in a single int array; colours and strings are
+ * kept in a side table and referred to by index. Both arrays are reused after
+ * clear(), so recording a frame of the same size as the previous one does
+ * not allocate.
+ * 
+ * A recorded frame can be replayed onto any other Painter, e.g. built off the
+ * event dispatch thread and then replayed onto a GraphicsPainter on it. It
+ * can also be inspected without building strings: commands are counted per
+ * opcode, a frame can be hashed, and two frames can be compared directly.
+ * 
+ * @author Henry Man
+ *
+ */
+public class RecordingPainter implements Painter {
+	// === Opcodes. ===
+	public static final int DRAW_RECT = 1;
+
+	public static final int DRAW_OVAL = 2;
+
+	public static final int DRAW_LINE = 3;
+
+	public static final int FILL_RECT = 4;
+
+	public static final int GET_COLOR = 5;
+
+	public static final int SET_COLOR = 6;
+
+	public static final int TRANSLATE = 7;
+
+	public static final int DRAW_CENTERED_TEXT = 8;
+	// ===
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	private int[] _commands = new int[INITIAL_CAPACITY];
+
+	private int _length = 0;
+
+	private Object[] _objects = new Object[INITIAL_CAPACITY / 8];
+
+	private int _objectCount = 0;
+
+	private int _commandCount = 0;
+
+	// Number of commands recorded per opcode.
+	private final int[] _opcodeCounts = new int[DRAW_CENTERED_TEXT + 1];
+
+	// Colour as it will be on the target Painter at this point of the stream.
+	private Color _color = GraphicsPainter.DEFAULT_COLOR;
+
+	// Stands in for the Shape passed to drawCenteredText during replay.
+	private final TextBox _textBox = new TextBox();
+
+	/**
+	 * Discards the recorded frame, keeping the allocated buffers for reuse.
+	 */
+	public void clear() {
+		_length = 0;
+		_commandCount = 0;
+		Arrays.fill(_opcodeCounts, 0);
+		Arrays.fill(_objects, 0, _objectCount, null);
+		_objectCount = 0;
+		_color = GraphicsPainter.DEFAULT_COLOR;
+	}
+
+	/**
+	 * Returns the number of commands recorded since the last clear().
+	 */
+	public int commandCount() {
+		return _commandCount;
+	}
+
+	/**
+	 * Returns the number of commands with the specified opcode recorded 
+	 * since the last clear().
+	 */
+	public int commandCount(int opcode) {
+		return _opcodeCounts[opcode];
+	}
+
+	/**
+	 * Returns a hash of the recorded frame. Equal frames have equal hashes,
+	 * so frames can be checked against a stored hash without keeping them.
+	 */
+	public long frameHash() {
+		// 64-bit FNV-1a over the command stream and the side table.
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < _length; i++) {
+			hash = (hash ^ _commands[i]) * 0x100000001b3L;
+		}
+		for(int i = 0; i < _objectCount; i++) {
+			hash = (hash ^ Objects.hashCode(_objects[i])) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns true if this RecordingPainter holds exactly the same frame as
+	 * another one.
+	 */
+	public boolean sameFrame(RecordingPainter other) {
+		return _length == other._length && _objectCount == other._objectCount
+				&& Arrays.equals(_commands, 0, _length, other._commands, 0, _length)
+				&& Arrays.equals(_objects, 0, _objectCount, other._objects, 0, _objectCount);
+	}
+
+	/**
+	 * Issues every recorded command, in order, to the specified Painter.
+	 */
+	public void replay(Painter painter) {
+		int[] c = _commands;
+		int i = 0;
+		while(i < _length) {
+			switch(c[i]) {
+			case DRAW_RECT:
+				painter.drawRect(c[i + 1], c[i + 2], c[i + 3], c[i + 4]);
+				i += 5;
+				break;
+			case DRAW_OVAL:
+				painter.drawOval(c[i + 1], c[i + 2], c[i + 3], c[i + 4]);
+				i += 5;
+				break;
+			case DRAW_LINE:
+				painter.drawLine(c[i + 1], c[i + 2], c[i + 3], c[i + 4]);
+				i += 5;
+				break;
+			case FILL_RECT:
+				painter.fillRect(c[i + 1], c[i + 2], c[i + 3], c[i + 4]);
+				i += 5;
+				break;
+			case GET_COLOR:
+				painter.getColor();
+				i += 1;
+				break;
+			case SET_COLOR:
+				painter.setColor((Color) _objects[c[i + 1]]);
+				i += 2;
+				break;
+			case TRANSLATE:
+				painter.translate(c[i + 1], c[i + 2]);
+				i += 3;
+				break;
+			case DRAW_CENTERED_TEXT:
+				_textBox.set(c[i + 2], c[i + 3], c[i + 4], c[i + 5]);
+				painter.drawCenteredText((String) _objects[c[i + 1]], _textBox);
+				i += 6;
+				break;
+			default:
+				throw new IllegalStateException("Unknown opcode " + c[i]);
+			}
+		}
+	}
+
+	/**
+	 * Records the drawRect call.
+	 */
+	public void drawRect(int x, int y, int width, int height) {
+		record(DRAW_RECT, x, y, width, height);
+	}
+
+	/**
+	 * Records the drawOval call.
+	 */
+	public void drawOval(int x, int y, int width, int height) {
+		record(DRAW_OVAL, x, y, width, height);
+	}
+
+	/**
+	 * Records the drawLine call.
+	 */
+	public void drawLine(int x1, int y1, int x2, int y2) {
+		record(DRAW_LINE, x1, y1, x2, y2);
+	}
+
+	/**
+	 * Records the fillRect call.
+	 */
+	public void fillRect(int x, int y, int width, int height) {
+		record(FILL_RECT, x, y, width, height);
+	}
+
+	/**
+	 * Records the getColor call and returns the colour the target Painter 
+	 * will have at this point of the replay, assuming it starts out with 
+	 * GraphicsPainter's default colour.
+	 */
+	public Color getColor() {
+		ensureCapacity(1);
+		_commands[_length++] = GET_COLOR;
+		count(GET_COLOR);
+		return _color;
+	}
+
+	/**
+	 * Records the setColor call.
+	 */
+	public void setColor(Color color) {
+		ensureCapacity(2);
+		_commands[_length++] = SET_COLOR;
+		_commands[_length++] = addObject(color);
+		count(SET_COLOR);
+		_color = color;
+	}
+
+	/**
+	 * Records the translate call.
+	 */
+	public void translate(int x, int y) {
+		ensureCapacity(3);
+		_commands[_length++] = TRANSLATE;
+		_commands[_length++] = x;
+		_commands[_length++] = y;
+		count(TRANSLATE);
+	}
+
+	/**
+	 * Records the drawCenteredText call together with the Shape's current
+	 * bounds, so that replay is unaffected by later movement of the Shape.
+	 */
+	public void drawCenteredText(String string, Shape shape) {
+		ensureCapacity(6);
+		_commands[_length++] = DRAW_CENTERED_TEXT;
+		_commands[_length++] = addObject(string);
+		_commands[_length++] = shape.x();
+		_commands[_length++] = shape.y();
+		_commands[_length++] = shape.width();
+		_commands[_length++] = shape.height();
+		count(DRAW_CENTERED_TEXT);
+	}
+
+	private void record(int opcode, int a, int b, int c, int d) {
+		ensureCapacity(5);
+		int[] commands = _commands;
+		int i = _length;
+		commands[i] = opcode;
+		commands[i + 1] = a;
+		commands[i + 2] = b;
+		commands[i + 3] = c;
+		commands[i + 4] = d;
+		_length = i + 5;
+		count(opcode);
+	}
+
+	private void count(int opcode) {
+		_commandCount++;
+		_opcodeCounts[opcode]++;
+	}
+
+	private int addObject(Object object) {
+		if(_objectCount == _objects.length) {
+			_objects = Arrays.copyOf(_objects, _objects.length * 2);
+		}
+		_objects[_objectCount] = object;
+		return _objectCount++;
+	}
+
+	/**
+	 * Returns the recorded command stream, valid up to length().
+	 */
+	int[] commands() {
+		return _commands;
+	}
+
+	/**
+	 * Returns the number of ints used in the command stream.
+	 */
+	int length() {
+		return _length;
+	}
+
+	/**
+	 * Returns the side table entry with the specified index.
+	 */
+	Object object(int index) {
+		return _objects[index];
+	}
+
+	private void ensureCapacity(int extra) {
+		if(_length + extra > _commands.length) {
+			_commands = Arrays.copyOf(_commands, Math.max(_length + extra, _commands.length * 2));
+		}
+	}
+
+	/**
+	 * Shape whose bounds are set from a recorded drawCenteredText command.
+	 */
+	private static class TextBox extends Shape {
+		void set(int x, int y, int width, int height) {
+			_x = x;
+			_y = y;
+			_width = width;
+			_height = height;
+		}
+
+		@Override
+		public void paintShape(Painter painter) {
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package spaceshapes;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Reads and writes scenes, the Shapes of a world and their hierarchy, in a
+ * compact versioned binary format. A scene file holds the columns of a
+ * FrameSnapshot one after another, so loading maps the file into memory and
+ * copies each column into an array in a single bulk operation rather than
+ * parsing it field by field.
+ *
+ * All values are little-endian. The file starts with a 16 byte header:
+ *
+ * 		int magic ("SHP1" read as bytes), int version, int n, int text bytes
+ *
+ * followed by these sections, each holding one value per Shape in
+ * depth-first order:
+ *
+ * 		int x[n], y[n], deltaX[n], deltaY[n], width[n], height[n]
+ * 		int parent[n]       entry of the containing CarrierShape, or -1
+ * 		int color[n]        ARGB fill colour of a DynamicShape, otherwise 0
+ * 		int textEnd[n]      text i is bytes [textEnd[i - 1], textEnd[i])
+ * 		byte kind[n]        a FrameSnapshot kind, never OTHER
+ * 		byte flags[n]       bit 0 set if a DynamicShape is filled
+ * 		byte text[text bytes]   UTF-8
+ *
+ * Only Shapes of the classes of this package can be stored.
+ *
+ * @author Henry Man
+ *
+ */
+public class SceneFile {
+	// "SHP1" as little-endian bytes.
+	static final int MAGIC = 0x31504853;
+
+	static final int VERSION = 1;
+
+	private static final int HEADER_BYTES = 16;
+
+	// Number of int columns.
+	private static final int INT_COLUMNS = 9;
+
+	// Flag set in the flags column for a filled DynamicShape.
+	private static final byte FILLED = 1;
+
+	private SceneFile() {
+	}
+
+	/**
+	 * Writes a list of top-level Shapes, with their descendants, to a file,
+	 * replacing any existing content.
+	 * @throws IllegalArgumentException if a Shape is not of a class of this
+	 * package.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public static void save(List<Shape> shapes, Path path) throws IllegalArgumentException, IOException {
+		FrameSnapshot frame = new FrameSnapshot();
+		frame.capture(shapes, 0, 0);
+		save(frame, path);
+	}
+
+	/**
+	 * Writes the Shapes of a FrameSnapshot to a file, replacing any existing
+	 * content.
+	 * @throws IllegalArgumentException if the FrameSnapshot holds Shapes not
+	 * of a class of this package.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public static void save(FrameSnapshot frame, Path path) throws IllegalArgumentException, IOException {
+		int size = size(frame);
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			write(frame, buffer);
+			buffer.force();
+		}
+	}
+
+	/**
+	 * Reads a scene file into a FrameSnapshot, whose tick and generation are
+	 * 0 and which needs no release.
+	 * @throws IOException if the file cannot be read, is not a scene file,
+	 * is of an unsupported version or is corrupt.
+	 */
+	public static FrameSnapshot load(Path path) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), path.toString());
+		}
+	}
+
+	/**
+	 * Reads a scene file and builds its top-level Shapes, with their
+	 * descendants.
+	 * @throws IOException if the file cannot be read or is not a valid scene
+	 * file.
+	 */
+	public static List<Shape> loadShapes(Path path) throws IOException {
+		return load(path).toShapes();
+	}
+
+	/**
+	 * Returns the number of bytes needed to encode a FrameSnapshot.
+	 * @throws IllegalArgumentException if the FrameSnapshot holds Shapes not
+	 * of a class of this package.
+	 */
+	static int size(FrameSnapshot frame) throws IllegalArgumentException {
+		int n = frame._size;
+		long textBytes = 0;
+		for(int i = 0; i < n; i++) {
+			if(frame._kind[i] == FrameSnapshot.OTHER) {
+				throw new IllegalArgumentException();
+			}
+			textBytes += frame._text[i].getBytes(StandardCharsets.UTF_8).length;
+		}
+		long size = HEADER_BYTES + (long) INT_COLUMNS * 4 * n + 2L * n + textBytes;
+		if(size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException();
+		}
+		return (int) size;
+	}
+
+	/**
+	 * Encodes a FrameSnapshot at the position of a buffer, which must have
+	 * size(frame) bytes remaining, and advances the position past it.
+	 * @throws IllegalArgumentException if the FrameSnapshot holds Shapes not
+	 * of a class of this package.
+	 */
+	static void write(FrameSnapshot frame, ByteBuffer buffer) throws IllegalArgumentException {
+		int n = frame._size;
+		byte[][] texts = new byte[n][];
+		int textBytes = 0;
+		for(int i = 0; i < n; i++) {
+			if(frame._kind[i] == FrameSnapshot.OTHER) {
+				throw new IllegalArgumentException();
+			}
+			texts[i] = frame._text[i].getBytes(StandardCharsets.UTF_8);
+			textBytes += texts[i].length;
+		}
+		ByteBuffer out = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+		out.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(textBytes);
+
+		IntBuffer ints = out.asIntBuffer();
+		ints.put(frame._x, 0, n);
+		ints.put(frame._y, 0, n);
+		ints.put(frame._deltaX, 0, n);
+		ints.put(frame._deltaY, 0, n);
+		ints.put(frame._width, 0, n);
+		ints.put(frame._height, 0, n);
+		ints.put(frame._parent, 0, n);
+		for(int i = 0; i < n; i++) {
+			Color color = frame._color[i];
+			ints.put(color == null ? 0 : color.getRGB());
+		}
+		int textEnd = 0;
+		for(int i = 0; i < n; i++) {
+			textEnd += texts[i].length;
+			ints.put(textEnd);
+		}
+
+		out.position(HEADER_BYTES + INT_COLUMNS * 4 * n);
+		out.put(frame._kind, 0, n);
+		for(int i = 0; i < n; i++) {
+			out.put(frame._filled[i] ? FILLED : 0);
+		}
+		for(int i = 0; i < n; i++) {
+			out.put(texts[i]);
+		}
+		buffer.position(buffer.position() + out.position());
+	}
+
+	/**
+	 * Decodes a FrameSnapshot from the remaining bytes of a buffer, which
+	 * must hold exactly one encoded scene.
+	 * @param source names where the bytes came from in error messages.
+	 * @throws IOException if the bytes are not a valid scene.
+	 */
+	static FrameSnapshot read(ByteBuffer buffer, String source) throws IOException {
+		ByteBuffer in = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+		long size = in.remaining();
+		if(size < HEADER_BYTES || in.getInt() != MAGIC) {
+			throw new IOException("Not a scene file: " + source);
+		}
+		int version = in.getInt();
+		if(version != VERSION) {
+			throw new IOException("Unsupported scene file version " + version + ": " + source);
+		}
+		int n = in.getInt();
+		int textBytes = in.getInt();
+		if(n < 0 || textBytes < 0 || size != HEADER_BYTES + (long) INT_COLUMNS * 4 * n + 2L * n + textBytes) {
+			throw new IOException("Corrupt scene file: " + source);
+		}
+
+		FrameSnapshot frame = new FrameSnapshot();
+		frame.ensureCapacity(n);
+		frame._size = n;
+		IntBuffer ints = in.asIntBuffer();
+		ints.get(frame._x, 0, n);
+		ints.get(frame._y, 0, n);
+		ints.get(frame._deltaX, 0, n);
+		ints.get(frame._deltaY, 0, n);
+		ints.get(frame._width, 0, n);
+		ints.get(frame._height, 0, n);
+		ints.get(frame._parent, 0, n);
+		int[] colors = new int[n];
+		ints.get(colors);
+		int[] textEnds = new int[n];
+		ints.get(textEnds);
+
+		in.position(HEADER_BYTES + INT_COLUMNS * 4 * n);
+		in.get(frame._kind, 0, n);
+		byte[] flags = new byte[n];
+		in.get(flags);
+		ByteBuffer text = in.slice();
+
+		Color color = null;
+		int textStart = 0;
+		for(int i = 0; i < n; i++) {
+			byte kind = frame._kind[i];
+			int parent = frame._parent[i];
+			if(kind < FrameSnapshot.RECTANGLE || kind >= FrameSnapshot.OTHER || parent < -1 || parent >= i
+					|| (parent >= 0 && frame._kind[parent] != FrameSnapshot.CARRIER)
+					|| textEnds[i] < textStart || textEnds[i] > textBytes) {
+				throw new IOException("Corrupt scene file: " + source);
+			}
+			frame._filled[i] = (flags[i] & FILLED) != 0;
+			if(kind == FrameSnapshot.DYNAMIC) {
+				// Consecutive DynamicShapes often share a colour.
+				if(color == null || color.getRGB() != colors[i]) {
+					color = new Color(colors[i], true);
+				}
+				frame._color[i] = color;
+			}
+			frame._text[i] = textEnds[i] == textStart ? "" : utf8(text, textStart, textEnds[i]);
+			textStart = textEnds[i];
+			frame._end[i] = i + 1;
+		}
+
+		// A subtree ends where its last descendant's subtree ends.
+		for(int i = n - 1; i >= 0; i--) {
+			int parent = frame._parent[i];
+			if(parent >= 0) {
+				frame._end[parent] = Math.max(frame._end[parent], frame._end[i]);
+			}
+		}
+		frame.open();
+		buffer.position(buffer.limit());
+		return frame;
+	}
+
+	private static String utf8(ByteBuffer text, int from, int to) {
+		byte[] bytes = new byte[to - from];
+		text.get(from, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,420 @@
+package spaceshapes;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hosts many independent worlds, or scenes, in one JVM without a platform
+ * thread per scene. Each scene has its own SimulationEngine, which the host
+ * steps rather than the engine's own thread, and nothing is painted unless
+ * asked for: a scene is rendered on demand with render() or snapshot().
+ *
+ * Stepping happens in turns. In a turn a scene performs the steps that have
+ * fallen due, but no more than its tick budget, so that a scene with a large
+ * backlog or expensive steps cannot hold up the others; any steps left over
+ * are taken in the next turn, after other scenes that are due have had
+ * theirs. A backlog of more than one budget is dropped.
+ *
+ * Where the JVM supports virtual threads, each scene's stepping loop runs on
+ * a virtual thread of its own, parking between turns, and the JVM's
+ * scheduler for virtual threads interleaves them over a few carrier
+ * threads. Otherwise turns are scheduled as tasks on a shared pool with a
+ * thread per processor.
+ *
+ * @author Henry Man
+ *
+ */
+public class SceneHost implements AutoCloseable {
+	// === Constants for default values. ===
+	protected static final int DEFAULT_TICK_BUDGET = 5;
+	// ===
+
+	// Creates virtual threads, or null if the JVM has none.
+	private static final ThreadFactory VIRTUAL_THREADS = virtualThreadFactory();
+
+	private final List<Scene> _scenes = new CopyOnWriteArrayList<Scene>();
+
+	// Runs turns when scenes do not have threads of their own.
+	private final ScheduledThreadPoolExecutor _pool;
+
+	private volatile boolean _closed = false;
+
+	/**
+	 * Creates a SceneHost that runs each scene on a virtual thread if the
+	 * JVM supports them, or on a shared pool with a thread per processor
+	 * otherwise.
+	 */
+	public SceneHost() {
+		this(VIRTUAL_THREADS == null ? Runtime.getRuntime().availableProcessors() : 0);
+	}
+
+	/**
+	 * Creates a SceneHost that runs the turns of all scenes on a shared pool
+	 * with the specified number of threads, or on a virtual thread per scene
+	 * if threads is 0 and the JVM supports them.
+	 * @throws IllegalArgumentException if threads is negative, or 0 when the
+	 * JVM has no virtual threads.
+	 */
+	public SceneHost(int threads) throws IllegalArgumentException {
+		if(threads < 0 || (threads == 0 && VIRTUAL_THREADS == null)) {
+			throw new IllegalArgumentException();
+		}
+		if(threads == 0) {
+			_pool = null;
+		} else {
+			AtomicInteger count = new AtomicInteger();
+			_pool = new ScheduledThreadPoolExecutor(threads, runnable -> {
+				Thread thread = new Thread(runnable, "spaceshapes-scenes-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			_pool.setRemoveOnCancelPolicy(true);
+		}
+	}
+
+	/**
+	 * Returns true if the JVM supports virtual threads.
+	 */
+	public static boolean virtualThreadsSupported() {
+		return VIRTUAL_THREADS != null;
+	}
+
+	/**
+	 * Returns true if each scene runs on a virtual thread of its own.
+	 */
+	public boolean usesVirtualThreads() {
+		return _pool == null;
+	}
+
+	/**
+	 * Adds a scene that steps every 20 milliseconds and starts stepping it.
+	 * @see #add(List, int, int, long)
+	 */
+	public Scene add(List<Shape> shapes, int width, int height) throws IllegalArgumentException, IllegalStateException {
+		return add(shapes, width, height, SimulationEngine.DEFAULT_STEP_NANOS);
+	}
+
+	/**
+	 * Adds a scene made of a list of top-level Shapes, with their
+	 * descendants, moving in a world of the specified size, and starts
+	 * stepping it.
+	 * @param stepNanos length of one step of the scene in nanoseconds.
+	 * @throws IllegalArgumentException if width, height or stepNanos is not
+	 * positive.
+	 * @throws IllegalStateException if this SceneHost has been closed.
+	 */
+	public Scene add(List<Shape> shapes, int width, int height, long stepNanos)
+			throws IllegalArgumentException, IllegalStateException {
+		if(width <= 0 || height <= 0 || stepNanos <= 0) {
+			throw new IllegalArgumentException();
+		}
+		if(_closed) {
+			throw new IllegalStateException();
+		}
+		SimulationEngine engine = new SimulationEngine();
+		engine.setWorldSize(width, height);
+		for(Shape shape : shapes) {
+			engine.add(shape);
+		}
+		Scene scene = new Scene(engine, width, height, stepNanos, System.nanoTime());
+		_scenes.add(scene);
+		scene.start();
+		return scene;
+	}
+
+	/**
+	 * Stops stepping a scene and removes it, waiting for a turn the scene
+	 * is taking to end. This method has no effect if the scene is not
+	 * hosted by this SceneHost.
+	 */
+	public void remove(Scene scene) {
+		if(_scenes.remove(scene)) {
+			scene.stop();
+		}
+	}
+
+	/**
+	 * Returns the number of scenes hosted.
+	 */
+	public int sceneCount() {
+		return _scenes.size();
+	}
+
+	/**
+	 * Stops stepping every scene and releases the threads of this SceneHost,
+	 * waiting for them to end, so that no scene advances once this method
+	 * returns. Scenes can still be rendered afterwards.
+	 */
+	@Override
+	public void close() {
+		_closed = true;
+		for(Scene scene : _scenes) {
+			remove(scene);
+		}
+		if(_pool != null) {
+			_pool.shutdownNow();
+			try {
+				_pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * A world hosted by a SceneHost.
+	 */
+	public final class Scene {
+		private final SimulationEngine _engine;
+
+		private final int _width;
+
+		private final int _height;
+
+		private final long _stepNanos;
+
+		// Time at which the next step falls due. Only used by turns.
+		private long _next;
+
+		private volatile int _tickBudget = DEFAULT_TICK_BUDGET;
+
+		private volatile long _droppedTicks = 0;
+
+		private volatile boolean _active = true;
+
+		// Virtual thread running the scene's loop, if it has one.
+		private Thread _thread = null;
+
+		// Why stepping stopped, or null.
+		private volatile RuntimeException _failure = null;
+
+		// Shapes rendered by render(), reused between renders.
+		private final FrameShapes _shapes = new FrameShapes();
+
+		Scene(SimulationEngine engine, int width, int height, long stepNanos, long start) {
+			_engine = engine;
+			_width = width;
+			_height = height;
+			_stepNanos = stepNanos;
+			_next = start + stepNanos;
+		}
+
+		/**
+		 * Returns the engine holding this scene's world, which must not be
+		 * started or stepped directly.
+		 */
+		public SimulationEngine engine() {
+			return _engine;
+		}
+
+		/**
+		 * Returns the width of this scene's world.
+		 */
+		public int width() {
+			return _width;
+		}
+
+		/**
+		 * Returns the height of this scene's world.
+		 */
+		public int height() {
+			return _height;
+		}
+
+		/**
+		 * Returns the number of steps performed so far.
+		 */
+		public long tick() {
+			return _engine.tick();
+		}
+
+		/**
+		 * Sets the largest number of steps this scene performs in one turn.
+		 * @throws IllegalArgumentException if budget is not positive.
+		 */
+		public void setTickBudget(int budget) throws IllegalArgumentException {
+			if(budget <= 0) {
+				throw new IllegalArgumentException();
+			}
+			_tickBudget = budget;
+		}
+
+		/**
+		 * Returns the largest number of steps this scene performs in one turn.
+		 */
+		public int tickBudget() {
+			return _tickBudget;
+		}
+
+		/**
+		 * Returns the number of steps dropped because this scene fell too
+		 * far behind.
+		 */
+		public long droppedTicks() {
+			return _droppedTicks;
+		}
+
+		/**
+		 * Returns the exception that stopped this scene stepping, or null if
+		 * it has not failed.
+		 */
+		public RuntimeException failure() {
+			return _failure;
+		}
+
+		/**
+		 * Returns detached Shapes matching the latest state of this scene.
+		 * @see SimulationEngine#snapshot()
+		 */
+		public List<Shape> snapshot() {
+			return _engine.snapshot();
+		}
+
+		/**
+		 * Renders the latest state of this scene with a renderer, which may
+		 * be shared by scenes rendered on the same thread. The Shapes painted
+		 * are updated in place from one render to the next rather than built
+		 * afresh.
+		 * @return the renderer's image, which is reused by its next render.
+		 */
+		public BufferedImage render(HeadlessRenderer renderer) {
+			synchronized(_shapes) {
+				FrameSnapshot frame = _engine.acquireFrame();
+				try {
+					_shapes.update(frame);
+				} finally {
+					frame.release();
+				}
+				return renderer.render(_shapes.shapes());
+			}
+		}
+
+		/**
+		 * Performs the steps due at a time, up to the tick budget, dropping
+		 * any backlog beyond the next turn's budget.
+		 * @return the time at which the next turn should be taken.
+		 */
+		long turn(long now) {
+			long due = now < _next ? 0 : (now - _next) / _stepNanos + 1;
+			int budget = _tickBudget;
+			long steps = Math.min(due, budget);
+			if(steps > 0) {
+				_engine.advance(steps);
+				_next += steps * _stepNanos;
+			}
+			long backlog = due - steps;
+			if(backlog > budget) {
+				// Too far behind to catch up in the next turn; drop the excess.
+				_next += (backlog - budget) * _stepNanos;
+				_droppedTicks += backlog - budget;
+			}
+			return _next;
+		}
+
+		/**
+		 * Takes a turn, stopping this scene if it fails. Turns hold the
+		 * scene's lock, so that stop() can wait for one to end.
+		 * @return the time of the next turn, or -1 if this scene stopped.
+		 */
+		private synchronized long safeTurn() {
+			if(!_active) {
+				return -1;
+			}
+			try {
+				return turn(System.nanoTime());
+			} catch(RuntimeException e) {
+				_failure = e;
+				_active = false;
+				return -1;
+			}
+		}
+
+		private synchronized void start() {
+			if(_pool == null) {
+				_thread = VIRTUAL_THREADS.newThread(this::loop);
+				_thread.start();
+			} else {
+				_pool.execute(this::poolTurn);
+			}
+		}
+
+		/**
+		 * Stops stepping, waiting for a turn in progress and for the
+		 * scene's virtual thread to end.
+		 */
+		private void stop() {
+			_active = false;
+			Thread thread;
+			synchronized(this) {
+				thread = _thread;
+				_thread = null;
+			}
+			if(thread == null || thread == Thread.currentThread()) {
+				return;
+			}
+			thread.interrupt();
+			try {
+				thread.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Stepping loop of a scene with a virtual thread, which parks until
+		 * each turn falls due and yields between turns taken back to back.
+		 */
+		private void loop() {
+			while(!Thread.currentThread().isInterrupted()) {
+				long next = safeTurn();
+				if(next == -1) {
+					return;
+				}
+				long wait = next - System.nanoTime();
+				if(wait > 0) {
+					LockSupport.parkNanos(wait);
+				} else {
+					Thread.yield();
+				}
+			}
+		}
+
+		/**
+		 * Takes a turn on the shared pool and schedules the next one. Turns
+		 * that fall due together run in order of their due times.
+		 */
+		private void poolTurn() {
+			long next = safeTurn();
+			if(next == -1) {
+				return;
+			}
+			try {
+				_pool.schedule(this::poolTurn, Math.max(0, next - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch(RejectedExecutionException e) {
+				// The SceneHost has been closed.
+			}
+		}
+	}
+
+	/**
+	 * Returns a factory for virtual threads, looked up reflectively so that
+	 * this class also runs on JVMs without them, or null if there are none.
+	 */
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "spaceshapes-scene-", 0L);
+			return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+		} catch(ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+}
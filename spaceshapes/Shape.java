@@ -2,7 +2,6 @@ package spaceshapes;
 
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Collections;
 /**
  * Abstract superclass to represent the general concept of a Shape. This class
  * defines state common to all special kinds of Shape instances and implements
@@ -12,7 +11,7 @@ import java.util.Collections;
  * @author Paramvir Singh (Original Author - Ian Warren)
  * 
  */
-public abstract class Shape {
+public abstract class Shape implements Cloneable {
 	// === Constants for default values. ===
 	protected static final int DEFAULT_X_POS = 0;
 	
@@ -42,7 +41,24 @@ public abstract class Shape {
 	
 	private CarrierShape _parentCarrierShape = null;
 	
+	// Cached position in the containment hierarchy, kept up to date whenever
+	// this Shape or one of its ancestors is given a new parent.
+	private int _depth = 0;
+	
+	private Shape _root = this;
+	
+	// Slot within the parent CarrierShape's children, or -1 without a parent.
+	private int _childSlot = -1;
+	
 	private String _text = "";
+	
+	// Measurements of _text from the last time it was drawn, if any.
+	private TextLayoutCache.Layout _textLayout = null;
+	
+	// ShapeWorld slot this Shape is a view over, if any.
+	private ShapeWorld _world = null;
+	
+	private int _slot = -1;
 	// ===
 
 	/**
@@ -88,6 +104,7 @@ public abstract class Shape {
 	 * @param height - height of two-dimensional world.
 	 */
 	public void move(int width, int height) {
+		pull();
 		int nextX = _x + _deltaX;
 		int nextY = _y + _deltaY;
 
@@ -109,6 +126,77 @@ public abstract class Shape {
 
 		_x = nextX;
 		_y = nextY;
+		push();
+	}
+
+	/**
+	 * Moves this Shape as n calls to move() with the same bounds would, but
+	 * in time independent of n. Along each axis a Shape travels at constant
+	 * speed between the two walls, so once it has touched a wall its motion
+	 * repeats and its position after n steps follows from n modulo the
+	 * length of a round trip.
+	 * @param n - number of steps, which may be 0.
+	 * @param width - width of two-dimensional world.
+	 * @param height - height of two-dimensional world.
+	 * @throws IllegalArgumentException if n is negative.
+	 */
+	public void advance(long n, int width, int height) throws IllegalArgumentException {
+		if(n < 0) {
+			throw new IllegalArgumentException();
+		}
+		if(n == 0) {
+			return;
+		}
+		pull();
+		Axis x = new Axis(_x, _deltaX);
+		x.advance(n, _width, width);
+		Axis y = new Axis(_y, _deltaY);
+		y.advance(n, _height, height);
+		_x = x._position;
+		_deltaX = x._delta;
+		_y = y._position;
+		_deltaY = y._delta;
+		advanced(x._lastWall, y._lastWall);
+		push();
+	}
+	
+	/**
+	 * Called by advance() once this Shape has been moved, with the last of
+	 * the n steps, counting from 1, after which this Shape touched a left or
+	 * right wall and a top or bottom wall, or 0 if it did not. Subclasses
+	 * whose move() updates other state override this to bring that state
+	 * up to date.
+	 */
+	void advanced(long lastXWall, long lastYWall) {
+	}
+	
+	/**
+	 * Makes this Shape bounce off another Shape whose bounding box overlaps
+	 * it. Both Shapes reverse direction along the axis on which they overlap
+	 * the least, provided they are moving towards each other on that axis.
+	 * @param other a Shape in the same coordinate space as this Shape.
+	 */
+	public void bounceOff(Shape other) {
+		pull();
+		other.pull();
+		int overlapX = Math.min(_x + _width, other._x + other._width) - Math.max(_x, other._x);
+		int overlapY = Math.min(_y + _height, other._y + other._height) - Math.max(_y, other._y);
+		
+		if(overlapX <= overlapY) {
+			int direction = Integer.signum((other._x + other._width / 2) - (_x + _width / 2));
+			if((other._deltaX - _deltaX) * direction < 0) {
+				_deltaX = -_deltaX;
+				other._deltaX = -other._deltaX;
+			}
+		} else {
+			int direction = Integer.signum((other._y + other._height / 2) - (_y + _height / 2));
+			if((other._deltaY - _deltaY) * direction < 0) {
+				_deltaY = -_deltaY;
+				other._deltaY = -other._deltaY;
+			}
+		}
+		push();
+		other.push();
 	}
 
 	/**
@@ -120,10 +208,39 @@ public abstract class Shape {
 	
 	/**
 	 * Method to paint shape including text if the shape
-	 * is associated with text.
+	 * is associated with text. Nothing is painted if the painter reports
+	 * that the area covered by the shape (and, for a CarrierShape, its 
+	 * descendants) is not visible, and that none of their text, which may
+	 * extend beyond that area, is visible either. If the painter reports that
+	 * the area is too small to show detail, it is filled in place of painting
+	 * the shape, its descendants and their text. The painter is told of
+	 * each shape painted through shapePainted().
 	 * @param painter the Painter object used for drawing
 	 */
 	public final void paint(Painter painter) {
+		pull();
+		int minX = subtreeMinX();
+		int minY = subtreeMinY();
+		int width = subtreeMaxX() - minX + 1;
+		int height = subtreeMaxY() - minY + 1;
+		boolean detailed = painter.isDetailed(width, height);
+		if(!painter.isVisible(minX, minY, width, height)) {
+			int length = subtreeTextLength();
+			if(!detailed || length == 0) {
+				return;
+			}
+			int textMinX = subtreeTextMinX();
+			int textMinY = subtreeTextMinY();
+			if(!painter.isTextVisible(textMinX, textMinY, subtreeTextMaxX() - textMinX + 1, 
+					subtreeTextMaxY() - textMinY + 1, length)) {
+				return;
+			}
+		}
+		painter.shapePainted(this);
+		if(!detailed) {
+			painter.fillRect(minX, minY, width, height);
+			return;
+		}
 		paintShape(painter);
 		
 		if(!_text.isBlank()) {
@@ -132,10 +249,92 @@ public abstract class Shape {
 	}
 	
 	
+	/**
+	 * Returns the left edge of the area covered by this Shape and, for a
+	 * CarrierShape, its descendants, in the coordinate space of this Shape's
+	 * position.
+	 */
+	int subtreeMinX() {
+		return _x;
+	}
+	
+	/**
+	 * Returns the top edge of the area covered by this Shape and its
+	 * descendants.
+	 */
+	int subtreeMinY() {
+		return _y;
+	}
+	
+	/**
+	 * Returns the right edge of the area covered by this Shape and its
+	 * descendants.
+	 */
+	int subtreeMaxX() {
+		return _x + _width;
+	}
+	
+	/**
+	 * Returns the bottom edge of the area covered by this Shape and its
+	 * descendants.
+	 */
+	int subtreeMaxY() {
+		return _y + _height;
+	}
+	
+	/**
+	 * Returns the left edge of the area covering the centres of this Shape
+	 * and its descendants that have text, around which their text is drawn.
+	 * Only meaningful if subtreeTextLength() is not 0.
+	 */
+	int subtreeTextMinX() {
+		return _x + _width / 2;
+	}
+	
+	/**
+	 * Returns the top edge of the area covering the centres of this Shape
+	 * and its descendants that have text.
+	 */
+	int subtreeTextMinY() {
+		return _y + _height / 2;
+	}
+	
+	/**
+	 * Returns the right edge of the area covering the centres of this Shape
+	 * and its descendants that have text.
+	 */
+	int subtreeTextMaxX() {
+		return _x + _width / 2;
+	}
+	
+	/**
+	 * Returns the bottom edge of the area covering the centres of this Shape
+	 * and its descendants that have text.
+	 */
+	int subtreeTextMaxY() {
+		return _y + _height / 2;
+	}
+	
+	/**
+	 * Returns the length of the longest text of this Shape and its
+	 * descendants, or 0 if none of them has text.
+	 */
+	int subtreeTextLength() {
+		return _text.isBlank() ? 0 : _text.length();
+	}
+	
+	/**
+	 * Returns true if this Shape or any of its descendants has text.
+	 */
+	final boolean subtreeHasText() {
+		return subtreeTextLength() != 0;
+	}
+	
 	/**
 	 * Returns this Shape object's x position.
 	 */
 	public int x() {
+		pull();
 		return _x;
 	}
 	
@@ -143,6 +342,7 @@ public abstract class Shape {
 	 * Returns this Shape object's y position.
 	 */
 	public int y() {
+		pull();
 		return _y;
 	}
 	
@@ -150,6 +350,7 @@ public abstract class Shape {
 	 * Returns this Shape object's speed and direction.
 	 */
 	public int deltaX() {
+		pull();
 		return _deltaX;
 	}
 	
@@ -157,6 +358,7 @@ public abstract class Shape {
 	 * Returns this Shape object's speed and direction.
 	 */
 	public int deltaY() {
+		pull();
 		return _deltaY;
 	}
 	
@@ -190,6 +392,44 @@ public abstract class Shape {
 	 */
 	public void setParentCarrierShape(CarrierShape parent) {
 		_parentCarrierShape = parent;
+		updateAncestry();
+	}
+	
+	/**
+	 * Returns the slot this Shape occupies in its parent CarrierShape.
+	 */
+	int childSlot() {
+		return _childSlot;
+	}
+	
+	/**
+	 * Records the slot this Shape occupies in its parent CarrierShape.
+	 */
+	void setChildSlot(int slot) {
+		_childSlot = slot;
+	}
+	
+	/**
+	 * Sets this Shape's parent without updating the cached depth and root of
+	 * its subtree. The caller must call updateAncestry() on the top of the 
+	 * subtree afterwards.
+	 */
+	void link(CarrierShape parent) {
+		_parentCarrierShape = parent;
+	}
+	
+	/**
+	 * Recomputes the cached depth and root of this Shape from its parent.
+	 * CarrierShape overrides this method to update its children as well.
+	 */
+	void updateAncestry() {
+		if(_parentCarrierShape == null) {
+			_depth = 0;
+			_root = this;
+		} else {
+			_depth = _parentCarrierShape.depth() + 1;
+			_root = _parentCarrierShape.root();
+		}
 	}
 	
 	/**
@@ -218,25 +458,266 @@ public abstract class Shape {
 	 *  a call to oval.path() yields: [root, intermediate, oval]
 	 */
 	public List<Shape> path(){
-		List<Shape> path = new ArrayList<Shape>();//List to store shapes in path
-		path.add(this); //Adds instance to list.
+		Shape[] shapes = new Shape[_depth + 1];
+		path(shapes);
 		
-		Shape shape = _parentCarrierShape;
-		while(shape != null) {//Continues to iterate while shape has a parent
-			path.add(shape);//Adds parent to list
-			shape = shape.parent();//Gets parent of shape
-		}
-		/*path list is created in reverse order, so this is used to get the correct order
-		  from root -> this shape*/
-		Collections.reverse(path);
+		List<Shape> path = new ArrayList<Shape>(shapes.length);
+		for(Shape shape : shapes) {
+			path.add(shape);
+		}
 		return path;
 	}
 	
+	/**
+	 * Fills the start of an array with the same Shapes, in the same order,
+	 * as path() returns, without allocating.
+	 * @param path array to fill; must hold at least depth() + 1 elements.
+	 * @return the number of Shapes written, which is depth() + 1.
+	 * @throws IndexOutOfBoundsException if the array is too short.
+	 */
+	public int path(Shape[] path) throws IndexOutOfBoundsException {
+		if(path.length <= _depth) {
+			throw new IndexOutOfBoundsException();
+		}
+		Shape shape = this;
+		for(int i = _depth; i >= 0; i--) {//Walks up from this shape to the root
+			path[i] = shape;
+			shape = shape._parentCarrierShape;
+		}
+		return _depth + 1;
+	}
+	
+	/**
+	 * Returns the number of CarrierShapes above this Shape in its containment
+	 * hierarchy, i.e. 0 for a Shape without a parent.
+	 */
+	public int depth() {
+		return _depth;
+	}
+	
+	/**
+	 * Returns the root of this Shape's containment hierarchy, which is this
+	 * Shape itself if it has no parent.
+	 */
+	public Shape root() {
+		return _root;
+	}
+	
+	/**
+	 * Returns a copy of this Shape holding the same position, velocity, size
+	 * and text. The copy is detached from the live object, so later calls to
+	 * move() on either one do not affect the other. Subclasses that hold
+	 * mutable references (e.g. CarrierShape's children) override this method
+	 * to copy them as well.
+	 */
+	public Shape copy() {
+		Shape copy = copyTree();
+		copy.updateAncestry();
+		return copy;
+	}
+	
+	/**
+	 * Does the work of copy(), leaving the cached depth and root of the copy
+	 * to be updated once the whole subtree has been copied.
+	 */
+	Shape copyTree() {
+		pull();
+		try {
+			Shape copy = (Shape) clone();
+			copy._parentCarrierShape = null;
+			copy._childSlot = -1;
+			copy._world = null;
+			copy._slot = -1;
+			return copy;
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+	
+	/**
+	 * Makes this Shape a view over a slot of a ShapeWorld, or detaches it
+	 * when world is null. Called by ShapeWorld only.
+	 */
+	void bind(ShapeWorld world, int slot) {
+		_world = world;
+		_slot = slot;
+	}
+	
+	/**
+	 * Returns the ShapeWorld this Shape is a view over, or null.
+	 */
+	ShapeWorld world() {
+		return _world;
+	}
+	
+	/**
+	 * Returns the ShapeWorld slot this Shape is a view over, or -1.
+	 */
+	int slot() {
+		return _slot;
+	}
+	
+	/**
+	 * Refreshes this Shape's fields from its ShapeWorld slot, if it has one.
+	 */
+	void pull() {
+		if(_world != null) {
+			_world.load(_slot, this);
+		}
+	}
+	
+	/**
+	 * Writes this Shape's fields back to its ShapeWorld slot, if it has one.
+	 */
+	void push() {
+		if(_world != null) {
+			_world.store(_slot, this);
+		}
+	}
+	
 	/**
 	 * Associates the shape with some text.
 	 * @param string A string containing text to associate
 	 */
 	public void setText(String string) {
 		_text = string;
+		_textLayout = null;
+		textChanged();
+	}
+	
+	/**
+	 * Brings the text bounds of the CarrierShapes above this Shape up to
+	 * date after its text has changed.
+	 */
+	void textChanged() {
+		if(_parentCarrierShape != null) {
+			_parentCarrierShape.childChanged(this, subtreeMinX(), subtreeMinY(), subtreeMaxX(), subtreeMaxY());
+		}
+	}
+	
+	/**
+	 * Returns the text associated with this Shape, which is empty if no
+	 * text has been set.
+	 */
+	public String text() {
+		return _text;
+	}
+	
+	/**
+	 * Returns the measurements of this Shape's text saved by a Painter, or
+	 * null if there are none or the text has changed since.
+	 */
+	TextLayoutCache.Layout textLayout() {
+		return _textLayout;
+	}
+	
+	/**
+	 * Saves the measurements of this Shape's text for later paints.
+	 */
+	void setTextLayout(TextLayoutCache.Layout layout) {
+		_textLayout = layout;
+	}
+	
+	/**
+	 * Position and speed of a Shape along one axis, moved by advance().
+	 */
+	private static final class Axis {
+		private int _position;
+		private int _delta;
+		// Last step, counting from 1, after which the Shape touched a wall,
+		// or 0.
+		private long _lastWall = 0;
+		
+		Axis(int position, int delta) {
+			_position = position;
+			_delta = delta;
+		}
+		
+		/**
+		 * Performs n steps of move() along this axis for a Shape of the
+		 * specified extent. A Shape that starts outside the walls, does not
+		 * move or does not fit between them is stepped one step at a time
+		 * until it is between the walls, or has settled into alternating
+		 * between at most two states.
+		 */
+		void advance(long n, int extent, int bound) {
+			int limit = bound - extent;
+			long step = 0;
+			while(step < n) {
+				if(limit > 0 && _delta != 0 && ((_position > 0 && _position < limit)
+						|| (_position == 0 && _delta > 0) || (_position == limit && _delta < 0))) {
+					bounce(n - step, step, limit);
+					return;
+				}
+				if(step >= 4 && n - step >= 2) {
+					// Any cycle now has a length of 1 or 2, so skip pairs of steps.
+					step = n - (n - step) % 2;
+					if(atWall(limit)) {
+						_lastWall = step;
+					}
+					continue;
+				}
+				int next = _position + _delta;
+				if(next <= 0) {
+					next = 0;
+					_delta = -_delta;
+				} else if(next + extent >= bound) {
+					next = limit;
+					_delta = -_delta;
+				}
+				_position = next;
+				step++;
+				if(atWall(limit)) {
+					_lastWall = step;
+				}
+			}
+		}
+		
+		/**
+		 * Performs the remaining m steps of a Shape moving between walls
+		 * limit apart. From one wall the Shape reaches the other after c
+		 * steps, landing on it exactly, so a round trip takes 2c steps.
+		 */
+		private void bounce(long m, long done, int limit) {
+			long speed = Math.abs((long) _delta);
+			long c = (limit + speed - 1) / speed;
+			// Steps until the first wall is reached, and the phase of the
+			// round trip there: 0 at the 0 wall, c at the other.
+			long first;
+			long phase;
+			if(_position == 0 && _delta > 0) {
+				first = 0;
+				phase = 0;
+			} else if(_position == limit && _delta < 0) {
+				first = 0;
+				phase = c;
+			} else if(_delta > 0) {
+				first = (limit - _position + speed - 1) / speed;
+				phase = c;
+			} else {
+				first = (_position + speed - 1) / speed;
+				phase = 0;
+			}
+			if(m < first) {
+				_position += (int) (m * _delta);
+				return;
+			}
+			long lastWall = first + (m - first) / c * c;
+			if(lastWall > 0) {
+				_lastWall = done + lastWall;
+			}
+			phase = (phase + (m - first) % (2 * c)) % (2 * c);
+			if(phase < c) {
+				_position = (int) (phase * speed);
+				_delta = (int) speed;
+			} else {
+				_position = (int) (limit - (phase - c) * speed);
+				_delta = (int) -speed;
+			}
+		}
+		
+		private boolean atWall(int limit) {
+			return _position == 0 || _position == limit;
+		}
 	}
 }
@@ -0,0 +1,293 @@
+package spaceshapes;
+
+import java.util.List;
+
+/**
+ * Bounding volume hierarchy over a list of sibling Shapes, used to find the
+ * Shape under a point without testing every Shape. Leaves hold a few Shapes
+ * each and every node stores the box enclosing everything beneath it; the
+ * box of a CarrierShape includes all of its descendants.
+ *
+ * The hierarchy is built once and then refitted (its boxes recomputed
+ * bottom-up without changing its structure) after the Shapes move, which is
+ * much cheaper than building it again. Call invalidate() after the Shapes
+ * move and rebuild() after Shapes are added to or removed from the list.
+ * A ShapeIndex is not safe for use by several threads at once.
+ *
+ * @author Henry Man
+ *
+ */
+public class ShapeIndex {
+	// Maximum number of Shapes held by a leaf.
+	private static final int LEAF_SIZE = 4;
+
+	// Number of refits after which the structure is rebuilt, since the
+	// quality of the hierarchy degrades as Shapes move away from each other.
+	private static final int REBUILD_INTERVAL = 32;
+
+	private final List<Shape> _shapes;
+
+	// === Per-Shape boxes, indexed by position in _shapes. ===
+	private int[] _itemMinX;
+	private int[] _itemMinY;
+	private int[] _itemMaxX;
+	private int[] _itemMaxY;
+	// ===
+
+	// Positions in _shapes, grouped so that each leaf owns a contiguous range.
+	private int[] _items;
+
+	// === Nodes, in depth-first order so a node's children follow it. ===
+	private int[] _minX;
+	private int[] _minY;
+	private int[] _maxX;
+	private int[] _maxY;
+
+	// For a leaf, the start of its range in _items; for an internal node,
+	// the index of its right child (the left child is the next node).
+	private int[] _first;
+
+	// For a leaf, the number of items it holds; 0 for an internal node.
+	private int[] _count;
+	// ===
+
+	private int _nodeCount = 0;
+
+	// Size of the list when the structure was last built.
+	private int _size = 0;
+
+	private int[] _stack;
+
+	private boolean _built = false;
+
+	private boolean _stale = true;
+
+	private int _refits = 0;
+
+	// Working box for bounds().
+	private final int[] _box = new int[4];
+
+	/**
+	 * Creates a ShapeIndex over a list of Shapes. The index keeps a reference
+	 * to the list and is built on first use.
+	 */
+	public ShapeIndex(List<Shape> shapes) {
+		_shapes = shapes;
+	}
+
+	/**
+	 * Marks the boxes as out of date, e.g. after the Shapes have moved. They
+	 * are recomputed on the next query.
+	 */
+	public void invalidate() {
+		_stale = true;
+	}
+
+	/**
+	 * Discards the structure, e.g. after Shapes have been added to or removed
+	 * from the list. It is built again on the next query.
+	 */
+	public void rebuild() {
+		_built = false;
+	}
+
+	/**
+	 * Returns the deepest Shape whose bounding box contains the specified
+	 * point, or null if there is none. The point is in the coordinate space
+	 * of the indexed Shapes. Where siblings overlap, the one painted last
+	 * (the one with the highest position in the list) is returned.
+	 */
+	public Shape hitTest(int x, int y) {
+		update();
+		if(_nodeCount == 0) {
+			return null;
+		}
+		Shape hit = null;
+		int hitIndex = -1;
+		int top = 0;
+		_stack[top++] = 0;
+		while(top > 0) {
+			int node = _stack[--top];
+			if(x < _minX[node] || x > _maxX[node] || y < _minY[node] || y > _maxY[node]) {
+				continue;
+			}
+			if(_count[node] == 0) {
+				_stack[top++] = _first[node];
+				_stack[top++] = node + 1;
+				continue;
+			}
+			for(int i = _first[node], end = i + _count[node]; i < end; i++) {
+				int item = _items[i];
+				if(item > hitIndex && x >= _itemMinX[item] && x <= _itemMaxX[item]
+						&& y >= _itemMinY[item] && y <= _itemMaxY[item]) {
+					Shape shape = hitShape(_shapes.get(item), x, y);
+					if(shape != null) {
+						hit = shape;
+						hitIndex = item;
+					}
+				}
+			}
+		}
+		return hit;
+	}
+
+	/**
+	 * Returns the deepest Shape within a Shape (possibly the Shape itself)
+	 * whose bounding box contains the point, or null if there is none. The
+	 * point is in the coordinate space of the Shape's parent.
+	 */
+	static Shape hitShape(Shape shape, int x, int y) {
+		if(shape instanceof CarrierShape) {
+			CarrierShape carrier = (CarrierShape) shape;
+			Shape child = carrier.hitTestChildren(x - carrier.x(), y - carrier.y());
+			if(child != null) {
+				return child;
+			}
+		}
+		if(x >= shape.x() && x <= shape.x() + shape.width()
+				&& y >= shape.y() && y <= shape.y() + shape.height()) {
+			return shape;
+		}
+		return null;
+	}
+
+	/**
+	 * Sets box to the bounds of a Shape and, for a CarrierShape, all of its
+	 * descendants, as minX, minY, maxX, maxY in the Shape's parent's
+	 * coordinate space.
+	 */
+	static void bounds(Shape shape, int[] box) {
+		shape.pull();
+		box[0] = shape.subtreeMinX();
+		box[1] = shape.subtreeMinY();
+		box[2] = shape.subtreeMaxX();
+		box[3] = shape.subtreeMaxY();
+	}
+
+	private void update() {
+		if(!_built || _refits >= REBUILD_INTERVAL || _size != _shapes.size()) {
+			build();
+		} else if(_stale) {
+			refit();
+		}
+	}
+
+	private void build() {
+		int n = _shapes.size();
+		if(_items == null || _items.length < n) {
+			int capacity = Math.max(n, 1);
+			_itemMinX = new int[capacity];
+			_itemMinY = new int[capacity];
+			_itemMaxX = new int[capacity];
+			_itemMaxY = new int[capacity];
+			_items = new int[capacity];
+			int nodes = 2 * capacity;
+			_minX = new int[nodes];
+			_minY = new int[nodes];
+			_maxX = new int[nodes];
+			_maxY = new int[nodes];
+			_first = new int[nodes];
+			_count = new int[nodes];
+			_stack = new int[nodes];
+		}
+		for(int i = 0; i < n; i++) {
+			_items[i] = i;
+		}
+		computeItemBounds();
+		_nodeCount = 0;
+		if(n > 0) {
+			buildNode(0, n);
+		}
+		_size = n;
+		_built = true;
+		_stale = false;
+		_refits = 0;
+	}
+
+	/**
+	 * Builds the node covering _items[from, to) and returns its index.
+	 */
+	private int buildNode(int from, int to) {
+		int node = _nodeCount++;
+		setNodeBounds(node, from, to);
+		if(to - from <= LEAF_SIZE) {
+			_first[node] = from;
+			_count[node] = to - from;
+			return node;
+		}
+
+		// Split at the middle of the longer axis of the box, by item centre.
+		boolean splitX = _maxX[node] - _minX[node] >= _maxY[node] - _minY[node];
+		long middle2 = splitX ? (long) _minX[node] + _maxX[node] : (long) _minY[node] + _maxY[node];
+		int i = from;
+		int j = to - 1;
+		while(i <= j) {
+			int item = _items[i];
+			long centre2 = splitX ? (long) _itemMinX[item] + _itemMaxX[item]
+					: (long) _itemMinY[item] + _itemMaxY[item];
+			if(centre2 < middle2) {
+				i++;
+			} else {
+				_items[i] = _items[j];
+				_items[j] = item;
+				j--;
+			}
+		}
+		int split = i;
+		if(split == from || split == to) {
+			// All centres on one side; split the range in half instead.
+			split = (from + to) >>> 1;
+		}
+
+		_count[node] = 0;
+		buildNode(from, split);
+		_first[node] = buildNode(split, to);
+		return node;
+	}
+
+	private void refit() {
+		computeItemBounds();
+		for(int node = _nodeCount - 1; node >= 0; node--) {
+			if(_count[node] > 0) {
+				setNodeBounds(node, _first[node], _first[node] + _count[node]);
+			} else {
+				int left = node + 1;
+				int right = _first[node];
+				_minX[node] = Math.min(_minX[left], _minX[right]);
+				_minY[node] = Math.min(_minY[left], _minY[right]);
+				_maxX[node] = Math.max(_maxX[left], _maxX[right]);
+				_maxY[node] = Math.max(_maxY[left], _maxY[right]);
+			}
+		}
+		_stale = false;
+		_refits++;
+	}
+
+	private void computeItemBounds() {
+		for(int i = 0, n = _shapes.size(); i < n; i++) {
+			bounds(_shapes.get(i), _box);
+			_itemMinX[i] = _box[0];
+			_itemMinY[i] = _box[1];
+			_itemMaxX[i] = _box[2];
+			_itemMaxY[i] = _box[3];
+		}
+	}
+
+	private void setNodeBounds(int node, int from, int to) {
+		int minX = Integer.MAX_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE;
+		int maxY = Integer.MIN_VALUE;
+		for(int i = from; i < to; i++) {
+			int item = _items[i];
+			minX = Math.min(minX, _itemMinX[item]);
+			minY = Math.min(minY, _itemMinY[item]);
+			maxX = Math.max(maxX, _itemMaxX[item]);
+			maxY = Math.max(maxY, _itemMaxY[item]);
+		}
+		_minX[node] = minX;
+		_minY[node] = minY;
+		_maxX[node] = maxX;
+		_maxY[node] = maxY;
+	}
+}
@@ -0,0 +1,261 @@
+package spaceshapes;
+
+import java.util.Arrays;
+
+/**
+ * Structure-of-arrays store for the movement state of many Shapes. Rather
+ * than keeping position, velocity and size in each Shape object, a
+ * ShapeWorld keeps them in parallel primitive columns indexed by slot, and
+ * moveAll() applies Shape's bounce rules to every slot in a single loop with
+ * no virtual calls and no allocation.
+ *
+ * A Shape added to a ShapeWorld becomes a view over its slot: its accessors,
+ * paint() and move() read and write the slot, so RectangleShape, OvalShape
+ * and HexagonShape objects keep working unchanged. CarrierShape and
+ * DynamicShape objects cannot be added, since their movement does more than
+ * the plain bounce that moveAll() performs.
+ *
+ * @author Henry Man
+ *
+ */
+public class ShapeWorld {
+	// === Constants for default values. ===
+	protected static final int DEFAULT_CAPACITY = 1024;
+	// ===
+
+	// === Columns, one entry per slot. ===
+	private int[] _x;
+
+	private int[] _y;
+
+	private int[] _deltaX;
+
+	private int[] _deltaY;
+
+	private int[] _width;
+
+	private int[] _height;
+
+	private Shape[] _views;
+	// ===
+
+	private int _size = 0;
+
+	/**
+	 * Creates an empty ShapeWorld with a default initial capacity.
+	 */
+	public ShapeWorld() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty ShapeWorld able to hold capacity slots before growing.
+	 * @throws IllegalArgumentException if capacity is negative.
+	 */
+	public ShapeWorld(int capacity) throws IllegalArgumentException {
+		if(capacity < 0) {
+			throw new IllegalArgumentException();
+		}
+		_x = new int[capacity];
+		_y = new int[capacity];
+		_deltaX = new int[capacity];
+		_deltaY = new int[capacity];
+		_width = new int[capacity];
+		_height = new int[capacity];
+		_views = new Shape[capacity];
+	}
+
+	/**
+	 * Adds a slot with the specified state that has no Shape viewing it.
+	 * @return the slot index of the new entry.
+	 */
+	public int add(int x, int y, int deltaX, int deltaY, int width, int height) {
+		ensureCapacity(_size + 1);
+		int slot = _size++;
+		_x[slot] = x;
+		_y[slot] = y;
+		_deltaX[slot] = deltaX;
+		_deltaY[slot] = deltaY;
+		_width[slot] = width;
+		_height[slot] = height;
+		return slot;
+	}
+
+	/**
+	 * Copies a Shape's state into a new slot and makes the Shape a view over
+	 * that slot.
+	 * @return the slot index of the new entry.
+	 * @throws IllegalArgumentException if the Shape is already part of a
+	 * ShapeWorld, is a child of a CarrierShape, or is a CarrierShape or
+	 * DynamicShape.
+	 */
+	public int add(Shape shape) throws IllegalArgumentException {
+		if(shape.world() != null || shape.parent() != null
+				|| shape instanceof CarrierShape || shape instanceof DynamicShape) {
+			throw new IllegalArgumentException();
+		}
+		int slot = add(shape._x, shape._y, shape._deltaX, shape._deltaY, shape._width, shape._height);
+		_views[slot] = shape;
+		shape.bind(this, slot);
+		return slot;
+	}
+
+	/**
+	 * Removes a Shape from this ShapeWorld. The Shape keeps its latest state
+	 * and stops being a view. The last slot is moved into the freed slot, so
+	 * slot indices of other entries may change. This method has no effect if
+	 * the Shape is not part of this ShapeWorld.
+	 */
+	public void remove(Shape shape) {
+		if(shape.world() != this) {
+			return;
+		}
+		shape.pull();
+		int slot = shape.slot();
+		shape.bind(null, -1);
+
+		int last = --_size;
+		if(slot != last) {
+			_x[slot] = _x[last];
+			_y[slot] = _y[last];
+			_deltaX[slot] = _deltaX[last];
+			_deltaY[slot] = _deltaY[last];
+			_width[slot] = _width[last];
+			_height[slot] = _height[last];
+			_views[slot] = _views[last];
+			if(_views[slot] != null) {
+				_views[slot].bind(this, slot);
+			}
+		}
+		_views[last] = null;
+	}
+
+	/**
+	 * Moves every slot within the specified bounds, bouncing off the edges of
+	 * the world exactly as Shape.move does.
+	 * @param width - width of two-dimensional world.
+	 * @param height - height of two-dimensional world.
+	 */
+	public void moveAll(int width, int height) {
+		bounce(_x, _deltaX, _width, width, _size);
+		bounce(_y, _deltaY, _height, height, _size);
+	}
+
+	/**
+	 * Applies the bounce rule along one axis. Written without branches in the
+	 * loop body so the JIT can turn it into conditional moves.
+	 */
+	private static void bounce(int[] pos, int[] delta, int[] extent, int bound, int size) {
+		for(int i = 0; i < size; i++) {
+			int next = pos[i] + delta[i];
+			int max = bound - extent[i];
+			boolean low = next <= 0;
+			boolean high = next >= max;
+			pos[i] = low ? 0 : (high ? max : next);
+			delta[i] = (low | high) ? -delta[i] : delta[i];
+		}
+	}
+
+	/**
+	 * Returns the number of occupied slots.
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * Returns the x position held in a slot.
+	 */
+	public int x(int slot) {
+		checkSlot(slot);
+		return _x[slot];
+	}
+
+	/**
+	 * Returns the y position held in a slot.
+	 */
+	public int y(int slot) {
+		checkSlot(slot);
+		return _y[slot];
+	}
+
+	/**
+	 * Returns the horizontal speed and direction held in a slot.
+	 */
+	public int deltaX(int slot) {
+		checkSlot(slot);
+		return _deltaX[slot];
+	}
+
+	/**
+	 * Returns the vertical speed and direction held in a slot.
+	 */
+	public int deltaY(int slot) {
+		checkSlot(slot);
+		return _deltaY[slot];
+	}
+
+	/**
+	 * Returns the width held in a slot.
+	 */
+	public int width(int slot) {
+		checkSlot(slot);
+		return _width[slot];
+	}
+
+	/**
+	 * Returns the height held in a slot.
+	 */
+	public int height(int slot) {
+		checkSlot(slot);
+		return _height[slot];
+	}
+
+	/**
+	 * Returns the Shape viewing a slot, or null if the slot has no view.
+	 */
+	public Shape shapeAt(int slot) {
+		checkSlot(slot);
+		return _views[slot];
+	}
+
+	/**
+	 * Copies a slot's state into a Shape's fields.
+	 */
+	void load(int slot, Shape shape) {
+		shape._x = _x[slot];
+		shape._y = _y[slot];
+		shape._deltaX = _deltaX[slot];
+		shape._deltaY = _deltaY[slot];
+	}
+
+	/**
+	 * Copies a Shape's fields into a slot.
+	 */
+	void store(int slot, Shape shape) {
+		_x[slot] = shape._x;
+		_y[slot] = shape._y;
+		_deltaX[slot] = shape._deltaX;
+		_deltaY[slot] = shape._deltaY;
+	}
+
+	private void checkSlot(int slot) throws IndexOutOfBoundsException {
+		if(slot < 0 || slot >= _size) {
+			throw new IndexOutOfBoundsException();
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if(capacity <= _x.length) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, _x.length * 2);
+		_x = Arrays.copyOf(_x, newCapacity);
+		_y = Arrays.copyOf(_y, newCapacity);
+		_deltaX = Arrays.copyOf(_deltaX, newCapacity);
+		_deltaY = Arrays.copyOf(_deltaY, newCapacity);
+		_width = Arrays.copyOf(_width, newCapacity);
+		_height = Arrays.copyOf(_height, newCapacity);
+		_views = Arrays.copyOf(_views, newCapacity);
+	}
+}
@@ -0,0 +1,416 @@
+package spaceshapes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Steps a world of Shapes at a fixed rate, independently of how often the
+ * world is painted. A SimulationEngine runs its own thread that accumulates
+ * elapsed time and calls move() on every Shape once per fixed timestep. If the
+ * thread falls behind it performs at most a bounded number of catch-up steps,
+ * so a stall never turns into a burst of unbounded work. The remaining
+ * backlog is then skipped in a single jump with Shape.advance(), or dropped
+ * if a CollisionListener is set, since collisions can only be found one
+ * step at a time.
+ *
+ * After each batch of steps the engine publishes a FrameSnapshot: the state
+ * of every Shape in primitive arrays, filled on the stepping thread and then
+ * published atomically. Readers on other threads use the FrameSnapshot
+ * rather than the live Shapes, so they always see a consistent world and
+ * never hold up the stepping thread. FrameSnapshots are reused once no
+ * reader holds them, so publishing does not allocate once the world has
+ * stopped growing. Renderers that paint every frame keep a FrameShapes,
+ * which updates the same detached Shapes from each FrameSnapshot in turn;
+ * snapshot() builds new Shapes for every FrameSnapshot and suits occasional
+ * readers.
+ *
+ * @author Henry Man
+ *
+ */
+public class SimulationEngine {
+	// === Constants for default values. ===
+	protected static final long DEFAULT_STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+	protected static final int DEFAULT_MAX_CATCH_UP_STEPS = 5;
+	// ===
+
+	// Shapes being simulated. Written rarely, iterated every step.
+	private final List<Shape> _shapes = new CopyOnWriteArrayList<Shape>();
+
+	private final long _stepNanos;
+
+	private final int _maxCatchUpSteps;
+
+	// World bounds, set by whoever owns the view.
+	private volatile int _width;
+
+	private volatile int _height;
+
+	// Latest published state of the world.
+	private final AtomicReference<FrameSnapshot> _frame;
+
+	// FrameSnapshots filled by this engine. Only used by the stepping thread.
+	private final List<FrameSnapshot> _frames = new ArrayList<FrameSnapshot>();
+
+	private long _generation = 0;
+
+	// Shapes built from the latest FrameSnapshot by snapshot().
+	private volatile ShapeList _shapeList = null;
+
+	private volatile long _tick = 0;
+
+	private volatile Thread _thread;
+
+	// Moves the Shapes in parallel when set; otherwise they move one by one.
+	private volatile ParallelStepper _stepper = null;
+
+	// Notified of overlapping Shapes after each step when set.
+	private volatile CollisionListener _collisionListener = null;
+
+	private final SpatialHashGrid _grid = new SpatialHashGrid();
+
+	// Records step durations when set.
+	private volatile Metrics _metrics = null;
+
+	// Records every step when set.
+	private volatile Journal _journal = null;
+
+	/**
+	 * Creates a SimulationEngine that steps every 20 milliseconds and performs
+	 * at most 5 catch-up steps in a row.
+	 */
+	public SimulationEngine() {
+		this(DEFAULT_STEP_NANOS, DEFAULT_MAX_CATCH_UP_STEPS);
+	}
+
+	/**
+	 * Creates a SimulationEngine with a specified timestep and catch-up cap.
+	 * @param stepNanos length of one simulation step in nanoseconds.
+	 * @param maxCatchUpSteps maximum number of steps performed back to back
+	 * when the engine has fallen behind.
+	 * @throws IllegalArgumentException if either argument is not positive.
+	 */
+	public SimulationEngine(long stepNanos, int maxCatchUpSteps) throws IllegalArgumentException {
+		if(stepNanos <= 0 || maxCatchUpSteps <= 0) {
+			throw new IllegalArgumentException();
+		}
+		_stepNanos = stepNanos;
+		_maxCatchUpSteps = maxCatchUpSteps;
+		FrameSnapshot empty = new FrameSnapshot();
+		empty.open();
+		_frame = new AtomicReference<FrameSnapshot>(empty);
+	}
+
+	/**
+	 * Adds a top-level Shape to the world. It is included from the next step
+	 * onwards.
+	 */
+	public void add(Shape shape) {
+		_shapes.add(shape);
+	}
+
+	/**
+	 * Removes a top-level Shape from the world. This method has no effect if
+	 * the Shape is not part of the world.
+	 */
+	public void remove(Shape shape) {
+		_shapes.remove(shape);
+	}
+
+	/**
+	 * Sets the bounds of the two-dimensional world. Until both values are
+	 * positive the engine does not step.
+	 * @param width - width of two-dimensional world.
+	 * @param height - height of two-dimensional world.
+	 */
+	public void setWorldSize(int width, int height) {
+		_width = width;
+		_height = height;
+	}
+
+	/**
+	 * Sets the ParallelStepper used to move the Shapes, or switches back to
+	 * sequential stepping when stepper is null.
+	 */
+	public void setParallelStepper(ParallelStepper stepper) {
+		_stepper = stepper;
+	}
+
+	/**
+	 * Enables a collision phase after each step that reports overlapping
+	 * Shapes to the specified listener, or disables it when listener is null.
+	 * Use CollisionListener.BOUNCE to make colliding Shapes bounce.
+	 */
+	public void setCollisionListener(CollisionListener listener) {
+		_collisionListener = listener;
+	}
+
+	/**
+	 * Records the duration of every step in the specified Metrics, or stops
+	 * recording when metrics is null.
+	 */
+	public void setMetrics(Metrics metrics) {
+		_metrics = metrics;
+	}
+
+	/**
+	 * Records every step in the specified Journal, or stops recording when
+	 * journal is null. If the Journal fails, stepping carries on and the
+	 * failure is reported by Journal.failure().
+	 */
+	public void setJournal(Journal journal) {
+		_journal = journal;
+	}
+
+	/**
+	 * Replaces the Shapes of the world and the tick count, e.g. with a world
+	 * rebuilt by a Journal, and publishes a snapshot of the new world.
+	 * @throws IllegalStateException if the engine is running.
+	 */
+	public synchronized void restore(List<Shape> shapes, long tick) throws IllegalStateException {
+		if(_thread != null) {
+			throw new IllegalStateException();
+		}
+		_shapes.clear();
+		_shapes.addAll(shapes);
+		_tick = tick;
+		publish();
+	}
+
+	/**
+	 * Moves every Shape in the world once and publishes a new snapshot.
+	 * Normally called by the engine's own thread, but may be called directly
+	 * when the engine has not been started (e.g. for tests or headless use).
+	 */
+	public void step() {
+		stepShapes();
+		publish();
+	}
+
+	/**
+	 * Moves every Shape in the world n times and publishes a new snapshot,
+	 * with the same result as n calls to step(). Unless a CollisionListener
+	 * is set, this takes time independent of n. May be called directly when
+	 * the engine has not been started, e.g. to fast-forward.
+	 * @throws IllegalArgumentException if n is negative.
+	 */
+	public void advance(long n) throws IllegalArgumentException {
+		if(n < 0) {
+			throw new IllegalArgumentException();
+		}
+		advanceShapes(n);
+		publish();
+	}
+
+	/**
+	 * Returns detached Shapes matching the most recently published
+	 * FrameSnapshot. The Shapes are built on the calling thread the first
+	 * time the FrameSnapshot is asked for, and the same list is returned
+	 * until the next one is published. The returned list and its Shapes are
+	 * never modified by the engine. Since the Shapes are built afresh for
+	 * every FrameSnapshot, readers that take every frame should use a
+	 * FrameShapes instead.
+	 */
+	public List<Shape> snapshot() {
+		FrameSnapshot frame = acquireFrame();
+		try {
+			ShapeList cached = _shapeList;
+			if(cached != null && cached._generation == frame.generation()) {
+				return cached._shapes;
+			}
+			List<Shape> shapes = Collections.unmodifiableList(frame.toShapes());
+			_shapeList = new ShapeList(frame.generation(), shapes);
+			return shapes;
+		} finally {
+			frame.release();
+		}
+	}
+
+	/**
+	 * Returns the most recently published FrameSnapshot, which is not
+	 * modified until the caller releases it with FrameSnapshot.release().
+	 * Never blocks. Before the first step an empty FrameSnapshot is returned.
+	 */
+	public FrameSnapshot acquireFrame() {
+		while(true) {
+			FrameSnapshot frame = _frame.get();
+			if(frame.retain()) {
+				return frame;
+			}
+			// The engine reclaimed it since it was read; read the latest.
+		}
+	}
+
+	/**
+	 * Returns the number of steps performed so far.
+	 */
+	public long tick() {
+		return _tick;
+	}
+
+	/**
+	 * Starts the stepping thread. This method has no effect if the engine is
+	 * already running.
+	 */
+	public synchronized void start() {
+		if(_thread != null) {
+			return;
+		}
+		_thread = new Thread(this::run, "spaceshapes-simulation");
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	/**
+	 * Stops the stepping thread and waits for it to finish.
+	 */
+	public void stop() {
+		Thread thread;
+		synchronized(this) {
+			thread = _thread;
+			_thread = null;
+		}
+		if(thread == null) {
+			return;
+		}
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Fixed timestep loop: elapsed time is added to an accumulator which is
+	 * drained one step at a time, up to the catch-up cap, and then in one
+	 * jump where possible.
+	 */
+	private void run() {
+		long previous = System.nanoTime();
+		long accumulator = 0;
+
+		while(!Thread.currentThread().isInterrupted()) {
+			long now = System.nanoTime();
+			accumulator += now - previous;
+			previous = now;
+
+			int steps = 0;
+			while(accumulator >= _stepNanos && steps < _maxCatchUpSteps) {
+				stepShapes();
+				accumulator -= _stepNanos;
+				steps++;
+			}
+			if(accumulator >= _stepNanos) {
+				if(_collisionListener == null) {
+					// Too far behind to step; jump ahead instead.
+					advanceShapes(accumulator / _stepNanos);
+					accumulator %= _stepNanos;
+				} else {
+					// Too far behind to catch up; drop the backlog.
+					accumulator = 0;
+				}
+			}
+			if(steps > 0) {
+				publish();
+			}
+			LockSupport.parkNanos(_stepNanos - accumulator);
+		}
+	}
+
+	private void stepShapes() {
+		int width = _width;
+		int height = _height;
+		if(width <= 0 || height <= 0) {
+			return;
+		}
+		Metrics metrics = _metrics;
+		long start = metrics == null ? 0 : System.nanoTime();
+		ParallelStepper stepper = _stepper;
+		if(stepper != null) {
+			stepper.moveAll(_shapes, width, height);
+		} else {
+			for(Shape s : _shapes) {
+				s.move(width, height);
+			}
+		}
+		CollisionListener listener = _collisionListener;
+		if(listener != null) {
+			_grid.detect(_shapes, listener);
+		}
+		_tick++;
+		Journal journal = _journal;
+		if(journal != null) {
+			journal.append(_shapes, _tick, width, height);
+		}
+		if(metrics != null) {
+			metrics.recordStep(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Moves every Shape n times, in a single jump if there are no collisions
+	 * to look for.
+	 */
+	private void advanceShapes(long n) {
+		int width = _width;
+		int height = _height;
+		if(width <= 0 || height <= 0 || n == 0) {
+			return;
+		}
+		if(_collisionListener != null) {
+			for(long i = 0; i < n; i++) {
+				stepShapes();
+			}
+			return;
+		}
+		for(Shape s : _shapes) {
+			s.advance(n, width, height);
+		}
+		_tick += n;
+		Journal journal = _journal;
+		if(journal != null) {
+			journal.append(_shapes, _tick, width, height);
+		}
+	}
+
+	/**
+	 * Fills a FrameSnapshot that no reader holds, allocating one only if
+	 * every existing one is held, and publishes it.
+	 */
+	private void publish() {
+		FrameSnapshot current = _frame.get();
+		FrameSnapshot frame = null;
+		for(FrameSnapshot candidate : _frames) {
+			if(candidate != current && candidate.claim()) {
+				frame = candidate;
+				break;
+			}
+		}
+		if(frame == null) {
+			frame = new FrameSnapshot();
+			_frames.add(frame);
+		}
+		frame.capture(_shapes, ++_generation, _tick);
+		frame.open();
+		_frame.set(frame);
+	}
+
+	/**
+	 * Shapes built from the FrameSnapshot of a generation.
+	 */
+	private static class ShapeList {
+		private final long _generation;
+		private final List<Shape> _shapes;
+
+		ShapeList(long generation, List<Shape> shapes) {
+			_generation = generation;
+			_shapes = shapes;
+		}
+	}
+}
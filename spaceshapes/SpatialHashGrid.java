@@ -0,0 +1,204 @@
+package spaceshapes;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Broad-phase collision detection over a uniform spatial hash. Each Shape is
+ * entered into every grid cell its bounding box covers, cells are hashed into
+ * buckets, and only Shapes sharing a cell are tested against each other, so
+ * the cost grows roughly linearly with the number of Shapes rather than with
+ * its square.
+ * 
+ * Shapes are only tested against their siblings: top-level Shapes against
+ * each other, and the children of a CarrierShape against each other in the
+ * CarrierShape's coordinate space. A SpatialHashGrid reuses its internal
+ * arrays between calls and is not safe for use by several threads at once.
+ * 
+ * @author Henry Man
+ *
+ */
+public class SpatialHashGrid {
+	// Fixed cell size, or 0 when derived from the Shapes being tested.
+	private final int _cellSize;
+
+	// === Working arrays, reused between calls. ===
+	// Per-shape bounds in cells.
+	private int[] _minCellX = new int[0];
+	private int[] _minCellY = new int[0];
+	private int[] _maxCellX = new int[0];
+	private int[] _maxCellY = new int[0];
+
+	// Start of each bucket's entries; bucket b spans [_bucketStart[b], _bucketStart[b + 1]).
+	private int[] _bucketStart = new int[1];
+
+	// One entry per (shape, cell) pair, grouped by bucket.
+	private int[] _entryShape = new int[0];
+	private int[] _entryCellX = new int[0];
+	private int[] _entryCellY = new int[0];
+	// ===
+
+	/**
+	 * Creates a SpatialHashGrid whose cell size is derived from the typical
+	 * size of the Shapes being tested.
+	 */
+	public SpatialHashGrid() {
+		_cellSize = 0;
+	}
+
+	/**
+	 * Creates a SpatialHashGrid with a fixed cell size.
+	 * @param cellSize width and height of a cell in pixels.
+	 * @throws IllegalArgumentException if cellSize is not positive.
+	 */
+	public SpatialHashGrid(int cellSize) throws IllegalArgumentException {
+		if(cellSize <= 0) {
+			throw new IllegalArgumentException();
+		}
+		_cellSize = cellSize;
+	}
+
+	/**
+	 * Reports every pair of sibling Shapes with overlapping bounding boxes,
+	 * descending into CarrierShapes. Each pair is reported exactly once.
+	 * @param shapes the top-level Shapes to test.
+	 * @param listener notified of each overlapping pair.
+	 */
+	public void detect(List<Shape> shapes, CollisionListener listener) {
+		detectSiblings(shapes, listener);
+		for(int i = 0, n = shapes.size(); i < n; i++) {
+			Shape shape = shapes.get(i);
+			if(shape instanceof CarrierShape) {
+				detect(((CarrierShape) shape).children(), listener);
+			}
+		}
+	}
+
+	private void detectSiblings(List<Shape> shapes, CollisionListener listener) {
+		int n = shapes.size();
+		if(n < 2) {
+			return;
+		}
+		int cellSize = _cellSize > 0 ? _cellSize : typicalSize(shapes);
+		ensureShapeCapacity(n);
+
+		// Find the cells covered by each shape and count the entries.
+		int entries = 0;
+		for(int i = 0; i < n; i++) {
+			Shape s = shapes.get(i);
+			_minCellX[i] = Math.floorDiv(s.x(), cellSize);
+			_minCellY[i] = Math.floorDiv(s.y(), cellSize);
+			_maxCellX[i] = Math.floorDiv(s.x() + Math.max(s.width(), 1) - 1, cellSize);
+			_maxCellY[i] = Math.floorDiv(s.y() + Math.max(s.height(), 1) - 1, cellSize);
+			entries += (_maxCellX[i] - _minCellX[i] + 1) * (_maxCellY[i] - _minCellY[i] + 1);
+		}
+
+		int buckets = Integer.highestOneBit(Math.max(entries, 1) * 2 - 1) << 1;
+		int mask = buckets - 1;
+		ensureEntryCapacity(entries, buckets);
+
+		// Counting sort of entries by bucket.
+		Arrays.fill(_bucketStart, 0, buckets + 1, 0);
+		for(int i = 0; i < n; i++) {
+			for(int cy = _minCellY[i]; cy <= _maxCellY[i]; cy++) {
+				for(int cx = _minCellX[i]; cx <= _maxCellX[i]; cx++) {
+					_bucketStart[(hash(cx, cy) & mask) + 1]++;
+				}
+			}
+		}
+		for(int b = 0; b < buckets; b++) {
+			_bucketStart[b + 1] += _bucketStart[b];
+		}
+		for(int i = 0; i < n; i++) {
+			for(int cy = _minCellY[i]; cy <= _maxCellY[i]; cy++) {
+				for(int cx = _minCellX[i]; cx <= _maxCellX[i]; cx++) {
+					int slot = _bucketStart[hash(cx, cy) & mask]++;
+					_entryShape[slot] = i;
+					_entryCellX[slot] = cx;
+					_entryCellY[slot] = cy;
+				}
+			}
+		}
+		// Filling advanced each start to the next bucket's start; shift back.
+		System.arraycopy(_bucketStart, 0, _bucketStart, 1, buckets);
+		_bucketStart[0] = 0;
+
+		// Narrow phase within each bucket.
+		for(int b = 0; b < buckets; b++) {
+			int end = _bucketStart[b + 1];
+			for(int e = _bucketStart[b]; e < end; e++) {
+				for(int f = e + 1; f < end; f++) {
+					testPair(shapes, e, f, cellSize, listener);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests the Shapes of two entries that share a bucket. A pair overlapping
+	 * in several cells is reported only from the cell holding the top left
+	 * corner of the overlap.
+	 */
+	private void testPair(List<Shape> shapes, int e, int f, int cellSize, CollisionListener listener) {
+		int cx = _entryCellX[e];
+		int cy = _entryCellY[e];
+		if(cx != _entryCellX[f] || cy != _entryCellY[f]) {
+			return;
+		}
+		Shape a = shapes.get(_entryShape[e]);
+		Shape b = shapes.get(_entryShape[f]);
+		if(!overlaps(a, b)) {
+			return;
+		}
+		int left = Math.max(a.x(), b.x());
+		int top = Math.max(a.y(), b.y());
+		if(Math.floorDiv(left, cellSize) == cx && Math.floorDiv(top, cellSize) == cy) {
+			listener.collided(a, b);
+		}
+	}
+
+	/**
+	 * Returns true if the bounding boxes of two Shapes overlap.
+	 */
+	static boolean overlaps(Shape a, Shape b) {
+		return a.x() < b.x() + b.width() && b.x() < a.x() + a.width()
+				&& a.y() < b.y() + b.height() && b.y() < a.y() + a.height();
+	}
+
+	/**
+	 * Returns a cell size based on the mean width and height of the Shapes.
+	 */
+	private static int typicalSize(List<Shape> shapes) {
+		long total = 0;
+		int n = shapes.size();
+		for(int i = 0; i < n; i++) {
+			Shape s = shapes.get(i);
+			total += Math.max(s.width(), s.height());
+		}
+		return (int) Math.max(1, total / n);
+	}
+
+	private static int hash(int cx, int cy) {
+		return (cx * 73856093) ^ (cy * 19349663);
+	}
+
+	private void ensureShapeCapacity(int n) {
+		if(_minCellX.length < n) {
+			_minCellX = new int[n];
+			_minCellY = new int[n];
+			_maxCellX = new int[n];
+			_maxCellY = new int[n];
+		}
+	}
+
+	private void ensureEntryCapacity(int entries, int buckets) {
+		if(_entryShape.length < entries) {
+			_entryShape = new int[entries];
+			_entryCellX = new int[entries];
+			_entryCellY = new int[entries];
+		}
+		if(_bucketStart.length < buckets + 1) {
+			_bucketStart = new int[buckets + 1];
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the
+ * implementation of the Camera class and in the reduced level of detail
+ * used when painting zoomed out.
+ *
+ * @author Henry Man
+ */
+public class TestCamera {
+
+	private Camera _camera;
+
+	@Before
+	public void setUp() {
+		_camera = new Camera();
+	}
+
+	/**
+	 * Checks conversion between screen and world coordinates after panning
+	 * and zooming.
+	 */
+	@Test
+	public void testPanAndZoom() {
+		_camera.setZoom(2);
+		_camera.pan(-20, -40);
+		assertEquals(10.0, _camera.x(), 0);
+		assertEquals(20.0, _camera.y(), 0);
+		assertEquals(15.0, _camera.toWorldX(10), 0);
+		assertEquals(new Rectangle(0, 0, 20, 10), _camera.toScreen(new Rectangle(10, 20, 10, 5)));
+	}
+
+	/**
+	 * Checks that zooming at a point keeps the world point under it in place.
+	 */
+	@Test
+	public void testZoomAt() {
+		_camera.setPosition(100, 100);
+		double x = _camera.toWorldX(50);
+		double y = _camera.toWorldY(30);
+		_camera.zoomAt(4, 50, 30);
+		assertEquals(4.0, _camera.zoom(), 0);
+		assertEquals(x, _camera.toWorldX(50), 1e-9);
+		assertEquals(y, _camera.toWorldY(30), 1e-9);
+	}
+
+	/**
+	 * Checks that fitting centres the whole world within the view.
+	 */
+	@Test
+	public void testFit() {
+		_camera.fit(1000, 500, 100, 100);
+		assertEquals(0.1, _camera.zoom(), 1e-9);
+		assertEquals(0.0, _camera.x(), 1e-9);
+		assertEquals(-250.0, _camera.y(), 1e-9);
+	}
+
+	/**
+	 * Checks that a zoom factor that is not positive is rejected.
+	 */
+	@Test
+	public void testInvalidZoom() {
+		try {
+			_camera.setZoom(0);
+			fail();
+		} catch(IllegalArgumentException e) {
+			// Expected action.
+		}
+	}
+
+	/**
+	 * Checks that a Shape outside the view is culled and one that is too
+	 * small on screen is filled rather than painted in full, without text or
+	 * children.
+	 */
+	@Test
+	public void testLevelOfDetail() {
+		BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		_camera.setPosition(0, 0);
+		_camera.setZoom(0.1);
+		_camera.apply(g);
+		GraphicsPainter painter = new GraphicsPainter(g);
+		painter.setDetailThreshold(3);
+
+		CarrierShape carrier = new CarrierShape(500, 500, 1, 1, 20, 20);
+		carrier.add(new RectangleShape(1, 1, 1, 1, 5, 5));
+		carrier.shapeAt(0).setText("hidden");
+		RecordingPainter recorder = new RecordingPainter() {
+			@Override
+			public boolean isVisible(int x, int y, int width, int height) {
+				return painter.isVisible(x, y, width, height);
+			}
+
+			@Override
+			public boolean isDetailed(int width, int height) {
+				return painter.isDetailed(width, height);
+			}
+		};
+		carrier.paint(recorder);
+		assertEquals(1, recorder.commandCount());
+		assertEquals(1, recorder.commandCount(RecordingPainter.FILL_RECT));
+
+		recorder.clear();
+		new RectangleShape(5000, 5000, 1, 1, 100, 100).paint(recorder);
+		assertEquals(0, recorder.commandCount());
+
+		// The filled area covers at least one pixel.
+		carrier.paint(painter);
+		assertEquals(GraphicsPainter.DEFAULT_COLOR.getRGB(), image.getRGB(50, 50));
+		assertEquals(Color.BLACK.getRGB(), image.getRGB(52, 52));
+		g.dispose();
+	}
+
+	/**
+	 * Checks that every area is detailed when level of detail is off.
+	 */
+	@Test
+	public void testDetailOff() {
+		BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.scale(0.01, 0.01);
+		GraphicsPainter painter = new GraphicsPainter(g);
+		assertEquals(true, painter.isDetailed(1, 1));
+		painter.setDetailThreshold(2);
+		assertEquals(false, painter.isDetailed(1, 1));
+		assertEquals(true, painter.isDetailed(200, 1));
+		g.dispose();
+	}
+}
@@ -7,7 +7,9 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -208,4 +210,146 @@ public class TestCarrierShape {
 		assertEquals(1, path.size());
 		assertSame(_topLevelNest, path.get(0));
 	}
+	
+	/**
+	 * Check that depth and root reflect the containment hierarchy, including
+	 * for Shapes added before their carrier was itself added to a parent.
+	 */
+	@Test
+	public void testDepthAndRoot() {
+		assertEquals(0, _topLevelNest.depth());
+		assertEquals(2, _simpleShape.depth());
+		assertEquals(2, _bottomLevelNest.depth());
+		assertSame(_topLevelNest, _simpleShape.root());
+		assertSame(_topLevelNest, _topLevelNest.root());
+	}
+	
+	/**
+	 * Check that removing a subtree from its parent updates the depth and 
+	 * root of every Shape within it.
+	 */
+	@Test
+	public void testDepthAndRootAfterRemove() {
+		_topLevelNest.remove(_midLevelNest);
+		
+		assertEquals(0, _midLevelNest.depth());
+		assertEquals(1, _simpleShape.depth());
+		assertSame(_midLevelNest, _simpleShape.root());
+		assertEquals(2, _simpleShape.path().size());
+	}
+	
+	/**
+	 * Check that path can fill a caller-provided array, and rejects an array
+	 * that is too short.
+	 */
+	@Test
+	public void testPathIntoArray() {
+		Shape[] path = new Shape[4];
+		
+		assertEquals(3, _simpleShape.path(path));
+		assertSame(_topLevelNest, path[0]);
+		assertSame(_midLevelNest, path[1]);
+		assertSame(_simpleShape, path[2]);
+		try {
+			_simpleShape.path(new Shape[2]);
+			fail();
+		} catch(IndexOutOfBoundsException e) {
+			// Expected action.
+		}
+	}
+	
+	/**
+	 * Check that removing children keeps the remaining children in insertion
+	 * order, with consistent results from shapeAt, indexOf and shapeCount.
+	 */
+	@Test
+	public void testRemoveKeepsOrder() {
+		CarrierShape carrier = new CarrierShape(0, 0, 0, 0, 100, 100);
+		Shape[] shapes = new Shape[10];
+		for(int i = 0; i < shapes.length; i++) {
+			shapes[i] = new RectangleShape(i, i, 0, 0, 5, 5);
+			carrier.add(shapes[i]);
+		}
+		carrier.remove(shapes[2]);
+		carrier.remove(shapes[5]);
+		
+		assertEquals(8, carrier.shapeCount());
+		assertEquals(-1, carrier.indexOf(shapes[2]));
+		assertFalse(carrier.contains(shapes[5]));
+		assertEquals(2, carrier.indexOf(shapes[3]));
+		assertSame(shapes[6], carrier.shapeAt(4));
+		assertEquals(7, carrier.indexOf(shapes[9]));
+		
+		carrier.add(shapes[2]);
+		assertEquals(8, carrier.indexOf(shapes[2]));
+	}
+	
+	/**
+	 * Check that shapeAt and indexOf agree with a list of the live children
+	 * through a long run of adds and removes, whichever slots the
+	 * tombstones fall in.
+	 */
+	@Test
+	public void testRemoveManyKeepsPositions() {
+		CarrierShape carrier = new CarrierShape(0, 0, 0, 0, 100, 100);
+		List<Shape> expected = new ArrayList<Shape>();
+		Random random = new Random(12);
+		for(int round = 0; round < 2000; round++) {
+			if(expected.isEmpty() || random.nextInt(3) != 0) {
+				Shape shape = new RectangleShape(1, 1, 0, 0, 5, 5);
+				carrier.add(shape);
+				expected.add(shape);
+			} else {
+				carrier.remove(expected.remove(random.nextInt(expected.size())));
+			}
+			int i = random.nextInt(expected.size());
+			assertSame(expected.get(i), carrier.shapeAt(i));
+			assertEquals(i, carrier.indexOf(expected.get(i)));
+		}
+		assertEquals(expected.size(), carrier.shapeCount());
+		for(int i = 0; i < expected.size(); i++) {
+			assertSame(expected.get(i), carrier.shapeAt(i));
+			assertEquals(i, carrier.indexOf(expected.get(i)));
+		}
+	}
+	
+	/**
+	 * Check that indexOf and contains treat null as a Shape that is not a
+	 * child.
+	 */
+	@Test
+	public void testIndexOfAndContainsNull() {
+		assertEquals(-1, _topLevelNest.indexOf(null));
+		assertFalse(_topLevelNest.contains(null));
+	}
+	
+	/**
+	 * Check that removing a Shape that is not a child has no effect.
+	 */
+	@Test
+	public void testRemoveNonChild() {
+		_topLevelNest.remove(_bottomLevelNest);
+		
+		assertSame(_midLevelNest, _bottomLevelNest.parent());
+		assertEquals(1, _topLevelNest.shapeCount());
+	}
+	
+	/**
+	 * Check that advancing a CarrierShape advances its descendants within
+	 * their CarrierShapes' bounds, as the same number of moves would.
+	 */
+	@Test
+	public void testAdvanceMatchesMove() {
+		CarrierShape advanced = _topLevelNest.copy();
+		for(int i = 0; i < 123; i++) {
+			_topLevelNest.move(500, 500);
+		}
+		advanced.advance(123, 500, 500);
+		
+		MockPainter expected = new MockPainter();
+		_topLevelNest.paint(expected);
+		MockPainter actual = new MockPainter();
+		advanced.paint(actual);
+		assertEquals(expected.toString(), actual.toString());
+	}
 }
@@ -0,0 +1,227 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the 
+ * subtree bounds kept by CarrierShape and in the culling of Shapes that
+ * lie outside the clip.
+ * 
+ * @author Henry Man
+ */
+public class TestCulling {
+
+	private CarrierShape _carrier;
+	private CarrierShape _nested;
+
+	/**
+	 * Creates a CarrierShape at (100, 100) holding a nested CarrierShape at
+	 * (10, 10) relative to it, which holds a RectangleShape placed partly
+	 * outside the nested CarrierShape.
+	 */
+	@Before
+	public void setUp() {
+		_carrier = new CarrierShape(100, 100, 1, 1, 100, 100);
+		_nested = new CarrierShape(10, 10, 1, 1, 30, 30);
+		_nested.add(new RectangleShape(20, 20, 1, 1, 15, 15));
+		_carrier.add(_nested);
+	}
+
+	/**
+	 * Checks that the subtree bounds of a CarrierShape cover its descendants,
+	 * including those outside its own bounding box, and follow movement.
+	 */
+	@Test
+	public void testSubtreeBounds() {
+		assertEquals(10, _nested.subtreeMinX());
+		assertEquals(45, _nested.subtreeMaxX());
+		assertEquals(100, _carrier.subtreeMinX());
+		assertEquals(200, _carrier.subtreeMaxX());
+		
+		_carrier.move(1000, 1000);
+		assertEquals(101, _carrier.subtreeMinX());
+		assertEquals(201, _carrier.subtreeMaxY());
+		assertEquals(11, _nested.subtreeMinX());
+	}
+
+	/**
+	 * Checks that setting text on a descendant is reflected by its ancestors.
+	 */
+	@Test
+	public void testSubtreeText() {
+		_nested.shapeAt(0).setText("label");
+		assertEquals(true, _carrier.subtreeHasText());
+	}
+
+	/**
+	 * Checks that Shapes outside the clip of a GraphicsPainter are not 
+	 * painted, while Shapes inside it are.
+	 */
+	@Test
+	public void testCulledOutsideClip() {
+		RecordingPainter inside = new RecordingPainter() {
+			public boolean isVisible(int x, int y, int width, int height) {
+				return x < 150 && y < 150;
+			}
+		};
+		RectangleShape far = new RectangleShape(400, 400, 0, 0, 10, 10);
+		far.paint(inside);
+		assertEquals(0, inside.commandCount());
+		
+		_carrier.paint(inside);
+		assertEquals(3, inside.commandCount(RecordingPainter.DRAW_RECT));
+	}
+
+	/**
+	 * Checks that clipping to a region gives the same pixels within it as
+	 * painting the whole scene, so culling never drops visible output.
+	 */
+	@Test
+	public void testCullingMatchesFullPaint() {
+		BufferedImage full = new BufferedImage(300, 300, BufferedImage.TYPE_INT_RGB);
+		BufferedImage clipped = new BufferedImage(300, 300, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = full.createGraphics();
+		_carrier.paint(new GraphicsPainter(g));
+		g.dispose();
+		g = clipped.createGraphics();
+		g.setClip(120, 120, 30, 30);
+		_carrier.paint(new GraphicsPainter(g));
+		g.dispose();
+		
+		for(int y = 120; y < 150; y++) {
+			for(int x = 120; x < 150; x++) {
+				assertEquals(full.getRGB(x, y), clipped.getRGB(x, y));
+			}
+		}
+	}
+
+	/**
+	 * Checks that bounds kept up to date as Shapes are added to and removed
+	 * from nested CarrierShapes match bounds computed from scratch.
+	 */
+	@Test
+	public void testBoundsFollowAddAndRemove() {
+		CarrierShape top = new CarrierShape(0, 0, 0, 0, 400, 400);
+		List<CarrierShape> carriers = new ArrayList<CarrierShape>();
+		carriers.add(top);
+		List<Shape> shapes = new ArrayList<Shape>();
+		Random random = new Random(5);
+		for(int round = 0; round < 500; round++) {
+			if(shapes.isEmpty() || random.nextInt(3) != 0) {
+				CarrierShape carrier = carriers.get(random.nextInt(carriers.size()));
+				if(carrier.width() < 20) {
+					continue;
+				}
+				// Children may overhang the CarrierShape to the left and top.
+				int x = random.nextInt(carrier.width() / 2) - 5;
+				int y = random.nextInt(carrier.height() / 2) - 5;
+				int width = Math.min(carrier.width() / 2, carrier.x() + carrier.width() - x);
+				int height = Math.min(carrier.height() / 2, carrier.y() + carrier.height() - y);
+				Shape shape;
+				if(random.nextBoolean()) {
+					CarrierShape nested = new CarrierShape(x, y, 0, 0, width, height);
+					carriers.add(nested);
+					shape = nested;
+				} else {
+					shape = new RectangleShape(x, y, 0, 0, 1 + random.nextInt(width), 1 + random.nextInt(height));
+				}
+				carrier.add(shape);
+				shapes.add(shape);
+			} else {
+				Shape shape = shapes.remove(random.nextInt(shapes.size()));
+				shape.parent().remove(shape);
+			}
+			for(CarrierShape carrier : carriers) {
+				int[] expected = bounds(carrier);
+				assertEquals(expected[0], carrier.subtreeMinX());
+				assertEquals(expected[1], carrier.subtreeMinY());
+				assertEquals(expected[2], carrier.subtreeMaxX());
+				assertEquals(expected[3], carrier.subtreeMaxY());
+			}
+		}
+	}
+
+	/**
+	 * Checks that a CarrierShape whose descendants have text is skipped when
+	 * neither it nor the text could reach the clip, but painted when text
+	 * centred outside the clip could extend into it.
+	 */
+	@Test
+	public void testTextCulledOutsideClip() {
+		_nested.shapeAt(0).setText("label");
+		BufferedImage image = new BufferedImage(400, 400, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		CountingPainter counter = new CountingPainter(new GraphicsPainter(g));
+		
+		g.setClip(300, 300, 50, 50);
+		_carrier.paint(counter);
+		assertEquals(0, counter.shapesPainted());
+		
+		// The label is centred at (137, 137), left of the clip and of the
+		// nested CarrierShape's bounds.
+		g.setClip(150, 130, 20, 20);
+		_carrier.paint(counter);
+		assertEquals(3, counter.shapesPainted());
+		assertEquals(1, counter.count(RecordingPainter.DRAW_CENTERED_TEXT));
+		g.dispose();
+	}
+
+	/**
+	 * Checks that clipping a scene with text to a region next to the text
+	 * gives the same pixels within it as painting the whole scene.
+	 */
+	@Test
+	public void testTextCullingMatchesFullPaint() {
+		_nested.shapeAt(0).setText("a long label overhanging its shape");
+		BufferedImage full = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+		BufferedImage clipped = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = full.createGraphics();
+		_carrier.paint(new GraphicsPainter(g));
+		g.dispose();
+		g = clipped.createGraphics();
+		g.setClip(210, 100, 100, 100);
+		_carrier.paint(new GraphicsPainter(g));
+		g.dispose();
+		
+		int drawn = 0;
+		for(int y = 100; y < 200; y++) {
+			for(int x = 210; x < 310; x++) {
+				assertEquals(full.getRGB(x, y), clipped.getRGB(x, y));
+				if(full.getRGB(x, y) != Color.BLACK.getRGB()) {
+					drawn++;
+				}
+			}
+		}
+		assertTrue(drawn > 0);
+	}
+
+	/**
+	 * Returns the bounds of a Shape and its descendants computed from
+	 * scratch, in the coordinate space of its position.
+	 */
+	private static int[] bounds(Shape shape) {
+		int[] box = { shape.x(), shape.y(), shape.x() + shape.width(), shape.y() + shape.height() };
+		if(shape instanceof CarrierShape) {
+			CarrierShape carrier = (CarrierShape) shape;
+			for(int i = 0; i < carrier.shapeCount(); i++) {
+				int[] child = bounds(carrier.shapeAt(i));
+				box[0] = Math.min(box[0], shape.x() + child[0]);
+				box[1] = Math.min(box[1], shape.y() + child[1]);
+				box[2] = Math.max(box[2], shape.x() + child[2]);
+				box[3] = Math.max(box[3], shape.y() + child[3]);
+			}
+		}
+		return box;
+	}
+}
@@ -0,0 +1,177 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the
+ * implementation of the DamageTracker class.
+ * 
+ * @author Henry Man
+ */
+public class TestDamageTracker {
+
+	private DamageTracker _tracker;
+
+	@Before
+	public void setUp() {
+		BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+		_tracker = new DamageTracker(image.getGraphics().getFontMetrics());
+	}
+
+	/**
+	 * Checks that a Shape which has not changed causes no damage.
+	 */
+	@Test
+	public void testNoChange() {
+		Shape shape = new RectangleShape(10, 10, 2, 2, 20, 20);
+		assertNull(damage(List.of(shape), List.of(shape.copy())));
+	}
+
+	/**
+	 * Checks that a moved Shape damages both its old and new area.
+	 */
+	@Test
+	public void testMovedShape() {
+		Shape before = new RectangleShape(10, 10, 2, 3, 20, 20);
+		Shape after = before.copy();
+		after.move(500, 500);
+		
+		Rectangle damage = damage(List.of(before), List.of(after));
+		assertEquals(new Rectangle(9, 9, 25, 26), damage);
+	}
+
+	/**
+	 * Checks that a child moving inside a CarrierShape that stays in place
+	 * damages the carrier, and that text wider than its Shape is covered.
+	 */
+	@Test
+	public void testCarrierChildAndText() {
+		CarrierShape carrier = new CarrierShape(100, 100, 0, 0, 50, 50);
+		Shape child = new RectangleShape(5, 5, 1, 1, 5, 5);
+		child.setText("a label much wider than its shape");
+		carrier.add(child);
+		CarrierShape before = carrier.copy();
+		carrier.move(500, 500);
+		
+		Rectangle damage = damage(List.of(before), List.of(carrier));
+		assertTrue(damage.contains(new Rectangle(100, 100, 50, 50)));
+		assertTrue(damage.x < 100);
+	}
+
+	/**
+	 * Checks that Shapes added or removed between frames are damaged.
+	 */
+	@Test
+	public void testAddedShape() {
+		Shape shape = new OvalShape(10, 10, 2, 2, 20, 20);
+		List<Shape> empty = Collections.emptyList();
+		assertEquals(new Rectangle(9, 9, 23, 23), damage(empty, Arrays.asList(shape)));
+	}
+
+	/**
+	 * Checks that every pixel that differs between two frames lies within
+	 * the damage, as Shapes move, bounce inside CarrierShapes and change
+	 * text, including Shapes of classes the FrameSnapshot cannot describe,
+	 * and that a Shape added between frames is damaged.
+	 */
+	@Test
+	public void testDamageCoversChangedPixels() {
+		SimulationEngine engine = new SimulationEngine();
+		engine.setWorldSize(300, 300);
+		engine.add(new OvalShape(10, 10, 7, 3, 20, 20));
+		CarrierShape carrier = new CarrierShape(50, 50, 3, 5, 100, 100);
+		Shape child = new RectangleShape(5, 5, 9, 4, 10, 10);
+		carrier.add(child);
+		engine.add(carrier);
+		engine.add(new RectangleShape(200, 200, 0, 0, 10, 10));
+		CarrierShape other = new CarrierShape(150, 20, 2, 1, 60, 60) {};
+		Shape otherChild = new OvalShape(5, 5, 4, 6, 8, 8);
+		other.add(otherChild);
+		engine.add(other);
+
+		engine.step();
+		FrameSnapshot previous = engine.acquireFrame();
+		for(int i = 0; i < 50; i++) {
+			if(i == 20) {
+				child.setText("label " + i);
+			}
+			if(i == 30) {
+				otherChild.setText("other " + i);
+			}
+			engine.step();
+			FrameSnapshot current = engine.acquireFrame();
+			assertDamageCovers(previous, current);
+			previous.release();
+			previous = current;
+		}
+		assertNull(_tracker.damage(previous, previous));
+
+		engine.add(new OvalShape(250, 10, 0, 0, 20, 20));
+		engine.step();
+		FrameSnapshot current = engine.acquireFrame();
+		assertTrue(_tracker.damage(previous, current).contains(new Rectangle(250, 10, 20, 20)));
+		previous.release();
+		current.release();
+	}
+
+	/**
+	 * Returns the damage between FrameSnapshots of two worlds, each holding
+	 * copies of a list of top-level Shapes.
+	 */
+	private Rectangle damage(List<Shape> previous, List<Shape> current) {
+		FrameSnapshot before = frame(previous);
+		FrameSnapshot after = frame(current);
+		try {
+			return _tracker.damage(before, after);
+		} finally {
+			before.release();
+			after.release();
+		}
+	}
+
+	private static FrameSnapshot frame(List<Shape> shapes) {
+		SimulationEngine engine = new SimulationEngine();
+		engine.setWorldSize(1000, 1000);
+		for(Shape s : shapes) {
+			engine.add(s.copy());
+		}
+		engine.advance(0);
+		return engine.acquireFrame();
+	}
+
+	private void assertDamageCovers(FrameSnapshot previous, FrameSnapshot current) {
+		BufferedImage before = paint(previous);
+		BufferedImage after = paint(current);
+		Rectangle damage = _tracker.damage(previous, current);
+		for(int y = 0; y < before.getHeight(); y++) {
+			for(int x = 0; x < before.getWidth(); x++) {
+				if(before.getRGB(x, y) != after.getRGB(x, y)) {
+					assertTrue(damage != null && damage.contains(x, y));
+				}
+			}
+		}
+	}
+
+	private static BufferedImage paint(FrameSnapshot frame) {
+		BufferedImage image = new BufferedImage(300, 300, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		GraphicsPainter painter = new GraphicsPainter(g);
+		for(Shape s : frame.toShapes()) {
+			s.paint(painter);
+		}
+		g.dispose();
+		return image;
+	}
+}
@@ -260,4 +260,34 @@ public class TestDynamicShape {
 		assertEquals(DynamicShapeBeforeCollision + DynamicShapeAtCollision 
 				+ DynamicShapeAfterCollision, _painter.toString());
 	}
+	
+	/**
+	 * Tests that advancing a DynamicShape n steps leaves it filled or
+	 * unfilled as n calls to move would, including when the last wall it
+	 * touched was a corner.
+	 */
+	@Test
+	public void testAdvanceMatchesMove() {
+		int[][] cases = {
+			{ 470, 460, 10, 20, 500, 500 },
+			{ 100, 20, 12, 15, 500, 300 },
+			{ 10, 10, 5, 5, 135, 135 },
+			{ 40, 7, -3, 0, 400, 100 },
+		};
+		for(int[] c : cases) {
+			for(int n = 0; n < 400; n += 3) {
+				DynamicShape moved = new DynamicShape(c[0], c[1], c[2], c[3]);
+				DynamicShape advanced = new DynamicShape(c[0], c[1], c[2], c[3]);
+				for(int i = 0; i < n; i++) {
+					moved.move(c[4], c[5]);
+				}
+				advanced.advance(n, c[4], c[5]);
+				MockPainter expected = new MockPainter();
+				moved.paint(expected);
+				MockPainter actual = new MockPainter();
+				advanced.paint(actual);
+				assertEquals(expected.toString(), actual.toString());
+			}
+		}
+	}
 }
@@ -0,0 +1,169 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the
+ * implementation of the FramePacer class.
+ *
+ * @author Henry Man
+ */
+public class TestFramePacer {
+
+	private FramePacer _pacer;
+
+	@Before
+	public void setUp() {
+		_pacer = new FramePacer(200);
+	}
+
+	@After
+	public void tearDown() {
+		_pacer.stop();
+	}
+
+	/**
+	 * Checks that frames come at the target rate, each close to its
+	 * deadline, without drifting.
+	 */
+	@Test
+	public void testPacing() throws InterruptedException {
+		List<Long> times = new ArrayList<Long>();
+		CountDownLatch done = new CountDownLatch(1);
+		_pacer.start(() -> {
+			times.add(System.nanoTime());
+			if(times.size() == 41) {
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		_pacer.stop();
+
+		long period = TimeUnit.MILLISECONDS.toNanos(5);
+		long first = times.get(0);
+		// No earlier than forty periods later, plus any deadlines skipped on
+		// a busy machine.
+		long elapsed = times.get(40) - first;
+		long skipped = _pacer.missedDeadlines() * period;
+		assertTrue(elapsed > 39 * period + skipped);
+		assertTrue(_pacer.frameCount() >= 41);
+		for(int i = 1; i < times.size(); i++) {
+			assertTrue(times.get(i) - times.get(i - 1) > 0);
+		}
+	}
+
+	/**
+	 * Checks that the deadlines a slow frame overruns are skipped and
+	 * counted, and that frames stay on the grid.
+	 */
+	@Test
+	public void testSkip() throws InterruptedException {
+		Metrics metrics = new Metrics();
+		_pacer.setMetrics(metrics);
+		List<Long> times = new ArrayList<Long>();
+		CountDownLatch done = new CountDownLatch(1);
+		_pacer.start(() -> {
+			times.add(System.nanoTime());
+			if(times.size() == 1) {
+				// Overrun the next three deadlines.
+				LockSupportSleep.sleep(TimeUnit.MILLISECONDS.toNanos(17));
+			} else if(times.size() == 2) {
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		_pacer.stop();
+
+		// Three deadlines, or more on a busy machine.
+		long missed = _pacer.missedDeadlines();
+		assertTrue(missed >= 3);
+		assertEquals(missed, metrics.getMissedDeadlines());
+		long period = TimeUnit.MILLISECONDS.toNanos(5);
+		assertTrue(times.get(1) - times.get(0) > missed * period);
+	}
+
+	/**
+	 * Checks that with SLIP the frame after a slow one comes straight away
+	 * rather than at the next deadline on the grid, so the deadline it
+	 * overran is not counted as missed.
+	 */
+	@Test
+	public void testSlip() throws InterruptedException {
+		_pacer.setTargetFps(10);
+		_pacer.setSkipPolicy(FramePacer.SkipPolicy.SLIP);
+		List<Long> times = new ArrayList<Long>();
+		CountDownLatch done = new CountDownLatch(1);
+		_pacer.start(() -> {
+			times.add(System.nanoTime());
+			if(times.size() == 1) {
+				// Overrun the next deadline by half a period.
+				LockSupportSleep.sleep(TimeUnit.MILLISECONDS.toNanos(150));
+			} else if(times.size() == 2) {
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		_pacer.stop();
+
+		// SKIP would count the deadline 100 milliseconds after the first
+		// as missed.
+		assertEquals(0, _pacer.missedDeadlines());
+		assertTrue(times.get(1) - times.get(0) >= TimeUnit.MILLISECONDS.toNanos(150));
+	}
+
+	/**
+	 * Checks that stop() ends the frames and can be called by a frame.
+	 */
+	@Test
+	public void testStop() throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(1);
+		_pacer.start(() -> {
+			_pacer.stop();
+			done.countDown();
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		Thread.sleep(30);
+		assertEquals(1, _pacer.frameCount());
+	}
+
+	/**
+	 * Checks that invalid rates are rejected.
+	 */
+	@Test
+	public void testInvalidFps() {
+		for(double fps : new double[] { 0, -1, Double.NaN, Double.POSITIVE_INFINITY }) {
+			try {
+				_pacer.setTargetFps(fps);
+				fail();
+			} catch(IllegalArgumentException e) {
+				// Expected action.
+			}
+		}
+		_pacer.setTargetFps(60);
+		assertEquals(60, _pacer.targetFps(), 1e-3);
+	}
+
+	/**
+	 * Sleeps without being cut short by spurious wake-ups.
+	 */
+	private static class LockSupportSleep {
+		static void sleep(long nanos) {
+			long end = System.nanoTime() + nanos;
+			long remaining;
+			while((remaining = end - System.nanoTime()) > 0) {
+				java.util.concurrent.locks.LockSupport.parkNanos(remaining);
+			}
+		}
+	}
+}
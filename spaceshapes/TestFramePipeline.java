@@ -0,0 +1,135 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the
+ * implementation of the FramePipeline class.
+ *
+ * @author Henry Man
+ */
+public class TestFramePipeline {
+
+	private HeadlessRenderer _renderer;
+
+	@Before
+	public void setUp() {
+		_renderer = new HeadlessRenderer(60, 40);
+	}
+
+	/**
+	 * Checks that frames arrive in order, match frames rendered one stage
+	 * after another, and are rendered into a bounded set of reused images.
+	 */
+	@Test
+	public void testMatchesSequentialRendering() throws Exception {
+		List<int[]> expected = new ArrayList<int[]>();
+		SimulationEngine engine = world();
+		for(int i = 0; i < 20; i++) {
+			engine.step();
+			expected.add(pixels(_renderer.render(engine.snapshot())));
+		}
+
+		List<int[]> actual = new ArrayList<int[]>();
+		Map<BufferedImage, Boolean> images = new IdentityHashMap<BufferedImage, Boolean>();
+		FramePipeline pipeline = new FramePipeline(world(), _renderer, 2, 3);
+		pipeline.run(20, (frame, image) -> {
+			assertEquals(actual.size(), frame);
+			actual.add(pixels(image));
+			images.put(image, true);
+		});
+
+		assertEquals(20, actual.size());
+		for(int i = 0; i < 20; i++) {
+			assertArrayEquals(expected.get(i), actual.get(i));
+		}
+		assertTrue(images.size() <= 3);
+	}
+
+	/**
+	 * Checks that a failure to write a frame stops the run and is thrown, and
+	 * that the pipeline can run again afterwards with its whole image pool.
+	 */
+	@Test
+	public void testSinkFailure() throws Exception {
+		FramePipeline pipeline = new FramePipeline(world(), _renderer, 1, 2);
+		IOException failure = new IOException();
+		try {
+			pipeline.run(10, (frame, image) -> {
+				if(frame == 3) {
+					throw failure;
+				}
+			});
+			fail();
+		} catch(IOException e) {
+			assertSame(failure, e);
+		}
+
+		int[] count = new int[1];
+		pipeline.run(5, (frame, image) -> count[0]++);
+		assertEquals(5, count[0]);
+	}
+
+	/**
+	 * Checks that a failure in the render stage stops the run and is thrown
+	 * by the calling thread.
+	 */
+	@Test
+	public void testRenderFailure() throws Exception {
+		SimulationEngine engine = world();
+		IllegalStateException failure = new IllegalStateException();
+		engine.add(new RectangleShape(0, 0, 1, 1, 5, 5) {
+			@Override
+			public void paintShape(Painter painter) {
+				throw failure;
+			}
+		});
+		try {
+			new FramePipeline(engine, _renderer).run(10, (frame, image) -> { });
+			fail();
+		} catch(IllegalStateException e) {
+			assertSame(failure, e);
+		}
+		assertEquals(false, Thread.currentThread().isInterrupted());
+	}
+
+	/**
+	 * Checks that a pipeline cannot be created without room for frames.
+	 */
+	@Test
+	public void testInvalidCapacity() {
+		try {
+			new FramePipeline(world(), _renderer, 0, 1);
+			fail();
+		} catch(IllegalArgumentException e) {
+			// Expected action.
+		}
+	}
+
+	private static SimulationEngine world() {
+		SimulationEngine engine = new SimulationEngine();
+		engine.setWorldSize(60, 40);
+		engine.add(new RectangleShape(0, 0, 3, 2, 10, 8));
+		engine.add(new OvalShape(30, 10, -2, 3, 12, 12));
+		engine.add(new DynamicShape(5, 20, 4, -1, 15, 10));
+		return engine;
+	}
+
+	private static int[] pixels(BufferedImage image) {
+		return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+	}
+}
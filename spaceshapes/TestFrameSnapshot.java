@@ -0,0 +1,208 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Color;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the
+ * implementation of the FrameSnapshot class and in how SimulationEngine
+ * publishes and reuses FrameSnapshots.
+ *
+ * @author Henry Man
+ */
+public class TestFrameSnapshot {
+
+	private SimulationEngine _engine;
+	private CarrierShape _carrier;
+	private DynamicShape _dynamic;
+
+	/**
+	 * Creates an engine holding a RectangleShape and a CarrierShape whose
+	 * child DynamicShape is about to hit the carrier's top edge.
+	 */
+	@Before
+	public void setUp() {
+		_engine = new SimulationEngine();
+		_engine.setWorldSize(500, 500);
+		_engine.add(new RectangleShape(100, 20, 12, 15));
+		_carrier = new CarrierShape(10, 20, 1, 1, 100, 100);
+		_dynamic = new DynamicShape(5, 3, 2, -5, 20, 10, Color.RED);
+		_dynamic.setText("dynamic");
+		_carrier.add(_dynamic);
+		_engine.add(_carrier);
+	}
+
+	/**
+	 * Checks that entries are stored depth first with their state and tree
+	 * structure.
+	 */
+	@Test
+	public void testColumns() {
+		_engine.step();
+		FrameSnapshot frame = _engine.acquireFrame();
+		try {
+			assertEquals(3, frame.size());
+			assertEquals(1, frame.tick());
+			assertEquals(FrameSnapshot.RECTANGLE, frame.kind(0));
+			assertEquals(112, frame.x(0));
+			assertEquals(-1, frame.parent(0));
+			assertEquals(1, frame.end(0));
+
+			assertEquals(FrameSnapshot.CARRIER, frame.kind(1));
+			assertEquals(3, frame.end(1));
+			assertEquals(FrameSnapshot.DYNAMIC, frame.kind(2));
+			assertEquals(1, frame.parent(2));
+			assertEquals(7, frame.x(2));
+			assertEquals(0, frame.y(2));
+			assertEquals(5, frame.deltaY(2));
+			assertEquals(true, frame.filled(2));
+			assertEquals("dynamic", frame.text(2));
+		} finally {
+			frame.release();
+		}
+	}
+
+	/**
+	 * Checks that Shapes rebuilt from a FrameSnapshot paint exactly as the
+	 * live Shapes do, and are linked into the same tree structure.
+	 */
+	@Test
+	public void testToShapes() {
+		_engine.step();
+		_engine.step();
+		MockPainter live = new MockPainter();
+		_engine.add(new OvalShape(0, 0, 0, 0, 5, 5));
+		MockPainter rebuilt = new MockPainter();
+
+		FrameSnapshot frame = _engine.acquireFrame();
+		List<Shape> shapes = frame.toShapes();
+		frame.release();
+		for(Shape s : shapes) {
+			s.paint(rebuilt);
+		}
+		new RectangleShape(124, 50, 12, 15).paint(live);
+		_carrier.paint(live);
+		assertEquals(live.toString(), rebuilt.toString());
+
+		CarrierShape carrier = (CarrierShape) shapes.get(1);
+		assertSame(carrier, carrier.shapeAt(0).parent());
+		assertEquals(1, carrier.shapeAt(0).depth());
+		assertEquals(_carrier.subtreeMaxY(), carrier.subtreeMaxY());
+	}
+
+	/**
+	 * Checks that a FrameSnapshot held by a reader is not modified by later
+	 * steps, and that snapshot() returns the same list until the next step.
+	 */
+	@Test
+	public void testHeldFrameIsStable() {
+		_engine.step();
+		FrameSnapshot held = _engine.acquireFrame();
+		for(int i = 0; i < 5; i++) {
+			_engine.step();
+		}
+		assertEquals(1, held.tick());
+		assertEquals(112, held.x(0));
+		held.release();
+
+		List<Shape> snapshot = _engine.snapshot();
+		assertSame(snapshot, _engine.snapshot());
+		_engine.step();
+		assertNotSame(snapshot, _engine.snapshot());
+	}
+
+	/**
+	 * Checks that the engine alternates between two FrameSnapshots when
+	 * readers release them, and fills a third while one is held.
+	 */
+	@Test
+	public void testBuffersAreReused() {
+		Map<FrameSnapshot, Boolean> frames = new IdentityHashMap<FrameSnapshot, Boolean>();
+		for(int i = 0; i < 10; i++) {
+			_engine.step();
+			FrameSnapshot frame = _engine.acquireFrame();
+			frames.put(frame, true);
+			frame.release();
+		}
+		assertEquals(2, frames.size());
+
+		FrameSnapshot held = _engine.acquireFrame();
+		for(int i = 0; i < 10; i++) {
+			_engine.step();
+			FrameSnapshot frame = _engine.acquireFrame();
+			frames.put(frame, true);
+			frame.release();
+		}
+		held.release();
+		assertEquals(3, frames.size());
+	}
+
+	/**
+	 * Checks that an empty FrameSnapshot is available before the first step.
+	 */
+	@Test
+	public void testEmptyBeforeFirstStep() {
+		FrameSnapshot frame = _engine.acquireFrame();
+		assertEquals(0, frame.size());
+		assertEquals(0, frame.generation());
+		frame.release();
+		assertEquals(0, _engine.snapshot().size());
+	}
+
+	/**
+	 * Checks that a FrameShapes updates the same Shapes in place while the
+	 * world keeps its structure, painting as Shapes built afresh would, and
+	 * builds new Shapes once a Shape is added.
+	 */
+	@Test
+	public void testFrameShapes() {
+		FrameShapes frameShapes = new FrameShapes();
+		_engine.step();
+		FrameSnapshot frame = _engine.acquireFrame();
+		List<Shape> shapes = frameShapes.update(frame);
+		frame.release();
+		assertEquals(true, frameShapes.rebuilt());
+		CarrierShape carrier = (CarrierShape) shapes.get(1);
+		Shape child = carrier.shapeAt(0);
+
+		for(int i = 0; i < 10; i++) {
+			if(i == 5) {
+				_dynamic.setText("changed");
+			}
+			_engine.step();
+			frame = _engine.acquireFrame();
+			assertSame(shapes, frameShapes.update(frame));
+			assertEquals(false, frameShapes.rebuilt());
+			MockPainter updated = new MockPainter();
+			MockPainter built = new MockPainter();
+			for(Shape s : shapes) {
+				s.paint(updated);
+			}
+			for(Shape s : frame.toShapes()) {
+				s.paint(built);
+			}
+			frame.release();
+			assertEquals(built.toString(), updated.toString());
+			assertSame(carrier, shapes.get(1));
+			assertSame(child, carrier.shapeAt(0));
+			assertEquals(_carrier.subtreeMaxY(), carrier.subtreeMaxY());
+		}
+
+		_engine.add(new OvalShape(0, 0, 0, 0, 5, 5));
+		_engine.step();
+		frame = _engine.acquireFrame();
+		assertEquals(3, frameShapes.update(frame).size());
+		frame.release();
+		assertEquals(true, frameShapes.rebuilt());
+		assertNotSame(carrier, frameShapes.shapes().get(1));
+	}
+}
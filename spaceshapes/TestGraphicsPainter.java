@@ -0,0 +1,175 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the 
+ * batching and text caching modes of the GraphicsPainter class.
+ * 
+ * @author Henry Man
+ */
+public class TestGraphicsPainter {
+
+	private CarrierShape _scene;
+
+	/**
+	 * Creates a scene with rectangles, hexagons, ovals, filled shapes, text
+	 * and nested translations.
+	 */
+	@Before
+	public void setUp() {
+		_scene = new CarrierShape(5, 5, 0, 0, 190, 190);
+		CarrierShape nested = new CarrierShape(100, 100, 0, 0, 80, 80);
+		nested.add(new HexagonShape(5, 5, 0, 0, 30, 20));
+		nested.add(new RectangleShape(40, 40, 0, 0, 20, 20));
+		_scene.add(nested);
+		_scene.add(new HexagonShape(10, 10, 0, 0, 70, 45));
+		_scene.add(new HexagonShape(20, 60, 0, 0, 30, 30));
+		_scene.add(new OvalShape(100, 10, 0, 0, 50, 30));
+		DynamicShape filled = new DynamicShape(10, 1, 0, -1, 30, 20, Color.GREEN);
+		filled.move(190, 190);
+		_scene.add(filled);
+		RectangleShape labelled = new RectangleShape(20, 120, 0, 0, 60, 40);
+		labelled.setText("label");
+		_scene.add(labelled);
+	}
+
+	/**
+	 * Checks that painting in batching mode produces exactly the same pixels
+	 * as painting each primitive directly.
+	 */
+	@Test
+	public void testBatchingMatchesDirectPainting() {
+		assertEquals(0, differences(render(false, 0), render(true, 0)));
+	}
+
+	/**
+	 * Checks that drawing labels from pre-rendered images produces the same
+	 * pixels as drawing the text directly.
+	 */
+	@Test
+	public void testTextImagesMatchDirectPainting() {
+		assertEquals(0, differences(render(false, 0), render(false, 1)));
+	}
+
+	/**
+	 * Checks that labels drawn from images are rendered with the rendering
+	 * hints of the Graphics they are drawn to, here antialiasing.
+	 */
+	@Test
+	public void testTextImagesUseTargetHints() {
+		assertEquals(0, differences(render(false, 0, true), render(false, 1, true)));
+	}
+
+	/**
+	 * Checks that painting saves the measurements of a Shape's text, and that
+	 * changing the text discards them.
+	 */
+	@Test
+	public void testSetTextClearsLayout() {
+		RectangleShape shape = new RectangleShape(10, 10, 0, 0, 60, 40);
+		shape.setText("first");
+		BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+		shape.paint(new GraphicsPainter(image.createGraphics()));
+		assertNotNull(shape.textLayout());
+		
+		shape.setText("second");
+		assertNull(shape.textLayout());
+	}
+
+	/**
+	 * Checks that the cache evicts its least recently used entry when full.
+	 */
+	@Test
+	public void testCacheEvictsLeastRecentlyUsed() {
+		TextLayoutCache cache = new TextLayoutCache(2);
+		Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+		TextLayoutCache.Layout first = cache.layout("first", g.getFont(), g);
+		cache.layout("second", g.getFont(), g);
+		cache.layout("first", g.getFont(), g);
+		cache.layout("third", g.getFont(), g);
+		
+		assertEquals(2, cache.size());
+		assertEquals(first, cache.layout("first", g.getFont(), g));
+		assertEquals(2, cache.size());
+	}
+
+	/**
+	 * Checks that the same string and font measured in different
+	 * FontRenderContexts are cached separately.
+	 */
+	@Test
+	public void testCacheKeyedByRenderContext() {
+		TextLayoutCache cache = new TextLayoutCache(4);
+		Graphics2D plain = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+		Graphics2D smooth = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+		smooth.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+		TextLayoutCache.Layout first = cache.layout("label", plain.getFont(), plain);
+		TextLayoutCache.Layout second = cache.layout("label", plain.getFont(), smooth);
+		
+		assertNotSame(first, second);
+		assertEquals(2, cache.size());
+		assertSame(first, cache.layout("label", plain.getFont(), plain));
+	}
+
+	/**
+	 * Checks that a label drawn in alternating colours keeps an image per
+	 * colour, up to a small limit.
+	 */
+	@Test
+	public void testTextImagesPerColour() {
+		Graphics2D g = new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB).createGraphics();
+		TextLayoutCache.Layout layout = new TextLayoutCache(1).layout("label", g.getFont(), g);
+		for(int i = 0; i < 10; i++) {
+			layout.drawImage(g, i % 2 == 0 ? Color.RED : Color.BLUE, 10, 20);
+		}
+		assertEquals(2, layout.imageCount());
+		
+		for(int i = 0; i < 10; i++) {
+			layout.drawImage(g, new Color(i, 0, 0), 10, 20);
+		}
+		assertEquals(4, layout.imageCount());
+	}
+
+	private BufferedImage render(boolean batching, int textImageThreshold) {
+		return render(batching, textImageThreshold, false);
+	}
+
+	private BufferedImage render(boolean batching, int textImageThreshold, boolean antialiasing) {
+		BufferedImage image = new BufferedImage(200, 200, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		if(antialiasing) {
+			g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		}
+		GraphicsPainter painter = new GraphicsPainter(g, batching);
+		painter.setTextImageThreshold(textImageThreshold);
+		_scene.paint(painter);
+		painter.flush();
+		g.dispose();
+		return image;
+	}
+
+	private static int differences(BufferedImage a, BufferedImage b) {
+		int differences = 0;
+		for(int y = 0; y < a.getHeight(); y++) {
+			for(int x = 0; x < a.getWidth(); x++) {
+				if(a.getRGB(x, y) != b.getRGB(x, y)) {
+					differences++;
+				}
+			}
+		}
+		return differences;
+	}
+}
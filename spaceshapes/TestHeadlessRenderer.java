@@ -0,0 +1,106 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the
+ * implementation of the HeadlessRenderer class.
+ *
+ * @author Henry Man
+ */
+public class TestHeadlessRenderer {
+
+	private HeadlessRenderer _renderer;
+
+	@Before
+	public void setUp() {
+		_renderer = new HeadlessRenderer(40, 30);
+	}
+
+	/**
+	 * Checks that Shapes are painted into the frame in the painter's default
+	 * colour on the background colour, and that the image is reused.
+	 */
+	@Test
+	public void testRender() {
+		BufferedImage image = _renderer.render(Arrays.<Shape>asList(new RectangleShape(5, 5, 1, 1, 10, 10)));
+		assertEquals(GraphicsPainter.DEFAULT_COLOR.getRGB(), image.getRGB(5, 8));
+		assertEquals(Color.BLACK.getRGB(), image.getRGB(8, 8));
+
+		_renderer.setBackground(Color.WHITE);
+		assertSame(image, _renderer.render(Collections.<Shape>emptyList()));
+		assertEquals(Color.WHITE.getRGB(), image.getRGB(5, 8));
+	}
+
+	/**
+	 * Checks that a Camera scales the world into the frame.
+	 */
+	@Test
+	public void testRenderThroughCamera() {
+		Camera camera = new Camera();
+		camera.setZoom(0.5);
+		_renderer.setCamera(camera, 0);
+		BufferedImage image = _renderer.render(Arrays.<Shape>asList(new RectangleShape(40, 20, 1, 1, 20, 20)));
+		assertEquals(GraphicsPainter.DEFAULT_COLOR.getRGB(), image.getRGB(20, 15));
+		assertEquals(Color.BLACK.getRGB(), image.getRGB(25, 15));
+	}
+
+	/**
+	 * Checks that stepping an engine writes one file per frame in each
+	 * format, and that raw frames hold three bytes per pixel in RGB order.
+	 */
+	@Test
+	public void testRenderFrames() throws IOException {
+		File directory = Files.createTempDirectory("frames").toFile();
+		SimulationEngine engine = new SimulationEngine();
+		engine.setWorldSize(40, 30);
+		engine.add(new RectangleShape(0, 0, 1, 1, 10, 10));
+
+		_renderer.setBackground(new Color(1, 2, 3));
+		_renderer.renderFrames(engine, 2, directory, HeadlessRenderer.Format.RAW_RGB);
+		byte[] raw = Files.readAllBytes(new File(directory, "frame-00001.rgb").toPath());
+		assertEquals(40 * 30 * 3, raw.length);
+		int last = raw.length - 3;
+		assertEquals(1, raw[last]);
+		assertEquals(2, raw[last + 1]);
+		assertEquals(3, raw[last + 2]);
+
+		_renderer.renderFrames(engine, 1, directory, HeadlessRenderer.Format.PNG);
+		BufferedImage png = ImageIO.read(new File(directory, "frame-00000.png"));
+		assertEquals(40, png.getWidth());
+		assertEquals(new Color(1, 2, 3).getRGB(), png.getRGB(39, 29));
+
+		for(File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	/**
+	 * Checks that a frame cannot be created with a non-positive size.
+	 */
+	@Test
+	public void testInvalidSize() {
+		try {
+			new HeadlessRenderer(0, 10);
+			fail();
+		} catch(IllegalArgumentException e) {
+			// Expected action.
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the
+ * implementation of the Journal class.
+ *
+ * @author Henry Man
+ */
+public class TestJournal {
+
+	private Path _file;
+	private SimulationEngine _engine;
+
+	/**
+	 * Creates an engine whose Shapes bounce off the walls, off each other
+	 * and inside a CarrierShape, so that speeds and fills change often.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		_file = Files.createTempFile("journal", ".shj");
+		Files.delete(_file);
+		_engine = new SimulationEngine();
+		_engine.setWorldSize(200, 150);
+		_engine.setCollisionListener(CollisionListener.BOUNCE);
+		_engine.add(new RectangleShape(10, 10, 7, 3, 20, 20));
+		_engine.add(new OvalShape(150, 100, -5, -4, 15, 15));
+		CarrierShape carrier = new CarrierShape(50, 40, 2, 1, 80, 60);
+		DynamicShape dynamic = new DynamicShape(5, 5, 9, 4, 10, 10, Color.ORANGE);
+		dynamic.setText("dynamic");
+		carrier.add(dynamic);
+		carrier.add(new HexagonShape(30, 30, -3, 6, 20, 12));
+		_engine.add(carrier);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(_file);
+	}
+
+	/**
+	 * Checks that every recorded tick, including ones after the world was
+	 * resized and a Shape added, is rebuilt exactly.
+	 */
+	@Test
+	public void testSeek() throws IOException {
+		List<String> painted = new ArrayList<String>();
+		try(Journal journal = new Journal(_file, 7)) {
+			_engine.setJournal(journal);
+			for(int tick = 1; tick <= 60; tick++) {
+				if(tick == 20) {
+					_engine.setWorldSize(180, 160);
+				} else if(tick == 33) {
+					_engine.add(new RectangleShape(1, 1, 4, 4));
+				}
+				_engine.step();
+				painted.add(paint(_engine.snapshot()));
+			}
+			assertEquals(1, journal.firstTick());
+			assertEquals(60, journal.lastTick());
+			for(int tick = 60; tick >= 1; tick--) {
+				assertEquals(painted.get(tick - 1), paint(journal.seek(tick)));
+			}
+			assertNull(journal.failure());
+		}
+	}
+
+	/**
+	 * Checks that a reopened journal can be sought to its last tick, even if
+	 * nothing changed in the ticks before it, and appended to.
+	 */
+	@Test
+	public void testReopen() throws IOException {
+		SimulationEngine engine = new SimulationEngine();
+		engine.setWorldSize(1000, 1000);
+		engine.add(new RectangleShape(100, 100, 1, 1));
+		try(Journal journal = new Journal(_file)) {
+			engine.setJournal(journal);
+			for(int i = 0; i < 10; i++) {
+				engine.step();
+			}
+		}
+		String expected = paint(engine.snapshot());
+		try(Journal journal = new Journal(_file)) {
+			assertEquals(10, journal.lastTick());
+			assertEquals(expected, paint(journal.seek(10)));
+			engine.setJournal(journal);
+			engine.step();
+			assertEquals(11, journal.lastTick());
+			assertEquals(paint(engine.snapshot()), paint(journal.seek(11)));
+		}
+	}
+
+	/**
+	 * Checks that nothing is written for ticks in which no speed or fill
+	 * changed.
+	 */
+	@Test
+	public void testUnchangedTicksAreFree() throws IOException {
+		SimulationEngine engine = new SimulationEngine();
+		engine.setWorldSize(1000, 1000);
+		engine.add(new RectangleShape(100, 100, 1, 1));
+		try(Journal journal = new Journal(_file)) {
+			engine.setJournal(journal);
+			engine.step();
+			journal.flush();
+			long size = Files.size(_file);
+			for(int i = 0; i < 100; i++) {
+				engine.step();
+			}
+			journal.flush();
+			assertEquals(size, Files.size(_file));
+		}
+	}
+
+	/**
+	 * Checks that an engine resumed from a recorded tick carries on exactly
+	 * as the recorded engine did.
+	 */
+	@Test
+	public void testResume() throws IOException {
+		String expected;
+		try(Journal journal = new Journal(_file, 10)) {
+			_engine.setJournal(journal);
+			for(int i = 0; i < 50; i++) {
+				_engine.step();
+			}
+			expected = paint(_engine.snapshot());
+
+			SimulationEngine resumed = new SimulationEngine();
+			resumed.setCollisionListener(CollisionListener.BOUNCE);
+			journal.resume(resumed, 25);
+			assertEquals(25, resumed.tick());
+			for(int i = 0; i < 25; i++) {
+				resumed.step();
+			}
+			assertEquals(expected, paint(resumed.snapshot()));
+		}
+	}
+
+	/**
+	 * Checks that a partly written record at the end of the file is
+	 * discarded when the file is reopened.
+	 */
+	@Test
+	public void testTornRecord() throws IOException {
+		try(Journal journal = new Journal(_file)) {
+			_engine.setJournal(journal);
+			_engine.step();
+		}
+		long size = Files.size(_file);
+		Files.write(_file, new byte[] { Journal.DELTA, 2, 0 }, java.nio.file.StandardOpenOption.APPEND);
+		try(Journal journal = new Journal(_file)) {
+			assertEquals(1, journal.lastTick());
+		}
+		assertEquals(size, Files.size(_file));
+	}
+
+	/**
+	 * Checks that seeking outside the recorded ticks, and opening a file
+	 * that is not a journal, are rejected.
+	 */
+	@Test
+	public void testInvalid() throws IOException {
+		try(Journal journal = new Journal(_file)) {
+			_engine.setJournal(journal);
+			_engine.step();
+			try {
+				journal.seek(2);
+				fail();
+			} catch(IllegalArgumentException e) {
+				// Expected action.
+			}
+		}
+		Files.write(_file, new byte[16]);
+		try {
+			new Journal(_file);
+			fail();
+		} catch(IOException e) {
+			// Expected action.
+		}
+	}
+
+	/**
+	 * Checks that a Shape that cannot be recorded stops recording without
+	 * stopping the engine, and is reported on close.
+	 */
+	@Test
+	public void testFailure() throws IOException {
+		_engine.add(new RectangleShape() {
+		});
+		Journal journal = new Journal(_file);
+		_engine.setJournal(journal);
+		_engine.step();
+		_engine.step();
+		assertEquals(2, _engine.tick());
+		assertTrue(journal.failure() instanceof IllegalArgumentException);
+		try {
+			journal.close();
+			fail();
+		} catch(IOException e) {
+			// Expected action.
+		}
+	}
+
+	private static String paint(List<Shape> shapes) {
+		MockPainter painter = new MockPainter();
+		for(Shape shape : shapes) {
+			shape.paint(painter);
+		}
+		return painter.toString();
+	}
+}
@@ -0,0 +1,95 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the
+ * implementation of the LatencyHistogram class.
+ *
+ * @author Henry Man
+ */
+public class TestLatencyHistogram {
+
+	private LatencyHistogram _histogram;
+
+	@Before
+	public void setUp() {
+		_histogram = new LatencyHistogram();
+	}
+
+	/**
+	 * Checks that small values are recorded exactly.
+	 */
+	@Test
+	public void testSmallValuesAreExact() {
+		for(int i = 1; i <= 50; i++) {
+			_histogram.record(i);
+		}
+		assertEquals(50, _histogram.count());
+		assertEquals(25, _histogram.percentile(50));
+		assertEquals(50, _histogram.percentile(100));
+		assertEquals(1, _histogram.percentile(0));
+		assertEquals(25.5, _histogram.mean(), 1e-9);
+	}
+
+	/**
+	 * Checks that large values are reported within the precision of the
+	 * buckets, and never above the maximum.
+	 */
+	@Test
+	public void testLargeValuesArePrecise() {
+		long[] values = { 1_000, 123_456, 20_000_000, 7_777_777_777L, Long.MAX_VALUE };
+		for(long value : values) {
+			LatencyHistogram histogram = new LatencyHistogram();
+			histogram.record(value);
+			histogram.record(value / 2);
+			long p50 = histogram.percentile(50);
+			assertTrue(p50 >= value / 2 && p50 <= value / 2 + value / 64);
+			assertEquals(value, histogram.percentile(100));
+		}
+	}
+
+	/**
+	 * Checks that buckets are contiguous: each value falls in a bucket whose
+	 * highest value is at least the value and below the next bucket's.
+	 */
+	@Test
+	public void testBuckets() {
+		for(long value = 0; value < 100_000; value += 7) {
+			int index = LatencyHistogram.index(value);
+			assertTrue(LatencyHistogram.highestValue(index) >= value);
+			assertTrue(index == 0 || LatencyHistogram.highestValue(index - 1) < value);
+		}
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValue(LatencyHistogram.index(Long.MAX_VALUE)));
+	}
+
+	/**
+	 * Checks that reset discards every value.
+	 */
+	@Test
+	public void testReset() {
+		_histogram.record(10);
+		_histogram.reset();
+		assertEquals(0, _histogram.count());
+		assertEquals(0, _histogram.max());
+		assertEquals(0, _histogram.percentile(99));
+	}
+
+	/**
+	 * Checks that a percentile outside 0 to 100 is rejected.
+	 */
+	@Test
+	public void testInvalidPercentile() {
+		try {
+			_histogram.percentile(101);
+			fail();
+		} catch(IllegalArgumentException e) {
+			// Expected action.
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the
+ * implementation of the Metrics and CountingPainter classes.
+ *
+ * @author Henry Man
+ */
+public class TestMetrics {
+
+	private Metrics _metrics;
+	private CountingPainter _counter;
+
+	@Before
+	public void setUp() {
+		_metrics = new Metrics();
+		_counter = new CountingPainter(new MockPainter());
+	}
+
+	/**
+	 * Checks that a CountingPainter counts requests per method and Shapes
+	 * painted, leaving out culled Shapes, and passes requests on.
+	 */
+	@Test
+	public void testCountingPainter() {
+		MockPainter mock = new MockPainter() {
+			@Override
+			public boolean isVisible(int x, int y, int width, int height) {
+				return x < 100;
+			}
+		};
+		CountingPainter counter = new CountingPainter(mock);
+		new RectangleShape(10, 10, 1, 1, 5, 5).paint(counter);
+		new HexagonShape(10, 10, 1, 1, 70, 45).paint(counter);
+		new RectangleShape(500, 10, 1, 1, 5, 5).paint(counter);
+
+		assertEquals(1, counter.count(RecordingPainter.DRAW_RECT));
+		assertEquals(6, counter.count(RecordingPainter.DRAW_LINE));
+		assertEquals(2, counter.shapesPainted());
+		assertEquals(7, mock.commandCount());
+	}
+
+	/**
+	 * Checks that Shapes filled in place of their detail are counted as
+	 * painted, and that counts are kept when the painter passed on to
+	 * changes.
+	 */
+	@Test
+	public void testCountingPainterSetPainter() {
+		MockPainter coarse = new MockPainter() {
+			@Override
+			public boolean isDetailed(int width, int height) {
+				return false;
+			}
+		};
+		MockPainter mock = new MockPainter();
+		CountingPainter counter = new CountingPainter(coarse);
+		new RectangleShape(10, 10, 1, 1, 5, 5).paint(counter);
+		counter.setPainter(mock);
+		new RectangleShape(10, 10, 1, 1, 5, 5).paint(counter);
+
+		assertEquals(1, counter.count(RecordingPainter.FILL_RECT));
+		assertEquals(1, counter.count(RecordingPainter.DRAW_RECT));
+		assertEquals(2, counter.shapesPainted());
+		assertEquals(1, coarse.commandCount());
+		assertEquals(1, mock.commandCount());
+	}
+
+	/**
+	 * Checks that a recorded paint adds the counts of the CountingPainter
+	 * and resets it.
+	 */
+	@Test
+	public void testRecordPaint() {
+		new OvalShape(0, 0, 1, 1, 5, 5).paint(_counter);
+		_metrics.recordPaint(2_000, _counter);
+		new OvalShape(0, 0, 1, 1, 5, 5).paint(_counter);
+		new OvalShape(0, 0, 1, 1, 5, 5).paint(_counter);
+		_metrics.recordPaint(4_000, _counter);
+
+		assertEquals(0, _counter.shapesPainted());
+		assertEquals(2, _metrics.getPaintCount());
+		assertEquals(4_000, _metrics.getPaintTimeMax());
+		assertEquals(2, _metrics.getShapesPaintedMax());
+		assertEquals(Long.valueOf(3), _metrics.getPainterCalls().get("drawOval"));
+		assertTrue(_metrics.report().contains("drawOval=3"));
+	}
+
+	/**
+	 * Checks that a SimulationEngine records a step duration per step.
+	 */
+	@Test
+	public void testEngineRecordsSteps() {
+		SimulationEngine engine = new SimulationEngine();
+		engine.setWorldSize(100, 100);
+		engine.add(new RectangleShape());
+		engine.setMetrics(_metrics);
+		engine.step();
+		engine.step();
+		assertEquals(2, _metrics.getStepCount());
+		assertTrue(_metrics.getStepTimeMax() > 0);
+	}
+
+	/**
+	 * Checks that registered Metrics can be read over JMX.
+	 */
+	@Test
+	public void testJmx() throws Exception {
+		_metrics.recordMissedDeadlines(3);
+		new RectangleShape().paint(_counter);
+		_metrics.recordPaint(1_000, _counter);
+		ObjectName name = _metrics.register("test");
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(3L, server.getAttribute(name, "MissedDeadlines"));
+			TabularData calls = (TabularData) server.getAttribute(name, "PainterCalls");
+			for(Object row : calls.values()) {
+				CompositeData data = (CompositeData) row;
+				if(data.get("key").equals("drawRect")) {
+					assertEquals(1L, data.get("value"));
+				}
+			}
+			server.invoke(name, "reset", null, null);
+			assertEquals(0L, server.getAttribute(name, "MissedDeadlines"));
+		} finally {
+			Metrics.unregister("test");
+		}
+		Map<String, Long> calls = _metrics.getPainterCalls();
+		assertEquals(Long.valueOf(0), calls.get("drawRect"));
+	}
+}
@@ -0,0 +1,88 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the
+ * implementation of the ParallelStepper class.
+ * 
+ * @author Henry Man
+ */
+public class TestParallelStepper {
+
+	private ParallelStepper _stepper;
+
+	@Before
+	public void setUp() {
+		_stepper = new ParallelStepper(new ForkJoinPool(4), 8);
+	}
+
+	/**
+	 * Checks that parallel stepping of a list containing plain shapes and a
+	 * large CarrierShape gives the same result as moving each shape in turn.
+	 */
+	@Test
+	public void testMatchesSequentialMove() {
+		List<Shape> parallel = createScene(new Random(7));
+		List<Shape> sequential = createScene(new Random(7));
+		
+		for(int step = 0; step < 100; step++) {
+			_stepper.moveAll(parallel, 500, 400);
+			for(Shape s : sequential) {
+				s.move(500, 400);
+			}
+		}
+		
+		MockPainter expected = new MockPainter();
+		MockPainter actual = new MockPainter();
+		for(Shape s : sequential) {
+			s.paint(expected);
+		}
+		for(Shape s : parallel) {
+			s.paint(actual);
+		}
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+	/**
+	 * Checks that a ParallelStepper cannot be created with a non-positive
+	 * threshold.
+	 */
+	@Test
+	public void testInvalidThreshold() {
+		try {
+			new ParallelStepper(ForkJoinPool.commonPool(), 0);
+			fail();
+		} catch(IllegalArgumentException e) {
+			// Expected action.
+		}
+	}
+
+	private List<Shape> createScene(Random random) {
+		List<Shape> shapes = new ArrayList<Shape>();
+		for(int i = 0; i < 50; i++) {
+			shapes.add(new DynamicShape(random.nextInt(400), random.nextInt(300), 
+					random.nextInt(21) - 10, random.nextInt(21) - 10));
+		}
+		CarrierShape carrier = new CarrierShape(0, 0, 3, 2, 200, 200);
+		CarrierShape nested = new CarrierShape(0, 0, 1, 4, 100, 100);
+		for(int i = 0; i < 40; i++) {
+			carrier.add(new OvalShape(random.nextInt(150), random.nextInt(150), 
+					random.nextInt(11) - 5, random.nextInt(11) - 5, 10, 10));
+			nested.add(new RectangleShape(random.nextInt(80), random.nextInt(80), 
+					random.nextInt(11) - 5, random.nextInt(11) - 5, 5, 5));
+		}
+		carrier.add(nested);
+		shapes.add(carrier);
+		return shapes;
+	}
+}
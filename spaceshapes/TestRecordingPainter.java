@@ -0,0 +1,126 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the
+ * implementation of the RecordingPainter class.
+ * 
+ * @author Henry Man
+ */
+public class TestRecordingPainter {
+
+	private RecordingPainter _recorder;
+	private CarrierShape _scene;
+
+	/**
+	 * Creates a scene that exercises every Painter method.
+	 */
+	@Before
+	public void setUp() {
+		_recorder = new RecordingPainter();
+		_scene = new CarrierShape(0, 0, 2, 2, 300, 300);
+		DynamicShape dynamic = new DynamicShape(10, 0, 2, -2, 20, 20, new Color(10, 20, 30));
+		dynamic.move(300, 300);
+		_scene.add(dynamic);
+		_scene.add(new OvalShape(50, 50, 1, 1, 30, 20));
+		_scene.add(new HexagonShape(100, 100, 1, 1, 70, 45));
+		RectangleShape labelled = new RectangleShape(150, 150, 1, 1, 60, 40);
+		labelled.setText("label");
+		_scene.add(labelled);
+	}
+
+	/**
+	 * Checks that replaying a recorded frame issues the same calls as
+	 * painting directly.
+	 */
+	@Test
+	public void testReplayMatchesDirectPainting() {
+		MockPainter direct = new MockPainter();
+		_scene.paint(direct);
+		
+		_scene.paint(_recorder);
+		MockPainter replayed = new MockPainter();
+		_recorder.replay(replayed);
+		
+		assertEquals(direct.toString(), replayed.toString());
+	}
+
+	/**
+	 * Checks that a recorded frame is not affected by later movement, and 
+	 * that clear() discards it.
+	 */
+	@Test
+	public void testFrameIsDetachedAndCleared() {
+		Shape shape = new RectangleShape(10, 10, 5, 5);
+		shape.setText("text");
+		shape.paint(_recorder);
+		shape.move(500, 500);
+		
+		assertEquals(2, _recorder.commandCount());
+		RecordingPainter copy = new RecordingPainter();
+		_recorder.replay(copy);
+		MockPainter painter = new MockPainter();
+		copy.replay(painter);
+		assertEquals("(rectangle 10,10,25,35)(draw centered text)", painter.toString());
+		
+		_recorder.clear();
+		assertEquals(0, _recorder.commandCount());
+		painter = new MockPainter();
+		_recorder.replay(painter);
+		assertEquals("", painter.toString());
+	}
+
+	/**
+	 * Checks that getColor returns the colour set earlier in the frame.
+	 */
+	@Test
+	public void testGetColor() {
+		assertEquals(GraphicsPainter.DEFAULT_COLOR, _recorder.getColor());
+		_recorder.setColor(Color.RED);
+		assertEquals(Color.RED, _recorder.getColor());
+	}
+
+	/**
+	 * Checks that commands are counted per opcode.
+	 */
+	@Test
+	public void testCommandCountPerOpcode() {
+		_scene.paint(_recorder);
+		
+		assertEquals(2, _recorder.commandCount(RecordingPainter.DRAW_RECT));
+		assertEquals(6, _recorder.commandCount(RecordingPainter.DRAW_LINE));
+		assertEquals(1, _recorder.commandCount(RecordingPainter.FILL_RECT));
+		assertEquals(2, _recorder.commandCount(RecordingPainter.SET_COLOR));
+		assertEquals(2, _recorder.commandCount(RecordingPainter.TRANSLATE));
+		assertEquals(1, _recorder.commandCount(RecordingPainter.DRAW_CENTERED_TEXT));
+	}
+
+	/**
+	 * Checks that identical frames compare equal and hash equally, and that a
+	 * frame recorded after a move differs.
+	 */
+	@Test
+	public void testCompareFrames() {
+		MockPainter first = new MockPainter();
+		MockPainter second = new MockPainter();
+		_scene.paint(first);
+		_scene.paint(second);
+		assertTrue(first.sameFrame(second));
+		assertEquals(first.frameHash(), second.frameHash());
+		
+		_scene.move(500, 500);
+		second.clear();
+		_scene.paint(second);
+		assertFalse(first.sameFrame(second));
+		assertNotEquals(first.frameHash(), second.frameHash());
+	}
+}
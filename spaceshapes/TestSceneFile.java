@@ -0,0 +1,153 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the
+ * implementation of the SceneFile class.
+ *
+ * @author Henry Man
+ */
+public class TestSceneFile {
+
+	private Path _file;
+	private List<Shape> _scene;
+
+	@Before
+	public void setUp() throws IOException {
+		_file = Files.createTempFile("scene", ".shp");
+		_scene = new ArrayList<Shape>();
+		_scene.add(new RectangleShape(1, 2, 3, 4, 5, 6));
+		_scene.add(new OvalShape(10, 20, -3, 5, 30, 40));
+
+		CarrierShape carrier = new CarrierShape(10, 20, 3, 7, 150, 150);
+		CarrierShape inner = new CarrierShape(20, 10, 5, 2, 80, 70);
+		DynamicShape dynamic = new DynamicShape(5, 5, 3, 1, 25, 10, new Color(0, 200, 0));
+		dynamic.setFilled(true);
+		inner.add(dynamic);
+		carrier.add(inner);
+		carrier.add(new HexagonShape(1, 1, 2, 2, 70, 45));
+		_scene.add(carrier);
+
+		RectangleShape text = new RectangleShape(40, 40, 2, 8, 60, 40);
+		text.setText("I am a Rectangle \u00e9");
+		_scene.add(text);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(_file);
+	}
+
+	/**
+	 * Checks that loaded Shapes paint exactly like the saved ones, including
+	 * hierarchy, text, colour and fill.
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		SceneFile.save(_scene, _file);
+		List<Shape> loaded = SceneFile.loadShapes(_file);
+		assertEquals(_scene.size(), loaded.size());
+		assertEquals(paint(_scene), paint(loaded));
+	}
+
+	/**
+	 * Checks that the columns of a loaded FrameSnapshot match the saved ones,
+	 * including where each subtree ends.
+	 */
+	@Test
+	public void testColumns() throws IOException {
+		FrameSnapshot saved = new FrameSnapshot();
+		saved.capture(_scene, 0, 0);
+		SceneFile.save(saved, _file);
+		FrameSnapshot loaded = SceneFile.load(_file);
+		assertEquals(saved.size(), loaded.size());
+		for(int i = 0; i < saved.size(); i++) {
+			assertEquals(saved.kind(i), loaded.kind(i));
+			assertEquals(saved.x(i), loaded.x(i));
+			assertEquals(saved.deltaY(i), loaded.deltaY(i));
+			assertEquals(saved.height(i), loaded.height(i));
+			assertEquals(saved.parent(i), loaded.parent(i));
+			assertEquals(saved.end(i), loaded.end(i));
+			assertEquals(saved.filled(i), loaded.filled(i));
+			assertEquals(saved.text(i), loaded.text(i));
+		}
+	}
+
+	/**
+	 * Checks that an empty scene can be saved and loaded.
+	 */
+	@Test
+	public void testEmpty() throws IOException {
+		SceneFile.save(new ArrayList<Shape>(), _file);
+		assertEquals(0, SceneFile.loadShapes(_file).size());
+	}
+
+	/**
+	 * Checks that a file that is not a scene file is rejected.
+	 */
+	@Test
+	public void testBadMagic() throws IOException {
+		Files.write(_file, new byte[32]);
+		try {
+			SceneFile.load(_file);
+			fail();
+		} catch(IOException e) {
+			// Expected action.
+		}
+	}
+
+	/**
+	 * Checks that a truncated scene file is rejected.
+	 */
+	@Test
+	public void testTruncated() throws IOException {
+		SceneFile.save(_scene, _file);
+		byte[] bytes = Files.readAllBytes(_file);
+		byte[] truncated = new byte[bytes.length - 1];
+		System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+		Files.write(_file, truncated);
+		try {
+			SceneFile.load(_file);
+			fail();
+		} catch(IOException e) {
+			// Expected action.
+		}
+	}
+
+	/**
+	 * Checks that Shapes of classes outside this package cannot be saved.
+	 */
+	@Test
+	public void testOtherShape() throws IOException {
+		List<Shape> scene = new ArrayList<Shape>();
+		scene.add(new RectangleShape() {
+		});
+		try {
+			SceneFile.save(scene, _file);
+			fail();
+		} catch(IllegalArgumentException e) {
+			// Expected action.
+		}
+	}
+
+	private static String paint(List<Shape> shapes) {
+		MockPainter painter = new MockPainter();
+		for(Shape shape : shapes) {
+			shape.paint(painter);
+		}
+		return painter.toString();
+	}
+}
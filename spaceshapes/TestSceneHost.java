@@ -0,0 +1,220 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the
+ * implementation of the SceneHost class.
+ *
+ * @author Henry Man
+ */
+public class TestSceneHost {
+
+	private SceneHost _host;
+
+	@Before
+	public void setUp() {
+		_host = new SceneHost(2);
+	}
+
+	@After
+	public void tearDown() {
+		_host.close();
+	}
+
+	/**
+	 * Checks that a turn performs the steps due, up to the tick budget, and
+	 * drops a backlog of more than one budget.
+	 */
+	@Test
+	public void testTurn() {
+		SceneHost.Scene scene = _host.add(scene(), 200, 200, TimeUnit.HOURS.toNanos(1));
+		scene.setTickBudget(3);
+		long hour = TimeUnit.HOURS.toNanos(1);
+		long now = System.nanoTime() + 10 * hour + hour / 2;
+
+		// Ten steps are due: three are performed and four dropped.
+		long next = scene.turn(now);
+		assertEquals(3, scene.tick());
+		assertEquals(4, scene.droppedTicks());
+		assertTrue(next <= now);
+
+		// The other three are performed in the next turn.
+		next = scene.turn(now);
+		assertEquals(6, scene.tick());
+		assertTrue(next > now);
+
+		// Nothing more is due.
+		assertEquals(next, scene.turn(now));
+		assertEquals(6, scene.tick());
+	}
+
+	/**
+	 * Checks that many scenes all make progress side by side.
+	 */
+	@Test
+	public void testManyScenes() throws InterruptedException {
+		checkManyScenes(_host);
+	}
+
+	/**
+	 * Checks that many scenes all make progress side by side on a SceneHost
+	 * created with the default threads, which are virtual where the JVM
+	 * supports them.
+	 */
+	@Test
+	public void testManyScenesDefaultThreads() throws InterruptedException {
+		try(SceneHost host = new SceneHost()) {
+			assertEquals(SceneHost.virtualThreadsSupported(), host.usesVirtualThreads());
+			checkManyScenes(host);
+		}
+	}
+
+	/**
+	 * Checks that no scene advances once close() has returned.
+	 */
+	@Test
+	public void testClose() throws InterruptedException {
+		checkClose(_host);
+	}
+
+	/**
+	 * Checks that no scene advances once close() has returned, on a
+	 * SceneHost with a virtual thread per scene.
+	 */
+	@Test
+	public void testCloseVirtualThreads() throws InterruptedException {
+		if(!SceneHost.virtualThreadsSupported()) {
+			return;
+		}
+		SceneHost host = new SceneHost();
+		assertTrue(host.usesVirtualThreads());
+		checkClose(host);
+	}
+
+	private static void checkManyScenes(SceneHost host) throws InterruptedException {
+		List<SceneHost.Scene> scenes = new ArrayList<SceneHost.Scene>();
+		for(int i = 0; i < 500; i++) {
+			scenes.add(host.add(scene(), 200, 200, TimeUnit.MILLISECONDS.toNanos(2)));
+		}
+		assertEquals(500, host.sceneCount());
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		for(SceneHost.Scene scene : scenes) {
+			while(scene.tick() < 5 && System.nanoTime() < deadline) {
+				Thread.sleep(5);
+			}
+			assertTrue(scene.tick() >= 5);
+			assertNull(scene.failure());
+		}
+	}
+
+	private static void checkClose(SceneHost host) throws InterruptedException {
+		List<SceneHost.Scene> scenes = new ArrayList<SceneHost.Scene>();
+		for(int i = 0; i < 50; i++) {
+			// Steps are always due, so turns run back to back.
+			scenes.add(host.add(scene(), 200, 200, 1));
+		}
+		while(scenes.get(scenes.size() - 1).tick() == 0) {
+			Thread.sleep(1);
+		}
+		host.close();
+		assertEquals(0, host.sceneCount());
+		long[] ticks = new long[scenes.size()];
+		for(int i = 0; i < ticks.length; i++) {
+			ticks[i] = scenes.get(i).tick();
+		}
+		Thread.sleep(20);
+		for(int i = 0; i < ticks.length; i++) {
+			assertEquals(ticks[i], scenes.get(i).tick());
+		}
+	}
+
+	/**
+	 * Checks that a removed scene stops stepping and a closed host accepts
+	 * no more scenes.
+	 */
+	@Test
+	public void testRemoveAndClose() throws InterruptedException {
+		SceneHost.Scene scene = _host.add(scene(), 200, 200, TimeUnit.MILLISECONDS.toNanos(1));
+		while(scene.tick() == 0) {
+			Thread.sleep(1);
+		}
+		_host.remove(scene);
+		assertEquals(0, _host.sceneCount());
+		Thread.sleep(10);
+		long tick = scene.tick();
+		Thread.sleep(20);
+		assertEquals(tick, scene.tick());
+
+		_host.close();
+		try {
+			_host.add(scene(), 200, 200);
+			fail();
+		} catch(IllegalStateException e) {
+			// Expected action.
+		}
+	}
+
+	/**
+	 * Checks that a scene is rendered on demand, at its own size.
+	 */
+	@Test
+	public void testRender() {
+		SceneHost.Scene scene = _host.add(scene(), 120, 80);
+		HeadlessRenderer renderer = new HeadlessRenderer(scene.width(), scene.height());
+		BufferedImage image = scene.render(renderer);
+		assertNotNull(image);
+		assertEquals(120, image.getWidth());
+		assertEquals(80, image.getHeight());
+	}
+
+	/**
+	 * Checks that invalid scenes and budgets are rejected.
+	 */
+	@Test
+	public void testInvalid() {
+		try {
+			_host.add(scene(), 0, 200);
+			fail();
+		} catch(IllegalArgumentException e) {
+			// Expected action.
+		}
+		SceneHost.Scene scene = _host.add(scene(), 200, 200);
+		try {
+			scene.setTickBudget(0);
+			fail();
+		} catch(IllegalArgumentException e) {
+			// Expected action.
+		}
+		if(!SceneHost.virtualThreadsSupported()) {
+			try {
+				new SceneHost(0);
+				fail();
+			} catch(IllegalArgumentException e) {
+				// Expected action.
+			}
+		}
+	}
+
+	private static List<Shape> scene() {
+		List<Shape> shapes = new ArrayList<Shape>();
+		shapes.add(new RectangleShape(10, 10, 3, 2, 20, 20));
+		CarrierShape carrier = new CarrierShape(40, 40, -2, 1, 60, 60);
+		carrier.add(new DynamicShape(5, 5, 4, 4, 10, 10));
+		shapes.add(carrier);
+		return shapes;
+	}
+}
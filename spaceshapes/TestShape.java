@@ -88,4 +88,68 @@ public class TestShape {
 		assertEquals("(rectangle 10,90,25,35)(rectangle 0,100,25,35)"
 				+ "(rectangle 12,85,25,35)", _painter.toString());
 	}
+	
+	/**
+	 * Test to ensure that advancing a Shape n steps gives the same position
+	 * and direction as n calls to move, whether it starts between the walls,
+	 * on one, outside them, standing still or too big to fit.
+	 */
+	@Test
+	public void testAdvanceMatchesMove() {
+		int[][] cases = {
+			{ 100, 20, 12, 15, 25, 35, 500, 500 },
+			{ 0, 0, 7, 3, 25, 35, 135, 10000 },
+			{ 110, 465, 12, -15, 25, 35, 135, 500 },
+			{ -30, 600, 4, 9, 25, 35, 135, 500 },
+			{ 50, 50, 0, 0, 25, 35, 135, 500 },
+			{ 50, 50, 6, -6, 200, 35, 135, 500 },
+		};
+		for(int[] c : cases) {
+			for(int n = 0; n < 300; n += 7) {
+				RectangleShape moved = new RectangleShape(c[0], c[1], c[2], c[3], c[4], c[5]);
+				RectangleShape advanced = new RectangleShape(c[0], c[1], c[2], c[3], c[4], c[5]);
+				for(int i = 0; i < n; i++) {
+					moved.move(c[6], c[7]);
+				}
+				advanced.advance(n, c[6], c[7]);
+				assertEquals(moved._x, advanced._x);
+				assertEquals(moved._y, advanced._y);
+				assertEquals(moved._deltaX, advanced._deltaX);
+				assertEquals(moved._deltaY, advanced._deltaY);
+			}
+		}
+	}
+	
+	/**
+	 * Test to ensure that a Shape can be advanced a very large number of
+	 * steps, landing where its periodic motion puts it.
+	 */
+	@Test
+	public void testAdvanceFarAhead() {
+		RectangleShape shape = new RectangleShape(0, 0, 10, 10, 25, 35);
+		// Round trips take 2 * 10 steps horizontally and 2 * 15 vertically.
+		shape.advance(60_000_000_000L + 3, 125, 185);
+		shape.paint(_painter);
+		assertEquals("(rectangle 30,30,25,35)", _painter.toString());
+	}
+
+	/**
+	 * Test that advance() does not overflow when jumping Long.MAX_VALUE steps
+	 * ahead. Horizontal round trips take 2 * 159 steps and vertical ones
+	 * 2 * 117, so the Shape ends where 12402 steps would leave it modulo
+	 * both.
+	 */
+	@Test
+	public void testAdvanceLongMaxValue() {
+		RectangleShape moved = new RectangleShape(50, 50, 3, 4, 25, 35);
+		RectangleShape advanced = new RectangleShape(50, 50, 3, 4, 25, 35);
+		for(long i = 0; i < Long.MAX_VALUE % 12402; i++) {
+			moved.move(500, 500);
+		}
+		advanced.advance(Long.MAX_VALUE, 500, 500);
+		assertEquals(moved._x, advanced._x);
+		assertEquals(moved._y, advanced._y);
+		assertEquals(moved._deltaX, advanced._deltaX);
+		assertEquals(moved._deltaY, advanced._deltaY);
+	}
 }
@@ -0,0 +1,160 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the
+ * implementation of hit testing by the ShapeIndex and CarrierShape classes.
+ * 
+ * @author Henry Man
+ */
+public class TestShapeIndex {
+
+	private CarrierShape _carrier;
+	private CarrierShape _nested;
+	private Shape _leaf;
+
+	/**
+	 * Creates a CarrierShape at (100, 100) holding a nested CarrierShape at
+	 * (10, 10) relative to it, which in turn holds a RectangleShape at 
+	 * (5, 5) relative to the nested CarrierShape.
+	 */
+	@Before
+	public void setUp() {
+		_carrier = new CarrierShape(100, 100, 1, 1, 200, 200);
+		_nested = new CarrierShape(10, 10, 1, 1, 50, 50);
+		_leaf = new RectangleShape(5, 5, 1, 1, 10, 10);
+		_nested.add(_leaf);
+		_carrier.add(_nested);
+	}
+
+	/**
+	 * Checks that hit testing accounts for the offsets of nested carriers and
+	 * returns the deepest Shape under the point.
+	 */
+	@Test
+	public void testDeepestShapeIsReturned() {
+		assertSame(_leaf, _carrier.hitTest(118, 118));
+		assertSame(_nested, _carrier.hitTest(112, 112));
+		assertSame(_carrier, _carrier.hitTest(250, 250));
+		assertNull(_carrier.hitTest(50, 50));
+	}
+
+	/**
+	 * Checks that hit testing through the index agrees with testing every
+	 * Shape, both for a large scene and for a large CarrierShape, before and
+	 * after the Shapes move.
+	 */
+	@Test
+	public void testIndexMatchesLinearSearch() {
+		Random random = new Random(11);
+		List<Shape> shapes = new ArrayList<Shape>();
+		CarrierShape big = new CarrierShape(0, 0, 3, 2, 400, 400);
+		for(int i = 0; i < 300; i++) {
+			big.add(new OvalShape(random.nextInt(380), random.nextInt(380), 
+					random.nextInt(11) - 5, random.nextInt(11) - 5, 1 + random.nextInt(20), 1 + random.nextInt(20)));
+			shapes.add(new RectangleShape(random.nextInt(900), random.nextInt(900),
+					random.nextInt(11) - 5, random.nextInt(11) - 5, 1 + random.nextInt(40), 1 + random.nextInt(40)));
+		}
+		shapes.add(big);
+		ShapeIndex index = new ShapeIndex(shapes);
+		
+		for(int step = 0; step < 40; step++) {
+			for(int i = 0; i < 200; i++) {
+				int x = random.nextInt(1000) - 50;
+				int y = random.nextInt(1000) - 50;
+				assertSame(linearHitTest(shapes, x, y), index.hitTest(x, y));
+			}
+			for(Shape s : shapes) {
+				s.move(1000, 1000);
+			}
+			index.invalidate();
+		}
+	}
+
+	/**
+	 * Checks that an index kept over the Shapes of a FrameShapes, and only
+	 * refitted as they are updated in place, agrees with testing every Shape.
+	 */
+	@Test
+	public void testIndexFollowsFrameShapes() {
+		Random random = new Random(5);
+		SimulationEngine engine = new SimulationEngine();
+		engine.setWorldSize(1000, 1000);
+		CarrierShape big = new CarrierShape(0, 0, 3, 2, 400, 400);
+		for(int i = 0; i < 100; i++) {
+			big.add(new OvalShape(random.nextInt(380), random.nextInt(380), 
+					random.nextInt(11) - 5, random.nextInt(11) - 5, 1 + random.nextInt(20), 1 + random.nextInt(20)));
+			engine.add(new RectangleShape(random.nextInt(900), random.nextInt(900),
+					random.nextInt(11) - 5, random.nextInt(11) - 5, 1 + random.nextInt(40), 1 + random.nextInt(40)));
+		}
+		engine.add(big);
+
+		FrameShapes frameShapes = new FrameShapes();
+		engine.step();
+		FrameSnapshot frame = engine.acquireFrame();
+		List<Shape> shapes = frameShapes.update(frame);
+		frame.release();
+		ShapeIndex index = new ShapeIndex(shapes);
+		for(int step = 0; step < 40; step++) {
+			for(int i = 0; i < 100; i++) {
+				int x = random.nextInt(1000);
+				int y = random.nextInt(1000);
+				assertSame(linearHitTest(shapes, x, y), index.hitTest(x, y));
+			}
+			engine.step();
+			frame = engine.acquireFrame();
+			assertSame(shapes, frameShapes.update(frame));
+			frame.release();
+			index.invalidate();
+		}
+	}
+
+	/**
+	 * Checks that a child added after the index was built can be hit.
+	 */
+	@Test
+	public void testAddAfterIndexBuilt() {
+		for(int i = 0; i < 20; i++) {
+			_carrier.add(new RectangleShape(100 + i, 100, 0, 0, 5, 5));
+		}
+		_carrier.hitTest(0, 0);
+		Shape added = new RectangleShape(150, 150, 0, 0, 5, 5);
+		_carrier.add(added);
+		assertSame(added, _carrier.hitTest(252, 252));
+	}
+
+	private static Shape linearHitTest(List<Shape> shapes, int x, int y) {
+		for(int i = shapes.size() - 1; i >= 0; i--) {
+			Shape hit = linearHitShape(shapes.get(i), x, y);
+			if(hit != null) {
+				return hit;
+			}
+		}
+		return null;
+	}
+
+	private static Shape linearHitShape(Shape shape, int x, int y) {
+		if(shape instanceof CarrierShape) {
+			CarrierShape carrier = (CarrierShape) shape;
+			for(int i = carrier.shapeCount() - 1; i >= 0; i--) {
+				Shape hit = linearHitShape(carrier.shapeAt(i), x - carrier.x(), y - carrier.y());
+				if(hit != null) {
+					return hit;
+				}
+			}
+		}
+		if(x >= shape.x() && x <= shape.x() + shape.width() && y >= shape.y() && y <= shape.y() + shape.height()) {
+			return shape;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,128 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the
+ * implementation of the ShapeWorld class.
+ * 
+ * @author Henry Man
+ */
+public class TestShapeWorld {
+
+	private ShapeWorld _world;
+	private MockPainter _painter;
+
+	@Before
+	public void setUp() {
+		_world = new ShapeWorld(2);
+		_painter = new MockPainter();
+	}
+
+	/**
+	 * Checks that moveAll moves a Shape view the same way as Shape.move, 
+	 * including bounces, and that painting the view reflects the new state.
+	 */
+	@Test
+	public void testMoveAllUpdatesView() {
+		RectangleShape shape = new RectangleShape(100, 20, 12, 15);
+		_world.add(shape);
+		shape.paint(_painter);
+		_world.moveAll(135, 10000);
+		shape.paint(_painter);
+		_world.moveAll(135, 10000);
+		shape.paint(_painter);
+		assertEquals("(rectangle 100,20,25,35)(rectangle 110,35,25,35)"
+				+ "(rectangle 98,50,25,35)", _painter.toString());
+	}
+
+	/**
+	 * Checks that moveAll produces exactly the same positions and velocities
+	 * as calling move on independent Shapes, over many randomly set up slots 
+	 * and steps.
+	 */
+	@Test
+	public void testMoveAllMatchesMove() {
+		Random random = new Random(42);
+		Shape[] expected = new Shape[500];
+		for(int i = 0; i < expected.length; i++) {
+			int width = 1 + random.nextInt(60);
+			int height = 1 + random.nextInt(60);
+			int x = random.nextInt(400);
+			int y = random.nextInt(300);
+			int deltaX = random.nextInt(41) - 20;
+			int deltaY = random.nextInt(41) - 20;
+			expected[i] = new OvalShape(x, y, deltaX, deltaY, width, height);
+			_world.add(x, y, deltaX, deltaY, width, height);
+		}
+		
+		for(int step = 0; step < 200; step++) {
+			_world.moveAll(400, 300);
+			for(Shape s : expected) {
+				s.move(400, 300);
+			}
+		}
+		
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i].x(), _world.x(i));
+			assertEquals(expected[i].y(), _world.y(i));
+			assertEquals(expected[i].deltaX(), _world.deltaX(i));
+			assertEquals(expected[i].deltaY(), _world.deltaY(i));
+		}
+	}
+
+	/**
+	 * Checks that calling move on a view writes through to its slot.
+	 */
+	@Test
+	public void testMoveOnViewUpdatesSlot() {
+		HexagonShape shape = new HexagonShape(10, 10, 5, 5);
+		int slot = _world.add(shape);
+		shape.move(500, 500);
+		assertEquals(15, _world.x(slot));
+		assertEquals(15, _world.y(slot));
+	}
+
+	/**
+	 * Checks that removing a Shape detaches it, keeps its state and moves the
+	 * last slot into the freed one.
+	 */
+	@Test
+	public void testRemove() {
+		RectangleShape first = new RectangleShape(10, 10, 5, 5);
+		RectangleShape second = new RectangleShape(50, 50, 5, 5);
+		_world.add(first);
+		_world.add(second);
+		_world.moveAll(500, 500);
+		_world.remove(first);
+		_world.moveAll(500, 500);
+		
+		assertEquals(15, first.x());
+		assertEquals(1, _world.size());
+		assertSame(second, _world.shapeAt(0));
+		assertEquals(60, second.x());
+		assertNull(first.copy().world());
+	}
+
+	/**
+	 * Checks that Shapes with their own movement rules cannot be added.
+	 */
+	@Test
+	public void testAddCarrierShape() {
+		try {
+			_world.add(new CarrierShape());
+			fail();
+		} catch(IllegalArgumentException e) {
+			// Expected action.
+			assertEquals(0, _world.size());
+		}
+	}
+}
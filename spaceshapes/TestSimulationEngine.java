@@ -0,0 +1,147 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the
+ * implementation of the SimulationEngine class and of Shape's copy method.
+ *
+ * @author Henry Man
+ */
+public class TestSimulationEngine {
+
+	private SimulationEngine _engine;
+	private MockPainter _painter;
+
+	@Before
+	public void setUp() {
+		_engine = new SimulationEngine();
+		_painter = new MockPainter();
+	}
+
+	/**
+	 * Checks that a single step moves each Shape exactly as a call to move
+	 * would, and that the snapshot reflects the new positions.
+	 */
+	@Test
+	public void testStepMovesShapes() {
+		_engine.add(new RectangleShape(100, 20, 12, 15));
+		_engine.setWorldSize(500, 500);
+		_engine.step();
+
+		for(Shape s : _engine.snapshot()) {
+			s.paint(_painter);
+		}
+		assertEquals("(rectangle 112,35,25,35)", _painter.toString());
+		assertEquals(1, _engine.tick());
+	}
+
+	/**
+	 * Checks that no movement happens before the world has been given a size.
+	 */
+	@Test
+	public void testStepWithoutWorldSize() {
+		RectangleShape shape = new RectangleShape(100, 20, 12, 15);
+		_engine.add(shape);
+		_engine.step();
+
+		assertEquals(100, shape.x());
+		assertEquals(0, _engine.tick());
+	}
+
+	/**
+	 * Checks that a published snapshot is not affected by later steps.
+	 */
+	@Test
+	public void testSnapshotIsDetached() {
+		_engine.add(new RectangleShape(100, 20, 12, 15));
+		_engine.setWorldSize(500, 500);
+		_engine.step();
+		List<Shape> snapshot = _engine.snapshot();
+		_engine.step();
+
+		assertEquals(112, snapshot.get(0).x());
+		assertEquals(124, _engine.snapshot().get(0).x());
+	}
+
+	/**
+	 * Checks that copying a CarrierShape copies its whole hierarchy and links
+	 * the copied children to the copied parent.
+	 */
+	@Test
+	public void testCopyCarrierShape() {
+		CarrierShape carrier = new CarrierShape(0, 0, 2, 2, 100, 100);
+		Shape child = new DynamicShape(1, 1, 1, 1, 5, 5);
+		carrier.add(child);
+
+		CarrierShape copy = carrier.copy();
+		carrier.move(500, 500);
+
+		assertEquals(1, copy.shapeCount());
+		assertNotSame(child, copy.shapeAt(0));
+		assertSame(copy, copy.shapeAt(0).parent());
+		assertSame(copy, copy.shapeAt(0).root());
+		assertEquals(1, copy.shapeAt(0).depth());
+		assertEquals(0, copy.x());
+		assertEquals(1, copy.shapeAt(0).x());
+	}
+
+	/**
+	 * Checks that an engine cannot be created with a non-positive timestep.
+	 */
+	@Test
+	public void testInvalidTimestep() {
+		try {
+			new SimulationEngine(0, 1);
+			fail();
+		} catch(IllegalArgumentException e) {
+			// Expected action.
+		}
+	}
+
+	/**
+	 * Checks that advancing the engine gives the same world and tick count
+	 * as stepping it, both with and without collisions.
+	 */
+	@Test
+	public void testAdvanceMatchesStep() {
+		for(boolean collisions : new boolean[] { false, true }) {
+			SimulationEngine stepped = new SimulationEngine();
+			SimulationEngine advanced = new SimulationEngine();
+			for(SimulationEngine engine : new SimulationEngine[] { stepped, advanced }) {
+				engine.setWorldSize(300, 200);
+				if(collisions) {
+					engine.setCollisionListener(CollisionListener.BOUNCE);
+				}
+				engine.add(new RectangleShape(10, 10, 7, 3, 20, 20));
+				engine.add(new OvalShape(250, 150, -5, -4, 15, 15));
+				CarrierShape carrier = new CarrierShape(50, 40, 2, 1, 80, 60);
+				carrier.add(new DynamicShape(5, 5, 9, 4, 10, 10));
+				engine.add(carrier);
+			}
+			for(int i = 0; i < 77; i++) {
+				stepped.step();
+			}
+			advanced.advance(77);
+
+			assertEquals(77, advanced.tick());
+			assertEquals(paint(stepped.snapshot()), paint(advanced.snapshot()));
+		}
+	}
+
+	private static String paint(List<Shape> shapes) {
+		MockPainter painter = new MockPainter();
+		for(Shape s : shapes) {
+			s.paint(painter);
+		}
+		return painter.toString();
+	}
+}
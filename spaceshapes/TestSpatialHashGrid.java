@@ -0,0 +1,113 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the
+ * implementation of the SpatialHashGrid class and of Shape's bounceOff
+ * method.
+ * 
+ * @author Henry Man
+ */
+public class TestSpatialHashGrid {
+
+	private List<String> _reported;
+	private CollisionListener _recorder;
+
+	@Before
+	public void setUp() {
+		_reported = new ArrayList<String>();
+		_recorder = (a, b) -> _reported.add(key(a, b));
+	}
+
+	/**
+	 * Checks that the grid reports exactly the overlapping pairs found by 
+	 * testing every pair, each one once, for randomly placed Shapes of
+	 * varying size (including negative positions).
+	 */
+	@Test
+	public void testMatchesBruteForce() {
+		Random random = new Random(3);
+		List<Shape> shapes = new ArrayList<Shape>();
+		for(int i = 0; i < 400; i++) {
+			shapes.add(new RectangleShape(random.nextInt(600) - 50, random.nextInt(600) - 50, 0, 0,
+					1 + random.nextInt(random.nextBoolean() ? 20 : 120), 1 + random.nextInt(40)));
+		}
+		
+		Set<String> expected = new HashSet<String>();
+		for(int i = 0; i < shapes.size(); i++) {
+			for(int j = i + 1; j < shapes.size(); j++) {
+				if(SpatialHashGrid.overlaps(shapes.get(i), shapes.get(j))) {
+					expected.add(key(shapes.get(i), shapes.get(j)));
+				}
+			}
+		}
+		
+		new SpatialHashGrid().detect(shapes, _recorder);
+		assertEquals(expected.size(), _reported.size());
+		assertEquals(expected, new HashSet<String>(_reported));
+		
+		_reported.clear();
+		new SpatialHashGrid(7).detect(shapes, _recorder);
+		assertEquals(expected, new HashSet<String>(_reported));
+		assertEquals(expected.size(), _reported.size());
+	}
+
+	/**
+	 * Checks that children of a CarrierShape are tested against each other in
+	 * the carrier's coordinate space, and not against top-level Shapes.
+	 */
+	@Test
+	public void testCarrierChildren() {
+		CarrierShape carrier = new CarrierShape(100, 100, 0, 0, 100, 100);
+		Shape first = new RectangleShape(0, 0, 0, 0, 20, 20);
+		Shape second = new RectangleShape(10, 10, 0, 0, 20, 20);
+		carrier.add(first);
+		carrier.add(second);
+		Shape outside = new RectangleShape(0, 0, 0, 0, 30, 30);
+		
+		List<Shape> shapes = new ArrayList<Shape>();
+		shapes.add(carrier);
+		shapes.add(outside);
+		new SpatialHashGrid().detect(shapes, _recorder);
+		
+		assertEquals(1, _reported.size());
+		assertEquals(key(first, second), _reported.get(0));
+	}
+
+	/**
+	 * Checks that two Shapes approaching each other horizontally reverse 
+	 * their horizontal direction when they bounce.
+	 */
+	@Test
+	public void testBounceOff() {
+		Shape left = new RectangleShape(0, 0, 5, 2, 20, 20);
+		Shape right = new RectangleShape(15, 0, -3, 2, 20, 20);
+		left.bounceOff(right);
+		
+		assertEquals(-5, left.deltaX());
+		assertEquals(3, right.deltaX());
+		assertEquals(2, left.deltaY());
+		
+		// Now moving apart, so a second bounce has no effect.
+		left.bounceOff(right);
+		assertEquals(-5, left.deltaX());
+		assertTrue(right.deltaX() > 0);
+	}
+
+	private static String key(Shape a, Shape b) {
+		int first = System.identityHashCode(a);
+		int second = System.identityHashCode(b);
+		return Math.min(first, second) + "-" + Math.max(first, second);
+	}
+}
@@ -0,0 +1,145 @@
+package spaceshapes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A class that implements test cases aimed at identifying bugs in the
+ * implementation of the TiledRasterizer class. Tiled frames are compared
+ * pixel by pixel with frames painted as a single tile.
+ *
+ * @author Henry Man
+ */
+public class TestTiledRasterizer {
+
+	private List<Shape> _shapes;
+	private ForkJoinPool _pool;
+
+	/**
+	 * Creates a world of overlapping Shapes, including nested CarrierShapes
+	 * reaching across tile boundaries and a Shape with text.
+	 */
+	@Before
+	public void setUp() {
+		_pool = new ForkJoinPool(3);
+		_shapes = new ArrayList<Shape>();
+		Random random = new Random(7);
+		for(int i = 0; i < 200; i++) {
+			int x = random.nextInt(300) - 20;
+			int y = random.nextInt(200) - 20;
+			switch(i % 4) {
+			case 0:
+				_shapes.add(new RectangleShape(x, y, 1, 1, 1 + random.nextInt(60), 1 + random.nextInt(60)));
+				break;
+			case 1:
+				_shapes.add(new OvalShape(x, y, 1, 1, 1 + random.nextInt(40), 1 + random.nextInt(40)));
+				break;
+			case 2:
+				_shapes.add(new HexagonShape(x, y, 1, 1, 40, 30));
+				break;
+			default:
+				_shapes.add(new DynamicShape(x, y, 1, 1, 30, 20, new Color(random.nextInt())));
+			}
+		}
+		CarrierShape carrier = new CarrierShape(50, 40, 1, 1, 120, 100);
+		CarrierShape nested = new CarrierShape(60, 50, 1, 1, 50, 40);
+		nested.add(new RectangleShape(30, 30, 1, 1, 40, 40));
+		carrier.add(nested);
+		_shapes.add(carrier);
+		RectangleShape labelled = new RectangleShape(120, 60, 1, 1, 10, 10);
+		labelled.setText("A label wider than its Shape");
+		_shapes.add(labelled);
+	}
+
+	/**
+	 * Checks that tiles at the natural size, including partial tiles at the
+	 * edges, stitch into the same frame as painting in one piece.
+	 */
+	@Test
+	public void testMatchesUntiled() {
+		assertSameFrame(null);
+	}
+
+	/**
+	 * Checks that tiles match when drawing through a zoomed-in and a
+	 * zoomed-out Camera.
+	 */
+	@Test
+	public void testMatchesUntiledThroughCamera() {
+		Camera camera = new Camera();
+		camera.setPosition(30.5, 10.25);
+		camera.setZoom(2.5);
+		assertSameFrame(camera);
+
+		camera.setPosition(-10, -10);
+		camera.setZoom(0.3);
+		assertSameFrame(camera);
+	}
+
+	/**
+	 * Checks that rendering does not modify the Shapes painted: a
+	 * CarrierShape with a removed child is not compacted and no text
+	 * measurements are saved on a Shape with text.
+	 */
+	@Test
+	public void testShapesNotModified() {
+		CarrierShape carrier = new CarrierShape(0, 0, 1, 1, 100, 100);
+		Shape removed = new RectangleShape(10, 10, 1, 1, 10, 10);
+		carrier.add(removed);
+		carrier.add(new RectangleShape(20, 20, 1, 1, 10, 10));
+		Shape last = new RectangleShape(30, 30, 1, 1, 10, 10);
+		last.setText("label");
+		carrier.add(last);
+		carrier.remove(removed);
+		_shapes.add(carrier);
+
+		new TiledRasterizer(_pool, 64, 3).render(new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB),
+				_shapes, Color.BLACK, null, 0);
+		assertEquals(2, last.childSlot());
+		assertNull(last.textLayout());
+		assertNull(_shapes.get(_shapes.size() - 2).textLayout());
+	}
+
+	/**
+	 * Checks that a frame of an unsupported image type is rejected.
+	 */
+	@Test
+	public void testInvalidFrame() {
+		try {
+			new TiledRasterizer().render(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB),
+					_shapes, Color.BLACK, null, 0);
+			fail();
+		} catch(IllegalArgumentException e) {
+			// Expected action.
+		}
+	}
+
+	private void assertSameFrame(Camera camera) {
+		HeadlessRenderer plain = new HeadlessRenderer(250, 170);
+		plain.setCamera(camera, 3);
+		plain.setTiling(new TiledRasterizer(_pool, 256, 1));
+		int[] expected = plain.render(_shapes).getRGB(0, 0, 250, 170, null, 0, 250);
+
+		HeadlessRenderer tiled = new HeadlessRenderer(250, 170);
+		tiled.setCamera(camera, 3);
+		tiled.setTiling(new TiledRasterizer(_pool, 64, 3));
+		int[] actual = tiled.render(_shapes).getRGB(0, 0, 250, 170, null, 0, 250);
+		assertArrayEquals(expected, actual);
+
+		// A second frame reuses the tile images and assignment arrays.
+		actual = tiled.render(_shapes).getRGB(0, 0, 250, 170, null, 0, 250);
+		assertArrayEquals(expected, actual);
+	}
+}
@@ -0,0 +1,280 @@
+package spaceshapes;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of text measurements, keyed by string, font and
+ * FontRenderContext, as the same font measures differently with different
+ * rendering hints and transforms. Measuring a string with FontMetrics is
+ * costly compared with drawing a few lines, and the text of a Shape rarely
+ * changes, so GraphicsPainter looks measurements up here instead. When the
+ * cache is full the least recently used entry is evicted.
+ * 
+ * A Shape also keeps a reference to the Layout of its own text, which
+ * Shape.setText clears, so repeated painting of the same label does not even
+ * need a cache lookup.
+ * 
+ * @author Henry Man
+ *
+ */
+public class TextLayoutCache {
+	// === Constants for default values. ===
+	protected static final int DEFAULT_CAPACITY = 4096;
+	// ===
+
+	private static final TextLayoutCache SHARED = new TextLayoutCache(DEFAULT_CAPACITY);
+
+	private final LinkedHashMap<Key, Layout> _entries;
+
+	// Reused for lookups so that a hit does not allocate.
+	private final Key _probe = new Key(null, null, null);
+
+	/**
+	 * Returns the cache shared by all GraphicsPainters.
+	 */
+	public static TextLayoutCache shared() {
+		return SHARED;
+	}
+
+	/**
+	 * Creates an empty cache holding at most capacity entries.
+	 * @throws IllegalArgumentException if capacity is not positive.
+	 */
+	@SuppressWarnings("serial")
+	public TextLayoutCache(int capacity) throws IllegalArgumentException {
+		if(capacity <= 0) {
+			throw new IllegalArgumentException();
+		}
+		_entries = new LinkedHashMap<Key, Layout>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Key, Layout> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the measurements of a string in the specified font as drawn
+	 * with g, measuring it with g's FontMetrics if it is not cached.
+	 */
+	public Layout layout(String text, Font font, Graphics g) {
+		return layout(text, font, renderContext(g, font), g);
+	}
+
+	/**
+	 * Returns the measurements of a string in the specified font, measuring
+	 * it with g's FontMetrics if it is not cached. frc must be g's
+	 * FontRenderContext.
+	 */
+	synchronized Layout layout(String text, Font font, FontRenderContext frc, Graphics g) {
+		_probe._text = text;
+		_probe._font = font;
+		_probe._frc = frc;
+		Layout layout = _entries.get(_probe);
+		_probe._text = null;
+		_probe._font = null;
+		_probe._frc = null;
+		if(layout == null) {
+			FontMetrics metrics = g.getFontMetrics(font);
+			layout = new Layout(text, font, frc, metrics.stringWidth(text), 
+					metrics.getMaxAscent(), metrics.getMaxDescent());
+			_entries.put(new Key(text, font, frc), layout);
+		}
+		return layout;
+	}
+
+	/**
+	 * Returns the FontRenderContext in which g measures text in the
+	 * specified font.
+	 */
+	static FontRenderContext renderContext(Graphics g, Font font) {
+		if(g instanceof Graphics2D) {
+			return ((Graphics2D) g).getFontRenderContext();
+		}
+		return g.getFontMetrics(font).getFontRenderContext();
+	}
+
+	/**
+	 * Returns the number of cached entries.
+	 */
+	public synchronized int size() {
+		return _entries.size();
+	}
+
+	/**
+	 * Removes every cached entry.
+	 */
+	public synchronized void clear() {
+		_entries.clear();
+	}
+
+	/**
+	 * Measurements of a string in a particular font and FontRenderContext,
+	 * and optionally images of the string pre-rendered in the last few
+	 * colours it was drawn in.
+	 */
+	public static class Layout {
+		// Largest number of colours images are kept for.
+		private static final int MAX_IMAGES = 4;
+
+		private static final TextImage[] NO_IMAGES = new TextImage[0];
+
+		private final String _text;
+		private final Font _font;
+		private final FontRenderContext _frc;
+		private final int _width;
+		private final int _ascent;
+		private final int _descent;
+
+		// Number of times this Layout has been used to draw text.
+		private volatile int _uses = 0;
+
+		// Images by colour, oldest first. Replaced rather than modified.
+		private volatile TextImage[] _images = NO_IMAGES;
+
+		Layout(String text, Font font, FontRenderContext frc, int width, int ascent, int descent) {
+			_text = text;
+			_font = font;
+			_frc = frc;
+			_width = width;
+			_ascent = ascent;
+			_descent = descent;
+		}
+
+		/**
+		 * Returns true if this Layout measures the specified string in the
+		 * specified font and FontRenderContext.
+		 */
+		boolean matches(String text, Font font, FontRenderContext frc) {
+			return _text.equals(text) && (_font == font || _font.equals(font))
+					&& (_frc == frc || _frc.equals(frc));
+		}
+
+		/**
+		 * Returns the width of the string in pixels.
+		 */
+		public int width() {
+			return _width;
+		}
+
+		/**
+		 * Returns the font's maximum ascent.
+		 */
+		public int ascent() {
+			return _ascent;
+		}
+
+		/**
+		 * Returns the font's maximum descent.
+		 */
+		public int descent() {
+			return _descent;
+		}
+
+		/**
+		 * Records a use of this Layout and returns the number of uses so far.
+		 */
+		int use() {
+			int uses = _uses + 1;
+			_uses = uses;
+			return uses;
+		}
+
+		/**
+		 * Draws the string with its baseline starting at (x, y) from an image
+		 * pre-rendered in the specified colour, rendering the image first if
+		 * there is none for that colour. Images are kept for the last few
+		 * colours, so a label drawn in a handful of colours is rendered once
+		 * per colour. An image is rendered with g's rendering hints, but
+		 * without its transform: it is drawn through the transform, so a
+		 * scaled label is resampled rather than rasterised at its size.
+		 */
+		void drawImage(Graphics g, Color color, int x, int y) {
+			TextImage[] images = _images;
+			TextImage image = null;
+			for(TextImage candidate : images) {
+				if(candidate._color.equals(color)) {
+					image = candidate;
+					break;
+				}
+			}
+			if(image == null) {
+				image = new TextImage(this, color, g);
+				int kept = Math.min(images.length, MAX_IMAGES - 1);
+				TextImage[] updated = new TextImage[kept + 1];
+				System.arraycopy(images, images.length - kept, updated, 0, kept);
+				updated[kept] = image;
+				_images = updated;
+			}
+			g.drawImage(image._pixels, x - image._padding, y - _ascent, null);
+		}
+
+		/**
+		 * Returns the number of colours images are kept for.
+		 */
+		int imageCount() {
+			return _images.length;
+		}
+	}
+
+	/**
+	 * A string rendered into a transparent image in one colour, with the
+	 * rendering hints of the Graphics it is first drawn to. The image is
+	 * padded horizontally to leave room for glyphs that overhang their
+	 * advance.
+	 */
+	private static class TextImage {
+		private final Color _color;
+		private final int _padding;
+		private final BufferedImage _pixels;
+
+		TextImage(Layout layout, Color color, Graphics target) {
+			_color = color;
+			_padding = Math.max(1, layout._ascent / 2);
+			_pixels = new BufferedImage(layout._width + 2 * _padding, 
+					Math.max(1, layout._ascent + layout._descent), BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = _pixels.createGraphics();
+			if(target instanceof Graphics2D) {
+				g.setRenderingHints(((Graphics2D) target).getRenderingHints());
+			}
+			g.setFont(layout._font);
+			g.setColor(color);
+			g.drawString(layout._text, _padding, layout._ascent);
+			g.dispose();
+		}
+	}
+
+	/**
+	 * Cache key combining a string, a font and a FontRenderContext.
+	 */
+	private static class Key {
+		private String _text;
+		private Font _font;
+		private FontRenderContext _frc;
+
+		Key(String text, Font font, FontRenderContext frc) {
+			_text = text;
+			_font = font;
+			_frc = frc;
+		}
+
+		public boolean equals(Object other) {
+			if(!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return _text.equals(key._text) && _font.equals(key._font) && _frc.equals(key._frc);
+		}
+
+		public int hashCode() {
+			return (_text.hashCode() * 31 + _font.hashCode()) * 31 + _frc.hashCode();
+		}
+	}
+}
@@ -0,0 +1,316 @@
+package spaceshapes;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders large frames on several threads by splitting them into square
+ * tiles. Each worker owns a tile-sized BufferedImage and paints one tile at a
+ * time into it through its own GraphicsPainter, translated and clipped to the
+ * tile plus a narrow border, and then copies the tile without its border into
+ * the frame. Tiles cover disjoint parts of the frame, so workers never wait
+ * for each other, and the stitched frame is identical to one painted as a
+ * single tile. Outlines are not batched within a tile, so frames may differ
+ * by a few pixels from those painted by HeadlessRenderer without tiling.
+ *
+ * Before painting, every top-level Shape is assigned to the tiles its
+ * bounds, including those of its descendants, overlap, so a worker only
+ * visits the Shapes of its tile. Shapes are painted in list order within
+ * each tile, so overlapping Shapes appear exactly as when the frame is
+ * painted in one piece. Shapes with text are assigned to every tile, as
+ * their text may extend beyond their bounds.
+ *
+ * Workers paint the same Shapes at once, so painting must not modify them:
+ * CarrierShapes skip removed children rather than compacting, and each
+ * worker measures text through a TextLayoutCache of its own instead of the
+ * shared cache, without saving measurements on the Shapes. The Shapes must
+ * not be moved or modified while a frame is rendered.
+ *
+ * A TiledRasterizer is used by one thread at a time, normally through
+ * HeadlessRenderer.setTiling.
+ *
+ * @author Henry Man
+ *
+ */
+public class TiledRasterizer {
+	// === Constants for default values. ===
+	protected static final int DEFAULT_TILE_SIZE = 256;
+	// ===
+
+	// Pixels painted around each tile and then discarded. Lines cut by the
+	// edge of the painted area are rasterised slightly differently near the
+	// cut, so the cut is kept outside the part copied into the frame, except
+	// at the edges of the frame where it is cut anyway.
+	private static final int BORDER = 2;
+
+	private final ForkJoinPool _pool;
+
+	private final int _tileSize;
+
+	private final int _workers;
+
+	// Tile image of each worker, created on first use.
+	private final BufferedImage[] _tileImages;
+
+	// Text measurements of each worker, created on first use.
+	private final TextLayoutCache[] _textLayoutCaches;
+
+	// === Assignment of Shapes to tiles, reused between frames. ===
+	// Entries of tile t are _entries[_tileStart[t], _tileStart[t + 1]).
+	private int[] _tileStart = new int[1];
+
+	private int[] _entries = new int[0];
+
+	// Tile range of each Shape, as first column, first row, last column and
+	// last row, four values per Shape.
+	private int[] _ranges = new int[0];
+	// ===
+
+	// Working box for ShapeIndex.bounds().
+	private final int[] _box = new int[4];
+
+	/**
+	 * Creates a TiledRasterizer that uses the common fork-join pool, with a
+	 * worker per available processor and the default tile size.
+	 */
+	public TiledRasterizer() {
+		this(ForkJoinPool.commonPool(), DEFAULT_TILE_SIZE, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a TiledRasterizer with a specified pool, tile size and number
+	 * of workers.
+	 * @param pool pool that runs the workers.
+	 * @param tileSize width and height of a tile in pixels.
+	 * @param workers number of tiles painted at once.
+	 * @throws IllegalArgumentException if tileSize or workers is not
+	 * positive.
+	 */
+	public TiledRasterizer(ForkJoinPool pool, int tileSize, int workers) throws IllegalArgumentException {
+		if(tileSize <= 0 || workers <= 0) {
+			throw new IllegalArgumentException();
+		}
+		_pool = pool;
+		_tileSize = tileSize;
+		_workers = workers;
+		_tileImages = new BufferedImage[workers];
+		_textLayoutCaches = new TextLayoutCache[workers];
+	}
+
+	/**
+	 * Paints a list of Shapes into a frame, optionally through a Camera,
+	 * after clearing it to a background colour.
+	 * @param frame image of type TYPE_INT_RGB to paint into.
+	 * @param camera Camera to draw through, or null.
+	 * @param detailPixels level of detail threshold used with the Camera.
+	 * @throws IllegalArgumentException if frame is not of type TYPE_INT_RGB.
+	 */
+	public void render(BufferedImage frame, List<Shape> shapes, Color background, Camera camera,
+			int detailPixels) throws IllegalArgumentException {
+		if(frame.getType() != BufferedImage.TYPE_INT_RGB) {
+			throw new IllegalArgumentException();
+		}
+		int columns = (frame.getWidth() + _tileSize - 1) / _tileSize;
+		int rows = (frame.getHeight() + _tileSize - 1) / _tileSize;
+		assign(shapes, columns, rows, camera);
+
+		AtomicInteger next = new AtomicInteger();
+		_pool.invoke(new RenderTask(frame, shapes, background, camera, detailPixels, columns, rows, next));
+	}
+
+	/**
+	 * Assigns every Shape to the tiles it overlaps, by counting sort on tile
+	 * index so that each tile's Shapes stay in list order.
+	 */
+	private void assign(List<Shape> shapes, int columns, int rows, Camera camera) {
+		int tiles = columns * rows;
+		int n = shapes.size();
+		if(_tileStart.length < tiles + 1) {
+			_tileStart = new int[tiles + 1];
+		}
+		Arrays.fill(_tileStart, 0, tiles + 1, 0);
+		if(_ranges.length < 4 * n) {
+			_ranges = new int[4 * n];
+		}
+
+		// Outlines extend up to a stroke width beyond the bounds, and tiles are
+		// painted with a border.
+		double zoom = camera == null ? 1 : camera.zoom();
+		int margin = (int) Math.ceil(zoom) + 1 + BORDER;
+
+		for(int i = 0; i < n; i++) {
+			Shape shape = shapes.get(i);
+			int first;
+			int top;
+			int last;
+			int bottom;
+			if(shape.subtreeHasText()) {
+				first = 0;
+				top = 0;
+				last = columns - 1;
+				bottom = rows - 1;
+			} else {
+				ShapeIndex.bounds(shape, _box);
+				double minX = _box[0];
+				double minY = _box[1];
+				double maxX = _box[2] + 1;
+				double maxY = _box[3] + 1;
+				if(camera != null) {
+					minX = (minX - camera.x()) * zoom;
+					minY = (minY - camera.y()) * zoom;
+					maxX = (maxX - camera.x()) * zoom;
+					maxY = (maxY - camera.y()) * zoom;
+				}
+				first = Math.max(0, (int) Math.floor((minX - margin) / _tileSize));
+				top = Math.max(0, (int) Math.floor((minY - margin) / _tileSize));
+				last = Math.min(columns - 1, (int) Math.floor((maxX + margin) / _tileSize));
+				bottom = Math.min(rows - 1, (int) Math.floor((maxY + margin) / _tileSize));
+			}
+			_ranges[4 * i] = first;
+			_ranges[4 * i + 1] = top;
+			_ranges[4 * i + 2] = last;
+			_ranges[4 * i + 3] = bottom;
+			for(int row = top; row <= bottom; row++) {
+				for(int column = first; column <= last; column++) {
+					_tileStart[row * columns + column + 1]++;
+				}
+			}
+		}
+
+		for(int t = 0; t < tiles; t++) {
+			_tileStart[t + 1] += _tileStart[t];
+		}
+		if(_entries.length < _tileStart[tiles]) {
+			_entries = new int[_tileStart[tiles]];
+		}
+
+		// Fill each tile's range, using its start as the write position, which
+		// leaves it at the tile's end; the starts are shifted back afterwards.
+		for(int i = 0; i < n; i++) {
+			for(int row = _ranges[4 * i + 1]; row <= _ranges[4 * i + 3]; row++) {
+				for(int column = _ranges[4 * i]; column <= _ranges[4 * i + 2]; column++) {
+					int tile = row * columns + column;
+					_entries[_tileStart[tile]++] = i;
+				}
+			}
+		}
+		for(int t = tiles; t > 0; t--) {
+			_tileStart[t] = _tileStart[t - 1];
+		}
+		_tileStart[0] = 0;
+	}
+
+	/**
+	 * Task that starts a worker per tile image and waits for all of them.
+	 */
+	@SuppressWarnings("serial")
+	private class RenderTask extends RecursiveAction {
+		private final BufferedImage _frame;
+		private final List<Shape> _shapes;
+		private final Color _background;
+		private final Camera _camera;
+		private final int _detailPixels;
+		private final int _columns;
+		private final int _rows;
+		private final AtomicInteger _next;
+		private final int _worker;
+
+		RenderTask(BufferedImage frame, List<Shape> shapes, Color background, Camera camera,
+				int detailPixels, int columns, int rows, AtomicInteger next) {
+			this(frame, shapes, background, camera, detailPixels, columns, rows, next, -1);
+		}
+
+		private RenderTask(BufferedImage frame, List<Shape> shapes, Color background, Camera camera,
+				int detailPixels, int columns, int rows, AtomicInteger next, int worker) {
+			_frame = frame;
+			_shapes = shapes;
+			_background = background;
+			_camera = camera;
+			_detailPixels = detailPixels;
+			_columns = columns;
+			_rows = rows;
+			_next = next;
+			_worker = worker;
+		}
+
+		@Override
+		protected void compute() {
+			if(_worker >= 0) {
+				paintTiles();
+				return;
+			}
+			int workers = Math.min(_workers, _columns * _rows);
+			List<RenderTask> tasks = new ArrayList<RenderTask>(workers);
+			for(int w = 0; w < workers; w++) {
+				tasks.add(new RenderTask(_frame, _shapes, _background, _camera, _detailPixels,
+						_columns, _rows, _next, w));
+			}
+			invokeAll(tasks);
+		}
+
+		/**
+		 * Takes tiles until none are left, painting each into this worker's
+		 * tile image and copying it into the frame.
+		 */
+		private void paintTiles() {
+			BufferedImage image = _tileImages[_worker];
+			if(image == null) {
+				image = new BufferedImage(_tileSize + 2 * BORDER, _tileSize + 2 * BORDER, 
+						BufferedImage.TYPE_INT_RGB);
+				_tileImages[_worker] = image;
+			}
+			TextLayoutCache cache = _textLayoutCaches[_worker];
+			if(cache == null) {
+				cache = new TextLayoutCache(TextLayoutCache.DEFAULT_CAPACITY);
+				_textLayoutCaches[_worker] = cache;
+			}
+			int[] tilePixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			int[] framePixels = ((DataBufferInt) _frame.getRaster().getDataBuffer()).getData();
+			int frameWidth = _frame.getWidth();
+			int imageWidth = image.getWidth();
+			List<Shape> tileShapes = new ArrayList<Shape>();
+
+			int tile;
+			while((tile = _next.getAndIncrement()) < _columns * _rows) {
+				int tileX = (tile % _columns) * _tileSize;
+				int tileY = (tile / _columns) * _tileSize;
+				int width = Math.min(_tileSize, frameWidth - tileX);
+				int height = Math.min(_tileSize, _frame.getHeight() - tileY);
+
+				tileShapes.clear();
+				for(int e = _tileStart[tile]; e < _tileStart[tile + 1]; e++) {
+					tileShapes.add(_shapes.get(_entries[e]));
+				}
+
+				Graphics2D g = image.createGraphics();
+				try {
+					g.setColor(_background);
+					g.fillRect(0, 0, width + 2 * BORDER, height + 2 * BORDER);
+					g.translate(BORDER - tileX, BORDER - tileY);
+					int clipX = Math.max(0, tileX - BORDER);
+					int clipY = Math.max(0, tileY - BORDER);
+					g.clipRect(clipX, clipY, Math.min(frameWidth, tileX + width + BORDER) - clipX,
+							Math.min(_frame.getHeight(), tileY + height + BORDER) - clipY);
+					// Outlines are not batched: a batched path spans the whole tile and
+					// is rasterised differently wherever the clip cuts it.
+					HeadlessRenderer.paint(g, tileShapes, _camera, _detailPixels, false, cache);
+				} finally {
+					g.dispose();
+				}
+
+				for(int row = 0; row < height; row++) {
+					System.arraycopy(tilePixels, (row + BORDER) * imageWidth + BORDER, framePixels,
+							(tileY + row) * frameWidth + tileX, width);
+				}
+			}
+		}
+	}
+}